@@ -0,0 +1,250 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Opens zip and tar archives as file systems, so that they are listed and copied like
+ * directories. A path inside an archive is the archive's path, a '!' and the path within it,
+ * such as /home/me/lib.jar!/META-INF. An archive is opened once and kept open, so its entry
+ * index is read only once, until the archive changes on disk or a change made through it has to
+ * be written back.
+ */
+public class Archives {
+
+  public static final String SEPARATOR = "!";
+
+  private static final String[] ZIP_SUFFIXES = {".zip", ".jar", ".war", ".ear"};
+  private static final String[] TAR_SUFFIXES = {".tar", ".tar.gz", ".tgz"};
+
+  private static final class Mount {
+
+    final Path archive;
+    final FileSystem fileSystem;
+    final long size;
+    final long lastModified;
+    int users;
+    boolean modified;
+
+    Mount(Path archive, FileSystem fileSystem, long size, long lastModified) {
+      this.archive = archive;
+      this.fileSystem = fileSystem;
+      this.size = size;
+      this.lastModified = lastModified;
+    }
+  }
+
+  private final Map<Path, Mount> mounts = new HashMap<>();
+
+  public static boolean isArchive(String name) {
+    return isZip(name) || isTar(name);
+  }
+
+  private static boolean isZip(String name) {
+    return hasSuffix(name, ZIP_SUFFIXES);
+  }
+
+  private static boolean isTar(String name) {
+    return hasSuffix(name, TAR_SUFFIXES);
+  }
+
+  private static boolean hasSuffix(String name, String[] suffixes) {
+    String lowerCase = name.toLowerCase(Locale.ROOT);
+    for (String suffix : suffixes) {
+      if (lowerCase.endsWith(suffix) && lowerCase.length() > suffix.length()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // The path of the archive's top-level directory.
+  public static String root(String archivePath) {
+    return archivePath + SEPARATOR;
+  }
+
+  public static boolean isInArchive(String path) {
+    return split(path) >= 0;
+  }
+
+  // Tar archives are only read; everything that would change one fails.
+  public static boolean isReadOnly(String path) {
+    int split = split(path);
+    return split >= 0 && isTar(path.substring(0, split));
+  }
+
+  // The index of the separator that follows an archive name, or -1 if the path is not in one.
+  private static int split(String path) {
+    int index = path.indexOf(SEPARATOR);
+    while (index >= 0) {
+      int next = index + SEPARATOR.length();
+      if ((next == path.length() || path.charAt(next) == '/'
+          || path.charAt(next) == File.separatorChar) && isArchive(path.substring(0, index))) {
+        return index;
+      }
+      index = path.indexOf(SEPARATOR, next);
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the path for a panel path, opening the archive it is in if needed. A path in an
+   * archive that cannot be opened resolves to a path that does not exist, so it fails like any
+   * other missing directory.
+   */
+  public Path resolve(String path) {
+    int split = split(path);
+    if (split < 0) {
+      return Paths.get(path);
+    }
+    try {
+      return resolve(mount(archive(path, split), false), path, split);
+    } catch (IOException | RuntimeException e) {
+      return Paths.get(path);
+    }
+  }
+
+  // Like resolve, but returns null rather than open an archive, as that may take a while.
+  public Path resolveIfOpen(String path) {
+    int split = split(path);
+    if (split < 0) {
+      return Paths.get(path);
+    }
+    Mount mount;
+    synchronized (this) {
+      mount = mounts.get(archive(path, split));
+    }
+    return mount != null && mount.fileSystem.isOpen() ? resolve(mount, path, split) : null;
+  }
+
+  private static Path resolve(Mount mount, String path, int split) {
+    String inner = path.substring(split + SEPARATOR.length()).replace(File.separatorChar, '/');
+    return mount.fileSystem.getPath(inner.isEmpty() ? "/" : inner).normalize();
+  }
+
+  private static Path archive(String path, int split) {
+    return Paths.get(path.substring(0, split)).toAbsolutePath().normalize();
+  }
+
+  /**
+   * Returns the open archive, opening it again if it changed on disk. Opening reads the entry
+   * index, which for a compressed tar means decompressing all of it, so it is done without
+   * holding the lock.
+   */
+  private Mount mount(Path archive, boolean use) throws IOException {
+    BasicFileAttributes attributes = Files.readAttributes(archive, BasicFileAttributes.class);
+    long lastModified = attributes.lastModifiedTime().toMillis();
+    synchronized (this) {
+      Mount mount = mounts.get(archive);
+      if (isCurrent(mount, attributes.size(), lastModified)) {
+        mount.users += use ? 1 : 0;
+        return mount;
+      }
+    }
+
+    FileSystem fileSystem = isTar(archive.getFileName().toString())
+        ? TarFileSystemProvider.INSTANCE.newFileSystem(archive, Map.of())
+        : FileSystems.newFileSystem(archive, Map.of());
+    synchronized (this) {
+      Mount mount = mounts.get(archive);
+      if (isCurrent(mount, attributes.size(), lastModified)) {
+        // Opened by another thread in the meantime.
+        closeQuietly(fileSystem);
+      } else {
+        if (mount != null && mount.users == 0) {
+          // Changed on disk by someone else; whatever was read from it is stale.
+          closeQuietly(mount.fileSystem);
+        }
+        mount = new Mount(archive, fileSystem, attributes.size(), lastModified);
+        mounts.put(archive, mount);
+      }
+      mount.users += use ? 1 : 0;
+      return mount;
+    }
+  }
+
+  private static boolean isCurrent(Mount mount, long size, long lastModified) {
+    return mount != null && mount.fileSystem.isOpen() && mount.size == size
+        && mount.lastModified == lastModified;
+  }
+
+  /**
+   * Runs an operation with the archives that hold the given paths kept open. Zip archives
+   * collect their changes in memory and temporary files, so the ones that are written to are
+   * saved to disk when the last operation using them finishes. A failure to save is thrown as
+   * an UncheckedIOException.
+   */
+  public <T> T use(List<String> reading, List<String> writing, Supplier<T> operation) {
+    Map<Path, Mount> used = new HashMap<>();
+    try {
+      acquire(reading, false, used);
+      acquire(writing, true, used);
+      return operation.get();
+    } finally {
+      release(used.values());
+    }
+  }
+
+  private void acquire(List<String> paths, boolean write, Map<Path, Mount> used) {
+    for (String path : paths) {
+      int split = split(path);
+      if (split < 0) {
+        continue;
+      }
+      Path archive = archive(path, split);
+      try {
+        Mount mount = used.get(archive);
+        if (mount == null) {
+          mount = mount(archive, true);
+          used.put(archive, mount);
+        }
+        synchronized (this) {
+          mount.modified |= write;
+        }
+      } catch (IOException e) {
+        // The operation reports the archive as missing.
+      }
+    }
+  }
+
+  private synchronized void release(Collection<Mount> used) {
+    IOException failure = null;
+    for (Mount mount : used) {
+      boolean current = mounts.get(mount.archive) == mount;
+      if (--mount.users > 0 || !mount.modified && current) {
+        continue;
+      }
+      if (current) {
+        mounts.remove(mount.archive);
+      }
+      try {
+        mount.fileSystem.close();
+      } catch (IOException e) {
+        failure = e;
+      }
+    }
+    if (failure != null) {
+      throw new UncheckedIOException("Failed to write the archive: " + failure.getMessage(),
+          failure);
+    }
+  }
+
+  private static void closeQuietly(FileSystem fileSystem) {
+    try {
+      fileSystem.close();
+    } catch (IOException e) {
+      // Nothing was written through it.
+    }
+  }
+}
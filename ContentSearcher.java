@@ -0,0 +1,564 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Searches file contents under a directory. Files come from a FileFinder walk and are scanned in
+ * parallel, each in fixed-size windows that are memory-mapped (or read, for small files) and
+ * searched directly as bytes, so a file larger than 2 GB is split across cores too.
+ */
+public class ContentSearcher {
+
+  private static final long REPORT_INTERVAL_MS = 100;
+  private static final int BINARY_CHECK_BYTES = 8192;
+  private static final int MAP_THRESHOLD = 256 * 1024;
+  // Matches starting in one window may run this far into the next; longer lines are cut.
+  private static final int MAX_LINE_BYTES = 64 * 1024;
+  private static final int MAX_SNIPPET_BYTES = 400;
+  private static final int PATTERN_CHUNK_BYTES = 1024 * 1024;
+  private static final long NEWLINES = broadcast((byte) '\n');
+  private static final long LOW_SEVEN_BITS = 0x7f7f7f7f7f7f7f7fL;
+
+  public static final class Hit {
+
+    private final FileEntry file;
+    private final long line;
+    private final long offset;
+    private final String text;
+
+    Hit(FileEntry file, long line, long offset, String text) {
+      this.file = file;
+      this.line = line;
+      this.offset = offset;
+      this.text = text;
+    }
+
+    // Named by its path relative to the search root, like FileFinder matches.
+    public FileEntry getFile() {
+      return file;
+    }
+
+    public long getLine() {
+      return line;
+    }
+
+    public long getOffset() {
+      return offset;
+    }
+
+    public String getText() {
+      return text;
+    }
+  }
+
+  public interface Listener {
+
+    void hitsFound(List<Hit> hits, long filesScanned, long bytesScanned, double bytesPerSecond);
+
+    void searchFinished(long hits, long filesScanned, long bytesScanned, long elapsedNanos,
+        boolean limitReached);
+  }
+
+  /**
+   * A literal is matched as its UTF-8 bytes, ignoring ASCII case unless matchCase is set. A
+   * regular expression is run over the bytes read as ISO-8859-1, so it should stick to ASCII.
+   * At most one hit is reported per line.
+   */
+  public static final class Query {
+
+    private final byte[] literal;
+    private final Pattern pattern;
+    private final boolean ignoreCase;
+
+    public Query(String text, boolean regex, boolean matchCase) {
+      this.ignoreCase = !matchCase;
+      if (regex) {
+        this.pattern = Pattern.compile(text,
+            Pattern.MULTILINE | (matchCase ? 0 : Pattern.CASE_INSENSITIVE));
+        this.literal = null;
+      } else {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (ignoreCase) {
+          for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = fold(bytes[i]);
+          }
+        }
+        this.literal = bytes;
+        this.pattern = null;
+      }
+    }
+
+    // Scans the lines in [begin, end), where begin starts a line and end ends one, numbering
+    // them from linesBefore.
+    void scan(ByteBuffer buffer, int begin, int end, long linesBefore, Window window) {
+      if (literal != null) {
+        scanLiteral(buffer, begin, end, linesBefore, window);
+      } else {
+        scanPattern(buffer, begin, end, linesBefore, window);
+      }
+    }
+
+    // Eight positions are tested at a time for the first two bytes of the literal, and only words
+    // holding a candidate are looked at byte by byte; the rest just have their newlines counted.
+    private void scanLiteral(ByteBuffer buffer, int begin, int end, long linesBefore,
+        Window window) {
+      ByteBuffer words = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+      byte first = literal[0];
+      long firstLower = broadcast(first);
+      long firstUpper = broadcast(ignoreCase ? upper(first) : first);
+      byte second = literal.length > 1 ? literal[1] : 0;
+      long secondLower = broadcast(second);
+      long secondUpper = broadcast(ignoreCase ? upper(second) : second);
+      int wordLimit = Math.min(end, buffer.limit() - 1);
+      long newlines = linesBefore;
+      long hitLine = -1;
+      int i = begin;
+      while (i < end) {
+        if (i + 8 <= wordLimit) {
+          long word = words.getLong(i);
+          long candidates = zeroBytes(word ^ firstLower) | zeroBytes(word ^ firstUpper);
+          if (candidates != 0 && literal.length > 1) {
+            long next = words.getLong(i + 1);
+            candidates &= zeroBytes(next ^ secondLower) | zeroBytes(next ^ secondUpper);
+          }
+          if (candidates == 0) {
+            newlines += Long.bitCount(zeroBytes(word ^ NEWLINES));
+            i += 8;
+            continue;
+          }
+        }
+        int wordEnd = Math.min(i + 8, end);
+        for (; i < wordEnd; i++) {
+          byte b = buffer.get(i);
+          if (b == '\n') {
+            newlines++;
+          } else if (newlines != hitLine && (ignoreCase ? fold(b) : b) == first
+              && matchesAt(buffer, i)) {
+            hitLine = newlines;
+            if (!window.addHit(buffer, i, newlines)) {
+              return;
+            }
+          }
+        }
+      }
+      window.newlines = newlines;
+    }
+
+    private boolean matchesAt(ByteBuffer buffer, int position) {
+      if (position + literal.length > buffer.limit()) {
+        return false;
+      }
+      for (int j = 1; j < literal.length; j++) {
+        byte b = buffer.get(position + j);
+        if ((ignoreCase ? fold(b) : b) != literal[j]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    // Regular expressions run over strings of one chunk at a time, which java.util.regex reads far
+    // faster than a CharSequence view of the buffer. Chunks end at line ends, so ^ matches only at
+    // real line starts, and only matches starting in a chunk count, not those in its overlap.
+    private void scanPattern(ByteBuffer buffer, int begin, int end, long linesBefore,
+        Window window) {
+      byte[] chunk =
+          new byte[Math.min(PATTERN_CHUNK_BYTES, end - begin) + 2 * MAX_LINE_BYTES];
+      long newlines = linesBefore;
+      long hitLine = -1;
+      for (int chunkStart = begin, chunkEnd; chunkStart < end; chunkStart = chunkEnd) {
+        chunkEnd = Math.min(chunkStart + PATTERN_CHUNK_BYTES, end);
+        if (chunkEnd < end) {
+          int cut = Math.min(chunkEnd + MAX_LINE_BYTES, end);
+          int lineStart = nextLineStart(buffer, chunkEnd - 1, cut);
+          chunkEnd = lineStart >= 0 ? lineStart : cut;
+        }
+        int starts = chunkEnd - chunkStart;
+        int length = Math.min(starts + MAX_LINE_BYTES, buffer.limit() - chunkStart);
+        buffer.get(chunkStart, chunk, 0, length);
+        Matcher matcher =
+            pattern.matcher(new String(chunk, 0, length, StandardCharsets.ISO_8859_1));
+
+        int counted = chunkStart;
+        while (matcher.find() && matcher.start() < starts) {
+          int start = chunkStart + matcher.start();
+          newlines += countNewlines(buffer, counted, start);
+          counted = start;
+          if (newlines != hitLine) {
+            hitLine = newlines;
+            if (!window.addHit(buffer, start, newlines)) {
+              return;
+            }
+          }
+        }
+        newlines += countNewlines(buffer, counted, chunkStart + starts);
+      }
+      window.newlines = newlines;
+    }
+
+    private static byte fold(byte b) {
+      return b >= 'A' && b <= 'Z' ? (byte) (b + 32) : b;
+    }
+
+    private static byte upper(byte b) {
+      return b >= 'a' && b <= 'z' ? (byte) (b - 32) : b;
+    }
+  }
+
+  private static long broadcast(byte b) {
+    return (b & 0xffL) * 0x0101010101010101L;
+  }
+
+  // Sets the high bit of exactly those bytes of word that are zero.
+  private static long zeroBytes(long word) {
+    return ~(((word & LOW_SEVEN_BITS) + LOW_SEVEN_BITS) | word | LOW_SEVEN_BITS);
+  }
+
+  // The position just past the first newline in [from, limit), or -1 if there is none.
+  static int nextLineStart(ByteBuffer buffer, int from, int limit) {
+    for (int i = from; i < limit; i++) {
+      if (buffer.get(i) == '\n') {
+        return i + 1;
+      }
+    }
+    return -1;
+  }
+
+  static long countNewlines(ByteBuffer buffer, int from, int to) {
+    ByteBuffer words = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    long count = 0;
+    int i = from;
+    for (; i + 8 <= to; i += 8) {
+      count += Long.bitCount(zeroBytes(words.getLong(i) ^ NEWLINES));
+    }
+    for (; i < to; i++) {
+      if (buffer.get(i) == '\n') {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private final FileFinder fileFinder;
+  private final ForkJoinPool pool;
+  private final int windowSize;
+  private final int maxHits;
+  private final ExecutorService reporters =
+      Executors.newCachedThreadPool(Model.daemonThreadFactory("dpfm-grep"));
+
+  public ContentSearcher(FileFinder fileFinder, int parallelism, int windowSize, int maxHits) {
+    this.fileFinder = fileFinder;
+    this.pool = new ForkJoinPool(parallelism);
+    this.windowSize = windowSize;
+    this.maxHits = maxHits;
+  }
+
+  /**
+   * Scans the regular files under root that match the criteria, skipping binary files, and
+   * streams hits in batches. The search stops early once maxHits hits are found. Cancelling the
+   * returned future stops the walk and the scan.
+   */
+  public Future<?> search(Path root, FileFinder.Criteria criteria, Query query,
+      Listener listener) {
+    CompletableFuture<Void> search = new CompletableFuture<>();
+    Search state = new Search(root, query, search);
+
+    Future<?> walk = fileFinder.find(root, criteria, new FileFinder.Listener() {
+      @Override
+      public void matchesFound(List<FileEntry> batch, long scanned, double scannedPerSecond) {
+        for (FileEntry entry : batch) {
+          if (entry.getKind() == FileEntry.Kind.FILE && entry.getSize() > 0) {
+            state.pending.incrementAndGet();
+            pool.execute(new FileTask(state, entry));
+          }
+        }
+      }
+
+      @Override
+      public void searchFinished(long found, long scanned, long elapsedNanos) {
+        state.walked = true;
+        state.fileFinished();
+      }
+    });
+    search.whenComplete((result, failure) -> walk.cancel(true));
+
+    reporters.execute(() -> {
+      long start = System.nanoTime();
+      while (!search.isCancelled()) {
+        try {
+          state.scanned.get(REPORT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+          break;
+        } catch (TimeoutException e) {
+          report(state, listener, start);
+        } catch (InterruptedException | ExecutionException e) {
+          break;
+        }
+      }
+      if (!search.isCancelled()) {
+        report(state, listener, start);
+        listener.searchFinished(Math.min(state.hits.get(), maxHits), state.files.sum(),
+            state.bytes.sum(), System.nanoTime() - start, state.limitReached.get());
+      }
+      search.complete(null);
+    });
+    return search;
+  }
+
+  private static void report(Search state, Listener listener, long start) {
+    List<Hit> batch = new ArrayList<>();
+    Hit hit;
+    while ((hit = state.found.poll()) != null) {
+      batch.add(hit);
+    }
+    long bytes = state.bytes.sum();
+    double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+    listener.hitsFound(batch, state.files.sum(), bytes,
+        elapsedSeconds > 0 ? bytes / elapsedSeconds : 0);
+  }
+
+  private final class Search {
+
+    final Path root;
+    final Query query;
+    final Future<?> future;
+    final Queue<Hit> found = new ConcurrentLinkedQueue<>();
+    final AtomicInteger pending = new AtomicInteger();
+    final CompletableFuture<Void> scanned = new CompletableFuture<>();
+    final AtomicBoolean limitReached = new AtomicBoolean();
+    final AtomicLong hits = new AtomicLong();
+    final LongAdder files = new LongAdder();
+    final LongAdder bytes = new LongAdder();
+    volatile boolean walked;
+
+    Search(Path root, Query query, Future<?> future) {
+      this.root = root;
+      this.query = query;
+      this.future = future;
+    }
+
+    boolean isStopped() {
+      return future.isCancelled() || limitReached.get();
+    }
+
+    // Counts a hit against the limit; false once the limit is reached.
+    boolean reserveHit() {
+      if (hits.incrementAndGet() > maxHits) {
+        limitReached.set(true);
+        scanned.complete(null);
+        return false;
+      }
+      return true;
+    }
+
+    void fileFinished() {
+      if (walked && pending.get() == 0) {
+        scanned.complete(null);
+      }
+    }
+  }
+
+  private final class FileTask extends RecursiveAction {
+
+    private final Search search;
+    private final FileEntry entry;
+
+    FileTask(Search search, FileEntry entry) {
+      this.search = search;
+      this.entry = entry;
+    }
+
+    @Override
+    protected void compute() {
+      try (FileChannel channel = FileChannel.open(search.root.resolve(entry.getName()),
+          StandardOpenOption.READ)) {
+        long size = channel.size();
+        if (!search.isStopped() && !isBinary(channel, size)) {
+          scan(channel, size);
+        }
+      } catch (IOException e) {
+        // Unreadable files are skipped.
+      } finally {
+        search.pending.decrementAndGet();
+        search.fileFinished();
+      }
+    }
+
+    private void scan(FileChannel channel, long size) {
+      List<WindowTask> windows = new ArrayList<>();
+      for (long start = 0; start < size; start += windowSize) {
+        WindowTask window = new WindowTask(search, entry, channel, start,
+            (int) Math.min(windowSize, size - start), size);
+        windows.add(window);
+      }
+      for (int i = windows.size() - 1; i > 0; i--) {
+        windows.get(i).fork();
+      }
+
+      // Line numbers are local to each window until the windows before it are counted.
+      long linesBefore = 0;
+      for (int i = 0; i < windows.size(); i++) {
+        Window window = i == 0 ? windows.get(0).invoke() : windows.get(i).join();
+        if (window == null) {
+          return;
+        }
+        for (Hit hit : window.hits) {
+          search.found.add(new Hit(hit.file, linesBefore + hit.line + 1, hit.offset, hit.text));
+        }
+        linesBefore += window.newlines;
+        search.bytes.add(window.length);
+      }
+      search.files.increment();
+    }
+
+    private boolean isBinary(FileChannel channel, long size) throws IOException {
+      ByteBuffer head = ByteBuffer.allocate((int) Math.min(BINARY_CHECK_BYTES, size));
+      while (head.hasRemaining() && channel.read(head, head.position()) > 0) {
+        // Keep reading until the head is full.
+      }
+      for (int i = 0; i < head.position(); i++) {
+        if (head.get(i) == 0) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  private static final class Window {
+
+    final Search search;
+    final FileEntry entry;
+    final long start;
+    final int length;
+    final List<Hit> hits = new ArrayList<>();
+    long newlines;
+
+    Window(Search search, FileEntry entry, long start, int length) {
+      this.search = search;
+      this.entry = entry;
+      this.start = start;
+      this.length = length;
+    }
+
+    boolean addHit(ByteBuffer buffer, int position, long line) {
+      if (!search.reserveHit()) {
+        return false;
+      }
+      hits.add(new Hit(entry, line, start + position, snippet(buffer, position)));
+      return true;
+    }
+
+    private static String snippet(ByteBuffer buffer, int position) {
+      int from = position;
+      while (from > 0 && position - from < MAX_SNIPPET_BYTES / 2 && buffer.get(from - 1) != '\n') {
+        from--;
+      }
+      int to = position;
+      while (to < buffer.limit() && to - from < MAX_SNIPPET_BYTES && buffer.get(to) != '\n') {
+        to++;
+      }
+      byte[] bytes = new byte[to - from];
+      buffer.get(from, bytes);
+      return new String(bytes, StandardCharsets.UTF_8).strip();
+    }
+  }
+
+  private final class WindowTask extends RecursiveTask<Window> {
+
+    private final Search search;
+    private final FileEntry entry;
+    private final FileChannel channel;
+    private final long start;
+    private final int length;
+    private final long size;
+
+    WindowTask(Search search, FileEntry entry, FileChannel channel, long start, int length,
+        long size) {
+      this.search = search;
+      this.entry = entry;
+      this.channel = channel;
+      this.start = start;
+      this.length = length;
+      this.size = size;
+    }
+
+    @Override
+    protected Window compute() {
+      if (search.isStopped()) {
+        return null;
+      }
+      int mapped = (int) Math.min((long) length + MAX_LINE_BYTES, size - start);
+      ByteBuffer buffer;
+      boolean startsLine;
+      try {
+        buffer = read(mapped);
+        startsLine = startsLine();
+      } catch (IOException e) {
+        return null;
+      }
+
+      // A window searches the lines that start in it, through to their ends, so a line that
+      // crosses into the next window is searched once, and from its start.
+      Window window = new Window(search, entry, start, length);
+      int begin = startsLine ? 0 : nextLineStart(buffer, 0, length);
+      if (begin < 0 || begin == length) {
+        window.newlines = begin < 0 ? 0 : 1;
+        return window;
+      }
+      int lineEnd = nextLineStart(buffer, length - 1, buffer.limit());
+      int end = lineEnd >= 0 ? lineEnd : buffer.limit();
+      search.query.scan(buffer, begin, end, begin > 0 ? 1 : 0, window);
+      if (end > length && buffer.get(end - 1) == '\n') {
+        // That newline is the next window's to count.
+        window.newlines--;
+      }
+      return window;
+    }
+
+    private boolean startsLine() throws IOException {
+      if (start == 0) {
+        return true;
+      }
+      ByteBuffer previous = ByteBuffer.allocate(1);
+      return channel.read(previous, start - 1) == 1 && previous.get(0) == '\n';
+    }
+
+    // Small files cost less to read than to map and unmap.
+    private ByteBuffer read(int mapped) throws IOException {
+      if (size >= MAP_THRESHOLD) {
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, mapped);
+      }
+      ByteBuffer buffer = ByteBuffer.allocate(mapped);
+      while (buffer.hasRemaining()
+          && channel.read(buffer, start + buffer.position()) > 0) {
+        // Keep reading until the window is full.
+      }
+      buffer.flip();
+      return buffer;
+    }
+  }
+}
@@ -1,10 +1,27 @@
+import java.awt.GridLayout;
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.regex.PatternSyntaxException;
+import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
+import javax.swing.JLabel;
 import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
 
 public class Controller {
 
   private final Model model;
   private final Viewer viewer;
+  private Future<?> comparison;
 
   public Controller(Model model, Viewer viewer) {
     this.model = model;
@@ -13,67 +30,151 @@ public class Controller {
     viewer.setController(this);
   }
 
+  public void handleView() {
+    String fileName = viewer.getSelectedFileName();
+    if (fileName == null) {
+      showMessage("No file selected", "Error");
+      return;
+    }
+
+    Path path = model.toPath(viewer.getActiveDirectoryPath() + File.separator + fileName);
+    if (Files.isDirectory(path)) {
+      showMessage("'" + fileName + "' is a directory", "View");
+      return;
+    }
+    viewer.showFile(path, 0);
+  }
+
   public void handleCopy() {
-    String sourceFileName = viewer.getSelectedFileName();
-    if (sourceFileName == null) {
+    List<String> fileNames = viewer.getSelectedFileNames();
+    if (fileNames.isEmpty()) {
       showMessage("No file selected", "Error");
       return;
     }
 
     String sourceDir = viewer.getActiveDirectoryPath();
     String targetDir = viewer.getInactiveDirectoryPath();
+    if (!isWritable(targetDir)) {
+      return;
+    }
+    List<String> sourcePaths = resolvePaths(sourceDir, fileNames);
+    // Search results name files below the panel's directory, so each file's own directory is
+    // what must differ from the target.
+    Path target = model.toPath(targetDir);
+    for (int i = 0; i < sourcePaths.size(); i++) {
+      if (isSameDirectory(model.toPath(sourcePaths.get(i)).getParent(), target)) {
+        showMessage("Cannot copy '" + fileNames.get(i) + "' onto itself, it is already in '"
+            + targetDir + "'", "Error");
+        return;
+      }
+    }
 
-    String sourcePath = sourceDir + File.separator + sourceFileName;
+    String subject = describe(fileNames);
+    JCheckBox verifyBox = new JCheckBox("Verify copied data with checksums");
 
     int result = JOptionPane.showConfirmDialog(
         viewer,
-        "Copy '" + sourceFileName + "' to '" + targetDir + "'?",
+        new Object[] {"Copy " + subject + " to '" + targetDir + "'?", verifyBox},
         "Confirm Copy",
         JOptionPane.YES_NO_OPTION
     );
 
     if (result == JOptionPane.YES_OPTION) {
-      boolean success = model.copyFile(sourcePath, targetDir);
-      if (success) {
-        showMessage("File copied successfully", "Copy Complete");
-        viewer.refreshPanels();
-      } else {
-        showMessage("Failed to copy file", "Error");
-      }
+      boolean verify = verifyBox.isSelected();
+      submitJob("Copy " + subject + " to '" + targetDir + "'" + (verify ? " (verified)" : ""),
+          model.toPath(targetDir), toPaths(sourcePaths),
+          progress -> model.copyFiles(sourcePaths, targetDir, verify, progress),
+          pluralize(fileNames, "File copied successfully", "Files copied successfully"),
+          "Copy Complete", pluralize(fileNames, "Failed to copy file", "Failed to copy files"));
     }
   }
 
   public void handleMove() {
-    String sourceFileName = viewer.getSelectedFileName();
-    if (sourceFileName == null) {
+    List<String> fileNames = viewer.getSelectedFileNames();
+    if (fileNames.isEmpty()) {
       showMessage("No file selected", "Error");
       return;
     }
 
     String sourceDir = viewer.getActiveDirectoryPath();
     String targetDir = viewer.getInactiveDirectoryPath();
+    if (!isWritable(sourceDir) || !isWritable(targetDir)) {
+      return;
+    }
 
-    String sourcePath = sourceDir + File.separator + sourceFileName;
+    List<String> sourcePaths = resolvePaths(sourceDir, fileNames);
+    String subject = describe(fileNames);
 
     int result = JOptionPane.showConfirmDialog(
         viewer,
-        "Move '" + sourceFileName + "' to '" + targetDir + "'?",
+        "Move " + subject + " to '" + targetDir + "'?",
         "Confirm Move",
         JOptionPane.YES_NO_OPTION
     );
 
     if (result == JOptionPane.YES_OPTION) {
-      boolean success = model.moveFile(sourcePath, targetDir);
-      if (success) {
-        showMessage("File moved successfully", "Move Complete");
-        viewer.refreshPanels();
-      } else {
-        showMessage("Failed to move file", "Error");
-      }
+      submitJob("Move " + subject + " to '" + targetDir + "'",
+          model.toPath(targetDir), toPaths(sourcePaths),
+          progress -> model.moveFiles(sourcePaths, targetDir, progress),
+          pluralize(fileNames, "File moved successfully", "Files moved successfully"),
+          "Move Complete", pluralize(fileNames, "Failed to move file", "Failed to move files"));
+    }
+  }
+
+  public void handlePack() {
+    List<String> fileNames = viewer.getSelectedFileNames();
+    if (fileNames.isEmpty()) {
+      showMessage("No file selected", "Error");
+      return;
+    }
+
+    String sourceDir = viewer.getActiveDirectoryPath();
+    String targetDir = viewer.getInactiveDirectoryPath();
+    if (!isWritable(targetDir)) {
+      return;
+    }
+
+    String subject = describe(fileNames);
+    JTextField nameField = new JTextField(
+        fileNames.size() == 1 ? fileNames.get(0) : new File(sourceDir).getName());
+    JComboBox<Packer.Format> formatBox = new JComboBox<>(Packer.Format.values());
+    JPanel form = new JPanel(new GridLayout(0, 2, 5, 5));
+    form.add(new JLabel("Archive name:"));
+    form.add(nameField);
+    form.add(new JLabel("Format:"));
+    form.add(formatBox);
+
+    int result = JOptionPane.showConfirmDialog(viewer, form,
+        "Pack " + subject + " into '" + targetDir + "'",
+        JOptionPane.OK_CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE);
+    String name = nameField.getText().trim();
+    if (result != JOptionPane.OK_OPTION || name.isEmpty()) {
+      return;
+    }
+
+    Packer.Format format = (Packer.Format) formatBox.getSelectedItem();
+    String archiveName = name.endsWith(format.getSuffix()) ? name : name + format.getSuffix();
+    String archivePath = targetDir + File.separator + archiveName;
+    if (Files.exists(model.toPath(archivePath)) && JOptionPane.showConfirmDialog(viewer,
+        "'" + archiveName + "' already exists. Replace it?", "Confirm Pack",
+        JOptionPane.YES_NO_OPTION) != JOptionPane.YES_OPTION) {
+      return;
     }
+
+    List<String> sourcePaths = resolvePaths(sourceDir, fileNames);
+    submitJob("Pack " + subject + " into '" + archiveName + "'", model.toPath(targetDir),
+        toPaths(sourcePaths),
+        progress -> model.packFiles(sourcePaths, archivePath, format, progress),
+        pluralize(fileNames, "File packed successfully", "Files packed successfully"),
+        "Pack Complete", pluralize(fileNames, "Failed to pack file", "Failed to pack files"));
   }
 
   public void handleMkdir() {
+    String currentDir = viewer.getActiveDirectoryPath();
+    if (!isWritable(currentDir)) {
+      return;
+    }
+
     String directoryName = JOptionPane.showInputDialog(
         viewer,
         "Enter new directory name:",
@@ -82,43 +183,78 @@ public class Controller {
     );
 
     if (directoryName != null && !directoryName.trim().isEmpty()) {
-      String currentDir = viewer.getActiveDirectoryPath();
-      boolean success = model.createDirectory(currentDir, directoryName);
-
-      if (success) {
-        showMessage("Directory created successfully", "Create Directory");
-        viewer.refreshPanels();
-      } else {
-        showMessage("Failed to create directory", "Error");
-      }
+      submitJob("Create directory '" + directoryName + "'", model.toPath(currentDir), List.of(),
+          progress -> OperationResult.of(progress,
+              model.createDirectory(currentDir, directoryName),
+              model.toPath(currentDir + File.separator + directoryName)),
+          "Directory created successfully", "Create Directory", "Failed to create directory");
     }
   }
 
   public void handleDelete() {
-    String fileName = viewer.getSelectedFileName();
-    if (fileName == null) {
+    List<String> fileNames = viewer.getSelectedFileNames();
+    if (fileNames.isEmpty()) {
       showMessage("No file selected", "Error");
       return;
     }
 
     String currentDir = viewer.getActiveDirectoryPath();
-    String filePath = currentDir + File.separator + fileName;
+    if (!isWritable(currentDir)) {
+      return;
+    }
+    List<String> filePaths = resolvePaths(currentDir, fileNames);
+    String subject = describe(fileNames);
 
-    int result = JOptionPane.showConfirmDialog(
+    // Entries inside an archive cannot be moved to the trash, only deleted.
+    Object[] options = Archives.isInArchive(currentDir) ? new Object[] {"Delete", "Cancel"}
+        : new Object[] {"Move to Trash", "Delete", "Cancel"};
+    int result = JOptionPane.showOptionDialog(
         viewer,
-        "Delete '" + fileName + "'?",
+        "Delete " + subject + "?",
         "Confirm Delete",
+        JOptionPane.YES_NO_CANCEL_OPTION,
+        JOptionPane.QUESTION_MESSAGE,
+        null,
+        options,
+        options[0]
+    );
+
+    Object choice = result >= 0 ? options[result] : "Cancel";
+    if (choice.equals("Move to Trash")) {
+      submitJob("Move " + subject + " to trash", model.toPath(currentDir), List.of(),
+          progress -> model.deleteFiles(filePaths, true, progress),
+          pluralize(fileNames, "File", "Files") + " moved to trash, Ctrl+Z restores "
+              + pluralize(fileNames, "it", "them"),
+          "Delete Complete", "Failed to move to trash");
+    } else if (choice.equals("Delete")) {
+      submitJob("Delete " + subject, model.toPath(currentDir), toPaths(filePaths),
+          progress -> model.deleteFiles(filePaths, false, progress),
+          pluralize(fileNames, "File deleted successfully", "Files deleted successfully"),
+          "Delete Complete",
+          pluralize(fileNames, "Failed to delete file", "Failed to delete files"));
+    }
+  }
+
+  public void handleRestore() {
+    List<Trash.Entry> entries = model.getLastTrashed();
+    if (entries.isEmpty()) {
+      showMessage("Nothing to restore", "Restore");
+      return;
+    }
+
+    Path originalPath = entries.get(0).getOriginalPath();
+    String subject = entries.size() == 1 ? "'" + originalPath + "'" : entries.size() + " items";
+    int result = JOptionPane.showConfirmDialog(
+        viewer,
+        "Restore " + subject + "?",
+        "Confirm Restore",
         JOptionPane.YES_NO_OPTION
     );
 
     if (result == JOptionPane.YES_OPTION) {
-      boolean success = model.deleteFile(filePath);
-      if (success) {
-        showMessage("File deleted successfully", "Delete Complete");
-        viewer.refreshPanels();
-      } else {
-        showMessage("Failed to delete file", "Error");
-      }
+      submitJob("Restore " + subject, originalPath, List.of(),
+          progress -> model.restoreFromTrash(entries, progress),
+          "Restored successfully", "Restore Complete", "Failed to restore");
     }
   }
 
@@ -130,6 +266,9 @@ public class Controller {
     }
 
     String currentDir = viewer.getActiveDirectoryPath();
+    if (!isWritable(currentDir)) {
+      return;
+    }
     String filePath = currentDir + File.separator + fileName;
 
     String newName = JOptionPane.showInputDialog(
@@ -140,14 +279,251 @@ public class Controller {
     );
 
     if (newName != null && !newName.trim().isEmpty()) {
-      boolean success = model.renameFile(filePath, newName);
-      if (success) {
-        showMessage("File renamed successfully", "Rename Complete");
-        viewer.refreshPanels();
-      } else {
-        showMessage("Failed to rename file", "Error");
+      submitJob("Rename '" + fileName + "' to '" + newName + "'", model.toPath(filePath),
+          List.of(), progress -> OperationResult.of(progress, model.renameFile(filePath, newName),
+              model.toPath(filePath)),
+          "File renamed successfully", "Rename Complete", "Failed to rename file");
+    }
+  }
+
+  public void handleFind() {
+    JTextField nameField = new JTextField("*");
+    JCheckBox regexBox = new JCheckBox("Regular expression");
+    JTextField textField = new JTextField();
+    JCheckBox textRegexBox = new JCheckBox("Regular expression");
+    JCheckBox matchCaseBox = new JCheckBox("Match case");
+    JTextField minSizeField = new JTextField();
+    JTextField maxSizeField = new JTextField();
+    JTextField modifiedField = new JTextField();
+    JComboBox<String> typeBox = new JComboBox<>(new String[] {"Any", "Files", "Directories"});
+    JTextField depthField = new JTextField();
+    JCheckBox followLinksBox = new JCheckBox("Follow symbolic links");
+
+    JPanel form = new JPanel(new GridLayout(0, 2, 5, 5));
+    form.add(new JLabel("Name:"));
+    form.add(nameField);
+    form.add(new JLabel());
+    form.add(regexBox);
+    form.add(new JLabel("Containing text:"));
+    form.add(textField);
+    form.add(textRegexBox);
+    form.add(matchCaseBox);
+    form.add(new JLabel("Min size (e.g. 10K, 5M):"));
+    form.add(minSizeField);
+    form.add(new JLabel("Max size:"));
+    form.add(maxSizeField);
+    form.add(new JLabel("Modified within days:"));
+    form.add(modifiedField);
+    form.add(new JLabel("Type:"));
+    form.add(typeBox);
+    form.add(new JLabel("Max depth:"));
+    form.add(depthField);
+    form.add(new JLabel());
+    form.add(followLinksBox);
+
+    int result = JOptionPane.showConfirmDialog(viewer, form,
+        "Find Files in '" + viewer.getActiveDirectoryPath() + "'",
+        JOptionPane.OK_CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE);
+    if (result != JOptionPane.OK_OPTION) {
+      return;
+    }
+
+    String pattern = nameField.getText().trim().isEmpty() ? "*" : nameField.getText().trim();
+    String text = textField.getText();
+    FileFinder.Criteria criteria;
+    ContentSearcher.Query query;
+    try {
+      String modifiedDays = modifiedField.getText().trim();
+      long modifiedAfter = modifiedDays.isEmpty() ? -1
+          : System.currentTimeMillis() - TimeUnit.DAYS.toMillis(Long.parseLong(modifiedDays));
+      String depth = depthField.getText().trim();
+      FileEntry.Kind kind = typeBox.getSelectedIndex() == 1 ? FileEntry.Kind.FILE
+          : typeBox.getSelectedIndex() == 2 ? FileEntry.Kind.DIRECTORY : null;
+      criteria = new FileFinder.Criteria(pattern, regexBox.isSelected(),
+          parseSize(minSizeField.getText()), parseSize(maxSizeField.getText()), modifiedAfter,
+          kind, depth.isEmpty() ? Integer.MAX_VALUE : Integer.parseInt(depth),
+          followLinksBox.isSelected());
+      query = text.isEmpty() ? null
+          : new ContentSearcher.Query(text, textRegexBox.isSelected(), matchCaseBox.isSelected());
+    } catch (PatternSyntaxException e) {
+      showMessage("Invalid pattern: " + e.getDescription(), "Error");
+      return;
+    } catch (NumberFormatException e) {
+      showMessage("Invalid number: " + e.getMessage(), "Error");
+      return;
+    }
+
+    if (query != null && Archives.isInArchive(viewer.getActiveDirectoryPath())) {
+      showMessage("Searching the contents of files inside archives is not supported", "Error");
+      return;
+    }
+
+    if (query == null) {
+      viewer.showSearchResults(criteria, "'" + pattern + "'");
+    } else {
+      viewer.showContentSearchResults(criteria, query, "'" + text + "' in '" + pattern + "'");
+    }
+  }
+
+  // Accepts a plain byte count or a number with a K, M or G suffix; blank means no limit.
+  private static long parseSize(String text) {
+    String size = text.trim().toUpperCase();
+    if (size.isEmpty()) {
+      return -1;
+    }
+    long unit = 1;
+    char suffix = size.charAt(size.length() - 1);
+    if (suffix == 'K' || suffix == 'M' || suffix == 'G') {
+      unit = suffix == 'K' ? 1024L : suffix == 'M' ? 1024L * 1024 : 1024L * 1024 * 1024;
+      size = size.substring(0, size.length() - 1).trim();
+    }
+    return (long) (Double.parseDouble(size) * unit);
+  }
+
+  public void handleCompare() {
+    String activeDir = viewer.getActiveDirectoryPath();
+    String inactiveDir = viewer.getInactiveDirectoryPath();
+    JCheckBox recursiveBox = new JCheckBox("Include subdirectories");
+
+    int result = JOptionPane.showConfirmDialog(viewer,
+        new Object[] {"Compare '" + activeDir + "' with '" + inactiveDir + "'?", recursiveBox},
+        "Compare Directories", JOptionPane.OK_CANCEL_OPTION, JOptionPane.QUESTION_MESSAGE);
+    if (result != JOptionPane.OK_OPTION) {
+      return;
+    }
+
+    if (comparison != null) {
+      comparison.cancel(true);
+    }
+    viewer.showComparing();
+    comparison = model.compareDirectories(activeDir, inactiveDir, recursiveBox.isSelected(),
+        comparisonResult -> SwingUtilities.invokeLater(() -> {
+          if (activeDir.equals(viewer.getActiveDirectoryPath())
+              && inactiveDir.equals(viewer.getInactiveDirectoryPath())) {
+            viewer.showComparison(comparisonResult);
+            offerSynchronize(activeDir, inactiveDir, comparisonResult);
+          }
+        }));
+  }
+
+  private void offerSynchronize(String activeDir, String inactiveDir,
+      DirectoryComparator.Result result) {
+    List<DirectoryComparator.Difference> differences = result.getDifferences();
+    String statistics = result.getCompared() + " entries compared, " + result.getHashed()
+        + " files hashed (" + FileTableModel.formatFileSize(result.getHashedBytes()) + ")";
+    if (differences.isEmpty()) {
+      showMessage("The directories are identical\n" + statistics, "Compare Directories");
+      return;
+    }
+
+    int toInactive = 0;
+    int toActive = 0;
+    int conflicts = 0;
+    for (DirectoryComparator.Difference difference : differences) {
+      switch (difference.getStatus()) {
+        case LEFT_ONLY:
+        case LEFT_NEWER:
+          toInactive++;
+          break;
+        case RIGHT_ONLY:
+        case RIGHT_NEWER:
+          toActive++;
+          break;
+        default:
+          conflicts++;
       }
     }
+    if (toInactive + toActive == 0) {
+      showMessage(conflicts + " entries differ but neither side is newer\n" + statistics,
+          "Compare Directories");
+      return;
+    }
+
+    int choice = JOptionPane.showConfirmDialog(viewer,
+        toInactive + " to copy to '" + inactiveDir + "'\n"
+            + toActive + " to copy to '" + activeDir + "'\n"
+            + (conflicts > 0 ? conflicts + " conflicts will be skipped\n" : "")
+            + statistics + "\n\nSynchronize?",
+        "Synchronize Directories", JOptionPane.YES_NO_OPTION);
+    if (choice == JOptionPane.YES_OPTION && isWritable(activeDir) && isWritable(inactiveDir)) {
+      submitJob("Synchronize '" + activeDir + "' and '" + inactiveDir + "'",
+          model.toPath(inactiveDir), List.of(),
+          progress -> model.synchronize(activeDir, inactiveDir, differences, progress),
+          "Directories synchronized", "Synchronize Complete",
+          "Failed to synchronize directories");
+    }
+  }
+
+  private static List<String> resolvePaths(String directory, List<String> fileNames) {
+    List<String> paths = new ArrayList<>(fileNames.size());
+    for (String fileName : fileNames) {
+      paths.add(directory + File.separator + fileName);
+    }
+    return paths;
+  }
+
+  private List<Path> toPaths(List<String> paths) {
+    List<Path> result = new ArrayList<>(paths.size());
+    for (String path : paths) {
+      result.add(model.toPath(path));
+    }
+    return result;
+  }
+
+  private static boolean isSameDirectory(Path path, Path otherPath) {
+    if (path == null) {
+      return false;
+    }
+    try {
+      return Files.isSameFile(path, otherPath);
+    } catch (IOException e) {
+      return path.toAbsolutePath().normalize().equals(otherPath.toAbsolutePath().normalize());
+    }
+  }
+
+  // Tar archives can be browsed and copied from, but not changed.
+  private boolean isWritable(String directory) {
+    if (Archives.isReadOnly(directory)) {
+      showMessage("'" + directory + "' is inside a read-only archive", "Error");
+      return false;
+    }
+    return true;
+  }
+
+  private static String describe(List<String> fileNames) {
+    return fileNames.size() == 1 ? "'" + fileNames.get(0) + "'" : fileNames.size() + " items";
+  }
+
+  private static String pluralize(List<String> fileNames, String single, String multiple) {
+    return fileNames.size() == 1 ? single : multiple;
+  }
+
+  private void submitJob(String description, Path devicePath, List<Path> scanRoots,
+      Function<OperationProgress, OperationResult> task, String successMessage,
+      String successTitle, String failureMessage) {
+    Job job = new Job(description, devicePath, scanRoots, task,
+        finished -> SwingUtilities.invokeLater(
+            () -> jobFinished(finished, successMessage, successTitle, failureMessage)));
+
+    if (!model.getJobManager().submit(job)) {
+      showMessage("Too many operations are queued, try again later", "Error");
+    }
+  }
+
+  private void jobFinished(Job job, String successMessage, String successTitle,
+      String failureMessage) {
+    OperationResult result = job.getResult();
+    if (job.getState() == Job.State.CANCELLED) {
+      showMessage(job.getDescription() + " was cancelled", "Cancelled");
+    } else if (result != null && result.isSuccess()) {
+      String summary = result.getFiles() > 1 || result.getBytes() > 0
+          ? "\n" + result.getSummary() : "";
+      showMessage(successMessage + summary, successTitle);
+    } else {
+      String details = result != null ? "\n" + result.describeFailures() : "";
+      showMessage(failureMessage + details, "Error");
+    }
+    viewer.refreshPanels();
   }
 
   private void showMessage(String message, String title) {
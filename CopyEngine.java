@@ -0,0 +1,589 @@
+import com.sun.nio.file.ExtendedOpenOption;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+public class CopyEngine {
+
+  private static final int TASKS_PER_WORKER = 64;
+  private static final String PART_SUFFIX = ".dpfm-part";
+  private static final String CHECKSUM_SUFFIX = ".crc32c";
+  private static final int VERIFY_BUFFER_BYTES = 1024 * 1024;
+  private static final int MAX_BLOCK_SIZE = 64 * 1024;
+  // Sized so that a block-aligned slice for direct I/O still holds a full buffer.
+  private static final ThreadLocal<ByteBuffer> VERIFY_BUFFERS = ThreadLocal.withInitial(
+      () -> ByteBuffer.allocateDirect(VERIFY_BUFFER_BYTES + MAX_BLOCK_SIZE));
+
+  // A moved source directory is removed once every entry below it has been moved.
+  private static final class SourceDirectory {
+
+    final Path path;
+    final SourceDirectory parent;
+    final AtomicInteger pending = new AtomicInteger(1);
+
+    SourceDirectory(Path path, SourceDirectory parent) {
+      this.path = path;
+      this.parent = parent;
+    }
+  }
+
+  private final int workers;
+  private final long largeFileThreshold;
+  private final long chunkSize;
+  private final boolean verifyFromDisk;
+  private final ExecutorService executor;
+
+  public CopyEngine(int workers, long largeFileThreshold, long chunkSize) {
+    this(workers, largeFileThreshold, chunkSize, false);
+  }
+
+  // Reading copies back from disk rather than the page cache forces them to be written out first.
+  public CopyEngine(int workers, long largeFileThreshold, long chunkSize,
+      boolean verifyFromDisk) {
+    this.workers = workers;
+    this.largeFileThreshold = largeFileThreshold;
+    this.chunkSize = chunkSize;
+    this.verifyFromDisk = verifyFromDisk;
+    this.executor = Executors.newFixedThreadPool(workers, Model.daemonThreadFactory("dpfm-copy"));
+  }
+
+  public OperationResult copy(Path source, Path destination, OperationProgress progress) {
+    return copy(List.of(source), List.of(destination), false, progress);
+  }
+
+  public OperationResult copy(List<Path> sources, List<Path> destinations,
+      OperationProgress progress) {
+    return copy(sources, destinations, false, progress);
+  }
+
+  /**
+   * Copies each source to its destination. All roots share one window of in-flight tasks, so a
+   * batch is copied as one pipeline. With verify set, every file is checksummed as it is copied
+   * and the copy is read back and checked, and files that do not match are reported as failed.
+   */
+  public OperationResult copy(List<Path> sources, List<Path> destinations, boolean verify,
+      OperationProgress progress) {
+    Queue<OperationResult.Failure> failures = new ConcurrentLinkedQueue<>();
+    Semaphore inFlight = new Semaphore(workers * TASKS_PER_WORKER);
+    for (int i = 0; i < sources.size() && !progress.isCancelled(); i++) {
+      copyTree(sources.get(i), destinations.get(i), verify, progress, failures, inFlight);
+    }
+    inFlight.acquireUninterruptibly(workers * TASKS_PER_WORKER);
+    inFlight.release(workers * TASKS_PER_WORKER);
+    return OperationResult.of(progress, new ArrayList<>(failures));
+  }
+
+  private void copyTree(Path source, Path destination, boolean verify,
+      OperationProgress progress, Queue<OperationResult.Failure> failures, Semaphore inFlight) {
+    BasicFileAttributes sourceAttributes;
+    try {
+      sourceAttributes = Files.readAttributes(source, BasicFileAttributes.class,
+          LinkOption.NOFOLLOW_LINKS);
+    } catch (IOException e) {
+      failures.add(new OperationResult.Failure(source, OperationResult.reason(e)));
+      return;
+    }
+
+    if (!sourceAttributes.isDirectory()) {
+      if (destination.toAbsolutePath().normalize()
+          .equals(source.toAbsolutePath().normalize())) {
+        failures.add(new OperationResult.Failure(source, "Cannot copy a file onto itself"));
+        return;
+      }
+      submit(inFlight,
+          () -> copyFile(source, destination, sourceAttributes, verify, progress, failures));
+      return;
+    }
+
+    if (destination.toAbsolutePath().normalize()
+        .startsWith(source.toAbsolutePath().normalize())) {
+      failures.add(new OperationResult.Failure(source, "Cannot copy a directory into itself"));
+      return;
+    }
+
+    try {
+      Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) {
+          Path target = destination.resolve(source.relativize(directory).toString());
+          try {
+            Files.createDirectories(target);
+            return FileVisitResult.CONTINUE;
+          } catch (IOException e) {
+            failures.add(new OperationResult.Failure(directory, OperationResult.reason(e)));
+            return FileVisitResult.SKIP_SUBTREE;
+          }
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+          progress.awaitIfPaused();
+          if (progress.isCancelled()) {
+            return FileVisitResult.TERMINATE;
+          }
+          Path target = destination.resolve(source.relativize(file).toString());
+          submit(inFlight,
+              () -> copyFile(file, target, attributes, verify, progress, failures));
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException e) {
+          failures.add(new OperationResult.Failure(file, OperationResult.reason(e)));
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    } catch (IOException e) {
+      failures.add(new OperationResult.Failure(source, OperationResult.reason(e)));
+    }
+  }
+
+  private void submit(Semaphore inFlight, Runnable task) {
+    inFlight.acquireUninterruptibly();
+    executor.execute(() -> {
+      try {
+        task.run();
+      } finally {
+        inFlight.release();
+      }
+    });
+  }
+
+  // Copies keep their source's modification time, as moves do, so that a later compare or
+  // synchronize sees them as up to date without hashing them again.
+  private void copyFile(Path source, Path target, BasicFileAttributes attributes, boolean verify,
+      OperationProgress progress, Queue<OperationResult.Failure> failures) {
+    progress.awaitIfPaused();
+    if (progress.isCancelled()) {
+      return;
+    }
+    progress.setCurrentFile(source.toString());
+    try {
+      transfer(source, target, attributes.size(), verify, progress);
+      if (attributes.isRegularFile()) {
+        Files.setLastModifiedTime(target, attributes.lastModifiedTime());
+      }
+      progress.fileCompleted();
+    } catch (IOException e) {
+      failures.add(new OperationResult.Failure(source, OperationResult.reason(e)));
+    }
+  }
+
+  private void transfer(Path source, Path target, long size, boolean verify,
+      OperationProgress progress) throws IOException {
+    if (verify && !Files.isSymbolicLink(source)) {
+      verifiedCopy(source, target, progress);
+    } else if (size >= largeFileThreshold && !Files.isSymbolicLink(source)
+        && isDefaultFileSystem(source) && isDefaultFileSystem(target)) {
+      copyLargeFile(source, target, progress);
+    } else {
+      Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING, LinkOption.NOFOLLOW_LINKS);
+      progress.addBytes(size);
+    }
+  }
+
+  public OperationResult move(Path source, Path destination, OperationProgress progress) {
+    return move(List.of(source), List.of(destination), progress);
+  }
+
+  public OperationResult move(List<Path> sources, List<Path> destinations,
+      OperationProgress progress) {
+    Queue<OperationResult.Failure> failures = new ConcurrentLinkedQueue<>();
+    Semaphore inFlight = new Semaphore(workers * TASKS_PER_WORKER);
+    for (int i = 0; i < sources.size() && !progress.isCancelled(); i++) {
+      moveTree(sources.get(i), destinations.get(i), progress, failures, inFlight);
+    }
+    inFlight.acquireUninterruptibly(workers * TASKS_PER_WORKER);
+    inFlight.release(workers * TASKS_PER_WORKER);
+    return OperationResult.of(progress, new ArrayList<>(failures));
+  }
+
+  private void moveTree(Path source, Path destination, OperationProgress progress,
+      Queue<OperationResult.Failure> failures, Semaphore inFlight) {
+    BasicFileAttributes sourceAttributes;
+    try {
+      sourceAttributes = Files.readAttributes(source, BasicFileAttributes.class,
+          LinkOption.NOFOLLOW_LINKS);
+    } catch (IOException e) {
+      failures.add(new OperationResult.Failure(source, OperationResult.reason(e)));
+      return;
+    }
+
+    if (sourceAttributes.isDirectory() && destination.toAbsolutePath().normalize()
+        .startsWith(source.toAbsolutePath().normalize())) {
+      failures.add(new OperationResult.Failure(source, "Cannot move a directory into itself"));
+      return;
+    }
+
+    // Whether renamed or copied, an existing file is replaced, an existing directory is merged
+    // into, and an entry of the other kind is left alone.
+    BasicFileAttributes destinationAttributes;
+    try {
+      destinationAttributes = Files.readAttributes(destination, BasicFileAttributes.class,
+          LinkOption.NOFOLLOW_LINKS);
+    } catch (IOException e) {
+      destinationAttributes = null;
+    }
+    if (destinationAttributes != null
+        && destinationAttributes.isDirectory() != sourceAttributes.isDirectory()) {
+      failures.add(new OperationResult.Failure(source, destinationAttributes.isDirectory()
+          ? "Cannot replace a directory with a file" : "Cannot replace a file with a directory"));
+      return;
+    }
+
+    try {
+      if (isSameFileStore(source, destination)) {
+        if (destinationAttributes != null && destinationAttributes.isDirectory()) {
+          mergeDirectory(source, destination, progress, failures, inFlight);
+        } else {
+          Files.move(source, destination, StandardCopyOption.REPLACE_EXISTING,
+              StandardCopyOption.ATOMIC_MOVE);
+          progress.fileCompleted();
+        }
+        return;
+      }
+    } catch (AtomicMoveNotSupportedException e) {
+      // Not renameable after all, move by copying instead.
+    } catch (IOException e) {
+      failures.add(new OperationResult.Failure(source, OperationResult.reason(e)));
+      return;
+    }
+
+    if (!sourceAttributes.isDirectory()) {
+      submit(inFlight,
+          () -> moveFile(source, destination, sourceAttributes, null, progress, failures));
+      return;
+    }
+
+    // Each file is copied, verified and deleted on its own, so the extra space in use is
+    // bounded by the files in flight and a rerun after an interruption resumes where it stopped.
+    Deque<SourceDirectory> stack = new ArrayDeque<>();
+    try {
+      Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) {
+          Path target = destination.resolve(source.relativize(directory).toString());
+          try {
+            Files.createDirectories(target);
+          } catch (IOException e) {
+            failures.add(new OperationResult.Failure(directory, OperationResult.reason(e)));
+            return FileVisitResult.SKIP_SUBTREE;
+          }
+          SourceDirectory parent = stack.peek();
+          if (parent != null) {
+            parent.pending.incrementAndGet();
+          }
+          stack.push(new SourceDirectory(directory, parent));
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+          progress.awaitIfPaused();
+          if (progress.isCancelled()) {
+            return FileVisitResult.TERMINATE;
+          }
+          Path target = destination.resolve(source.relativize(file).toString());
+          SourceDirectory parent = stack.peek();
+          parent.pending.incrementAndGet();
+          submit(inFlight, () -> moveFile(file, target, attributes, parent, progress, failures));
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException e) {
+          failures.add(new OperationResult.Failure(file, OperationResult.reason(e)));
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult postVisitDirectory(Path directory, IOException e) {
+          SourceDirectory node = stack.pop();
+          if (e != null) {
+            failures.add(new OperationResult.Failure(directory, OperationResult.reason(e)));
+          }
+          sourceEntryMoved(node, progress, failures);
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    } catch (IOException e) {
+      failures.add(new OperationResult.Failure(source, OperationResult.reason(e)));
+    }
+  }
+
+  private void moveFile(Path source, Path target, BasicFileAttributes attributes,
+      SourceDirectory parent, OperationProgress progress,
+      Queue<OperationResult.Failure> failures) {
+    progress.awaitIfPaused();
+    if (progress.isCancelled()) {
+      return;
+    }
+    progress.setCurrentFile(source.toString());
+    Path part = target.resolveSibling(target.getFileName() + PART_SUFFIX);
+    try {
+      if (!isMovedCopy(source, target, attributes)) {
+        transfer(source, part, attributes.size(), attributes.isRegularFile(), progress);
+        if (attributes.isRegularFile()) {
+          Files.setLastModifiedTime(part, attributes.lastModifiedTime());
+        }
+        Files.move(part, target, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } else {
+        progress.addBytes(attributes.size());
+      }
+      Files.delete(source);
+      progress.fileCompleted();
+      sourceEntryMoved(parent, progress, failures);
+    } catch (IOException e) {
+      failures.add(new OperationResult.Failure(source, OperationResult.reason(e)));
+      try {
+        Files.deleteIfExists(part);
+      } catch (IOException ignored) {
+        // The next run overwrites the partial copy.
+      }
+    }
+  }
+
+  // Renames each entry into the existing directory, then removes the source once it is empty.
+  private void mergeDirectory(Path source, Path destination, OperationProgress progress,
+      Queue<OperationResult.Failure> failures, Semaphore inFlight) throws IOException {
+    List<Path> children;
+    try (Stream<Path> entries = Files.list(source)) {
+      children = entries.collect(Collectors.toList());
+    }
+    for (Path child : children) {
+      if (progress.isCancelled()) {
+        return;
+      }
+      moveTree(child, destination.resolve(child.getFileName().toString()), progress, failures,
+          inFlight);
+    }
+    try {
+      Files.delete(source);
+      progress.fileCompleted();
+    } catch (DirectoryNotEmptyException e) {
+      // An entry that could not be moved is already reported and keeps its directory.
+    }
+  }
+
+  // A target left behind by an interrupted move is trusted only if its contents match.
+  private static boolean isMovedCopy(Path source, Path target,
+      BasicFileAttributes sourceAttributes)
+      throws IOException {
+    if (!sourceAttributes.isRegularFile()) {
+      return false;
+    }
+    BasicFileAttributes targetAttributes;
+    try {
+      targetAttributes = Files.readAttributes(target, BasicFileAttributes.class,
+          LinkOption.NOFOLLOW_LINKS);
+    } catch (IOException e) {
+      return false;
+    }
+    return targetAttributes.isRegularFile()
+        && targetAttributes.size() == sourceAttributes.size()
+        && targetAttributes.lastModifiedTime().equals(sourceAttributes.lastModifiedTime())
+        && Files.mismatch(source, target) == -1;
+  }
+
+  private static void sourceEntryMoved(SourceDirectory node, OperationProgress progress,
+      Queue<OperationResult.Failure> failures) {
+    while (node != null && node.pending.decrementAndGet() == 0) {
+      if (progress.isCancelled()) {
+        return;
+      }
+      try {
+        Files.delete(node.path);
+      } catch (IOException e) {
+        failures.add(new OperationResult.Failure(node.path, OperationResult.reason(e)));
+      }
+      node = node.parent;
+    }
+  }
+
+  // Archive entries are streamed; only plain files can be transferred in chunks.
+  private static boolean isDefaultFileSystem(Path path) {
+    return path.getFileSystem() == FileSystems.getDefault();
+  }
+
+  private static boolean isSameFileStore(Path source, Path destination) throws IOException {
+    Path existing = destination.toAbsolutePath().getParent();
+    while (existing != null && !Files.exists(existing)) {
+      existing = existing.getParent();
+    }
+    if (existing == null) {
+      return false;
+    }
+    Path sourceParent = source.toAbsolutePath().getParent();
+    FileStore sourceStore = Files.getFileStore(sourceParent != null ? sourceParent : source);
+    return sourceStore.equals(Files.getFileStore(existing));
+  }
+
+  /**
+   * Copies through one buffer that is checksummed with CRC32C between the read and the write, so
+   * the source is read only once. The copy is then read back, from disk with direct I/O when
+   * configured and supported, and its checksum compared. A source with a .crc32c file next to it
+   * is also checked against the recorded value.
+   */
+  private void verifiedCopy(Path source, Path target, OperationProgress progress)
+      throws IOException {
+    // Checked before the try, as a failed copy deletes its target.
+    checkNotSameFile(source, target);
+    boolean complete = false;
+    try {
+      long checksum = copyWithChecksum(source, target, progress);
+      Long recorded = readChecksumFile(source);
+      if (recorded != null && recorded != checksum) {
+        throw new IOException(String.format(
+            "Source does not match its %s file: read %08x, recorded %08x", CHECKSUM_SUFFIX,
+            checksum, recorded));
+      }
+      long copyChecksum = checksumOf(target);
+      if (copyChecksum != checksum) {
+        throw new IOException(String.format("Checksum mismatch: source %08x, copy %08x",
+            checksum, copyChecksum));
+      }
+      complete = true;
+    } finally {
+      if (!complete) {
+        Files.deleteIfExists(target);
+      }
+    }
+  }
+
+  private static long copyWithChecksum(Path source, Path target, OperationProgress progress)
+      throws IOException {
+    CRC32C crc = new CRC32C();
+    ByteBuffer buffer = VERIFY_BUFFERS.get();
+    try (SeekableByteChannel in = Files.newByteChannel(source, StandardOpenOption.READ);
+        SeekableByteChannel out = Files.newByteChannel(target, StandardOpenOption.WRITE,
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      buffer.clear();
+      while (in.read(buffer) > 0) {
+        progress.awaitIfPaused();
+        if (progress.isCancelled()) {
+          throw new IOException("Cancelled");
+        }
+        buffer.flip();
+        int read = buffer.remaining();
+        buffer.mark();
+        crc.update(buffer);
+        buffer.reset();
+        while (buffer.hasRemaining()) {
+          out.write(buffer);
+        }
+        buffer.clear();
+        progress.addBytes(read);
+      }
+    }
+    return crc.getValue();
+  }
+
+  private long checksumOf(Path file) throws IOException {
+    try {
+      return checksumOf(file, verifyFromDisk);
+    } catch (IOException | UnsupportedOperationException e) {
+      // Direct I/O is not supported on this filesystem; read through the page cache instead.
+      return checksumOf(file, false);
+    }
+  }
+
+  private static long checksumOf(Path file, boolean direct) throws IOException {
+    CRC32C crc = new CRC32C();
+    ByteBuffer buffer = VERIFY_BUFFERS.get();
+    SeekableByteChannel channel;
+    if (direct) {
+      long blockSize = Files.getFileStore(file).getBlockSize();
+      if (blockSize > MAX_BLOCK_SIZE) {
+        throw new UnsupportedOperationException("Block size " + blockSize);
+      }
+      channel = FileChannel.open(file, StandardOpenOption.READ, ExtendedOpenOption.DIRECT);
+      buffer.clear();
+      buffer = buffer.alignedSlice((int) blockSize);
+    } else {
+      channel = Files.newByteChannel(file, StandardOpenOption.READ);
+    }
+    try (SeekableByteChannel in = channel) {
+      buffer.clear();
+      while (in.read(buffer) > 0) {
+        buffer.flip();
+        crc.update(buffer);
+        buffer.clear();
+      }
+    }
+    return crc.getValue();
+  }
+
+  // Opening the target truncates it, which would destroy a source reached through another path.
+  private static void checkNotSameFile(Path source, Path target) throws IOException {
+    if (Files.exists(target, LinkOption.NOFOLLOW_LINKS) && Files.isSameFile(source, target)) {
+      throw new IOException("Cannot copy a file onto itself");
+    }
+  }
+
+  private static Long readChecksumFile(Path source) {
+    Path checksumFile = source.resolveSibling(source.getFileName() + CHECKSUM_SUFFIX);
+    try {
+      String text = Files.readString(checksumFile).trim();
+      int end = text.indexOf(' ');
+      return Long.parseLong(end < 0 ? text : text.substring(0, end), 16);
+    } catch (IOException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  public void copyLargeFile(Path source, Path target, OperationProgress progress)
+      throws IOException {
+    checkNotSameFile(source, target);
+    boolean complete = false;
+    try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+        FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE,
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      long size = in.size();
+      long position = 0;
+      while (position < size) {
+        progress.awaitIfPaused();
+        if (progress.isCancelled()) {
+          throw new IOException("Cancelled");
+        }
+        long transferred = in.transferTo(position, Math.min(chunkSize, size - position), out);
+        if (transferred <= 0) {
+          throw new IOException("Source file shrank while copying");
+        }
+        position += transferred;
+        progress.addBytes(transferred);
+      }
+      complete = true;
+    } finally {
+      if (!complete) {
+        Files.deleteIfExists(target);
+      }
+    }
+  }
+}
@@ -0,0 +1,171 @@
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DeleteEngine {
+
+  private static final int TASKS_PER_WORKER = 256;
+
+  // A directory is removed once its walk has finished and every child below it is gone.
+  private static final class DirectoryNode {
+
+    final Path path;
+    final DirectoryNode parent;
+    final AtomicInteger pending = new AtomicInteger(1);
+
+    DirectoryNode(Path path, DirectoryNode parent) {
+      this.path = path;
+      this.parent = parent;
+    }
+  }
+
+  private final int workers;
+  private final ExecutorService executor;
+
+  public DeleteEngine(int workers) {
+    this(workers, Thread.NORM_PRIORITY);
+  }
+
+  public DeleteEngine(int workers, int threadPriority) {
+    this.workers = workers;
+    this.executor = Executors.newFixedThreadPool(workers,
+        Model.daemonThreadFactory("dpfm-delete", threadPriority));
+  }
+
+  public OperationResult delete(Path root, OperationProgress progress) {
+    return delete(List.of(root), progress);
+  }
+
+  public OperationResult delete(List<Path> roots, OperationProgress progress) {
+    Queue<OperationResult.Failure> failures = new ConcurrentLinkedQueue<>();
+    Semaphore inFlight = new Semaphore(workers * TASKS_PER_WORKER);
+    for (int i = 0; i < roots.size() && !progress.isCancelled(); i++) {
+      deleteTree(roots.get(i), progress, failures, inFlight);
+    }
+    inFlight.acquireUninterruptibly(workers * TASKS_PER_WORKER);
+    inFlight.release(workers * TASKS_PER_WORKER);
+    return OperationResult.of(progress, new ArrayList<>(failures));
+  }
+
+  private void deleteTree(Path root, OperationProgress progress,
+      Queue<OperationResult.Failure> failures, Semaphore inFlight) {
+    BasicFileAttributes rootAttributes;
+    try {
+      rootAttributes = Files.readAttributes(root, BasicFileAttributes.class,
+          LinkOption.NOFOLLOW_LINKS);
+    } catch (IOException e) {
+      failures.add(new OperationResult.Failure(root, OperationResult.reason(e)));
+      return;
+    }
+
+    if (!rootAttributes.isDirectory()) {
+      submit(inFlight, () -> deleteFile(root, rootAttributes.size(), progress, failures));
+      return;
+    }
+
+    Deque<DirectoryNode> stack = new ArrayDeque<>();
+    try {
+      Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) {
+          DirectoryNode parent = stack.peek();
+          if (parent != null) {
+            parent.pending.incrementAndGet();
+          }
+          stack.push(new DirectoryNode(directory, parent));
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+          progress.awaitIfPaused();
+          if (progress.isCancelled()) {
+            return FileVisitResult.TERMINATE;
+          }
+
+          DirectoryNode parent = stack.peek();
+          parent.pending.incrementAndGet();
+          submit(inFlight, () -> {
+            deleteFile(file, attributes.size(), progress, failures);
+            childDone(parent, progress, failures);
+          });
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException e) {
+          failures.add(new OperationResult.Failure(file, OperationResult.reason(e)));
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult postVisitDirectory(Path directory, IOException e) {
+          DirectoryNode node = stack.pop();
+          if (e != null) {
+            failures.add(new OperationResult.Failure(directory, OperationResult.reason(e)));
+          }
+          childDone(node, progress, failures);
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    } catch (IOException e) {
+      failures.add(new OperationResult.Failure(root, OperationResult.reason(e)));
+    }
+  }
+
+  private void submit(Semaphore inFlight, Runnable task) {
+    inFlight.acquireUninterruptibly();
+    executor.execute(() -> {
+      try {
+        task.run();
+      } finally {
+        inFlight.release();
+      }
+    });
+  }
+
+  private static void childDone(DirectoryNode node, OperationProgress progress,
+      Queue<OperationResult.Failure> failures) {
+    while (node != null && node.pending.decrementAndGet() == 0) {
+      if (progress.isCancelled()) {
+        return;
+      }
+      try {
+        Files.delete(node.path);
+        progress.fileCompleted();
+      } catch (IOException e) {
+        failures.add(new OperationResult.Failure(node.path, OperationResult.reason(e)));
+      }
+      node = node.parent;
+    }
+  }
+
+  private static void deleteFile(Path file, long size, OperationProgress progress,
+      Queue<OperationResult.Failure> failures) {
+    if (progress.isCancelled()) {
+      return;
+    }
+    progress.setCurrentFile(file.toString());
+    try {
+      Files.delete(file);
+      progress.addBytes(size);
+      progress.fileCompleted();
+    } catch (IOException e) {
+      failures.add(new OperationResult.Failure(file, OperationResult.reason(e)));
+    }
+  }
+}
@@ -0,0 +1,167 @@
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+public class DirectoryCache {
+
+  private static final class CachedListing {
+
+    final List<FileEntry> entries;
+    final long directoryModified;
+    final WatchKey watchKey;
+    boolean stale;
+
+    CachedListing(List<FileEntry> entries, long directoryModified, WatchKey watchKey) {
+      this.entries = entries;
+      this.directoryModified = directoryModified;
+      this.watchKey = watchKey;
+    }
+  }
+
+  private final int maxDirectories;
+  private final int maxEntries;
+  private final Map<Path, CachedListing> listings = new LinkedHashMap<>(16, 0.75f, true);
+  private final WatchService watchService;
+  private int cachedEntries;
+  private volatile Consumer<Path> changeListener;
+
+  public DirectoryCache(int maxDirectories, int maxEntries) {
+    this.maxDirectories = maxDirectories;
+    this.maxEntries = maxEntries;
+    this.watchService = createWatchService();
+
+    if (watchService != null) {
+      Thread watcher = new Thread(this::processWatchEvents, "dpfm-directory-watcher");
+      watcher.setDaemon(true);
+      watcher.start();
+    }
+  }
+
+  private static WatchService createWatchService() {
+    try {
+      return FileSystems.getDefault().newWatchService();
+    } catch (IOException | UnsupportedOperationException e) {
+      return null;
+    }
+  }
+
+  public void setChangeListener(Consumer<Path> changeListener) {
+    this.changeListener = changeListener;
+  }
+
+  public static Path key(String directoryPath) {
+    return Path.of(directoryPath).toAbsolutePath().normalize();
+  }
+
+  public synchronized List<FileEntry> get(Path directory) {
+    CachedListing listing = listings.get(directory);
+    return listing != null ? listing.entries : null;
+  }
+
+  public boolean isValid(Path directory) {
+    CachedListing listing;
+    synchronized (this) {
+      listing = listings.get(directory);
+      if (listing == null || listing.stale) {
+        return false;
+      }
+    }
+
+    try {
+      return Files.getLastModifiedTime(directory).toMillis() == listing.directoryModified;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  public synchronized void put(Path directory, List<FileEntry> entries, long directoryModified) {
+    if (entries.size() > maxEntries) {
+      invalidate(directory);
+      return;
+    }
+
+    CachedListing previous = listings.remove(directory);
+    WatchKey watchKey = previous != null ? previous.watchKey : register(directory);
+    if (previous != null) {
+      cachedEntries -= previous.entries.size();
+    }
+
+    listings.put(directory, new CachedListing(List.copyOf(entries), directoryModified, watchKey));
+    cachedEntries += entries.size();
+    evict();
+  }
+
+  public synchronized void invalidate(Path directory) {
+    CachedListing listing = listings.remove(directory);
+    if (listing != null) {
+      cachedEntries -= listing.entries.size();
+      if (listing.watchKey != null) {
+        listing.watchKey.cancel();
+      }
+    }
+  }
+
+  private void evict() {
+    Iterator<CachedListing> iterator = listings.values().iterator();
+    while (iterator.hasNext() && (listings.size() > maxDirectories || cachedEntries > maxEntries)) {
+      CachedListing eldest = iterator.next();
+      iterator.remove();
+      cachedEntries -= eldest.entries.size();
+      if (eldest.watchKey != null) {
+        eldest.watchKey.cancel();
+      }
+    }
+  }
+
+  private WatchKey register(Path directory) {
+    // Only the default file system can be watched, not the ones opened from archives.
+    if (watchService == null || directory.getFileSystem() != FileSystems.getDefault()) {
+      return null;
+    }
+    try {
+      return directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+          StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+    } catch (IOException | UnsupportedOperationException | ClosedWatchServiceException e) {
+      // Fall back to the directory mtime check for this directory.
+      return null;
+    }
+  }
+
+  private void processWatchEvents() {
+    while (true) {
+      WatchKey key;
+      try {
+        key = watchService.take();
+      } catch (InterruptedException | ClosedWatchServiceException e) {
+        return;
+      }
+
+      key.pollEvents();
+      Path directory = (Path) key.watchable();
+      boolean watched;
+      synchronized (this) {
+        CachedListing listing = listings.get(directory);
+        watched = listing != null && listing.watchKey == key;
+        if (watched) {
+          listing.stale = true;
+        }
+      }
+      key.reset();
+
+      Consumer<Path> listener = changeListener;
+      if (watched && listener != null) {
+        listener.accept(directory);
+      }
+    }
+  }
+}
@@ -0,0 +1,296 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Compares two directory trees. Entries that differ in size, or only exist on one side, are
+ * decided from their attributes alone; entries of equal size but different mtime are hashed on
+ * a pool of workers, and hashes are cached by path, size and mtime so comparing again is cheap.
+ */
+public class DirectoryComparator {
+
+  private static final int HASH_BUFFER_BYTES = 1024 * 1024;
+  private static final String HASH_ALGORITHM = "SHA-256";
+  private static final ThreadLocal<ByteBuffer> HASH_BUFFERS =
+      ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(HASH_BUFFER_BYTES));
+
+  public enum Status {
+    LEFT_ONLY, RIGHT_ONLY, LEFT_NEWER, RIGHT_NEWER, CONFLICT
+  }
+
+  public static final class Difference {
+
+    private final String path;
+    private final Status status;
+
+    Difference(String path, Status status) {
+      this.path = path;
+      this.status = status;
+    }
+
+    // Relative to the compared directories.
+    public String getPath() {
+      return path;
+    }
+
+    public Status getStatus() {
+      return status;
+    }
+
+    public String getTopLevelName() {
+      int separator = path.indexOf(File.separatorChar);
+      return separator < 0 ? path : path.substring(0, separator);
+    }
+  }
+
+  public static final class Result {
+
+    private final List<Difference> differences;
+    private final long compared;
+    private final long hashed;
+    private final long hashedBytes;
+
+    Result(List<Difference> differences, long compared, long hashed, long hashedBytes) {
+      this.differences = differences;
+      this.compared = compared;
+      this.hashed = hashed;
+      this.hashedBytes = hashedBytes;
+    }
+
+    public List<Difference> getDifferences() {
+      return differences;
+    }
+
+    public long getCompared() {
+      return compared;
+    }
+
+    public long getHashed() {
+      return hashed;
+    }
+
+    public long getHashedBytes() {
+      return hashedBytes;
+    }
+  }
+
+  private static final class CachedHash {
+
+    final long size;
+    final long lastModified;
+    final byte[] hash;
+
+    CachedHash(long size, long lastModified, byte[] hash) {
+      this.size = size;
+      this.lastModified = lastModified;
+      this.hash = hash;
+    }
+  }
+
+  private final ExecutorService hashers;
+  private final ExecutorService comparisons =
+      Executors.newCachedThreadPool(Model.daemonThreadFactory("dpfm-compare"));
+  private final int maxCachedHashes;
+  private final Map<Path, CachedHash> hashCache = new ConcurrentHashMap<>();
+
+  public DirectoryComparator(int workers, int maxCachedHashes) {
+    this.hashers = Executors.newFixedThreadPool(workers, Model.daemonThreadFactory("dpfm-hash"));
+    this.maxCachedHashes = maxCachedHashes;
+  }
+
+  /**
+   * Compares left and right, descending into directories present on both sides when recursive
+   * is set. The callback is not called if the returned future is cancelled.
+   */
+  public Future<?> compare(Path left, Path right, boolean recursive, Consumer<Result> callback) {
+    CompletableFuture<Void> comparison = new CompletableFuture<>();
+    comparisons.execute(() -> {
+      Comparison state = new Comparison(comparison);
+      try {
+        state.compareDirectories(left, right, "", recursive);
+        state.resolveHashes();
+      } catch (IOException e) {
+        // An unreadable side compares as empty below.
+      }
+      if (!comparison.isCancelled()) {
+        state.differences.sort((a, b) -> a.path.compareTo(b.path));
+        callback.accept(new Result(state.differences, state.compared, state.hashed.get(),
+            state.hashedBytes.get()));
+      }
+      if (hashCache.size() > maxCachedHashes) {
+        hashCache.clear();
+      }
+      comparison.complete(null);
+    });
+    return comparison;
+  }
+
+  private final class Comparison {
+
+    final Future<?> future;
+    final List<Difference> differences = new ArrayList<>();
+    final List<PendingHash> pendingHashes = new ArrayList<>();
+    final AtomicLong hashed = new AtomicLong();
+    final AtomicLong hashedBytes = new AtomicLong();
+    long compared;
+
+    Comparison(Future<?> future) {
+      this.future = future;
+    }
+
+    void compareDirectories(Path left, Path right, String prefix, boolean recursive)
+        throws IOException {
+      Map<String, BasicFileAttributes> leftEntries = list(left);
+      Map<String, BasicFileAttributes> rightEntries = list(right);
+      TreeSet<String> names = new TreeSet<>(leftEntries.keySet());
+      names.addAll(rightEntries.keySet());
+
+      for (String name : names) {
+        if (future.isCancelled()) {
+          return;
+        }
+        compared++;
+        String path = prefix + name;
+        BasicFileAttributes leftAttributes = leftEntries.get(name);
+        BasicFileAttributes rightAttributes = rightEntries.get(name);
+        if (rightAttributes == null) {
+          differences.add(new Difference(path, Status.LEFT_ONLY));
+        } else if (leftAttributes == null) {
+          differences.add(new Difference(path, Status.RIGHT_ONLY));
+        } else if (leftAttributes.isDirectory() != rightAttributes.isDirectory()) {
+          differences.add(new Difference(path, Status.CONFLICT));
+        } else if (leftAttributes.isDirectory()) {
+          if (recursive) {
+            compareDirectories(left.resolve(name), right.resolve(name),
+                path + File.separator, true);
+          }
+        } else {
+          compareFiles(left.resolve(name), leftAttributes, right.resolve(name), rightAttributes,
+              path);
+        }
+      }
+    }
+
+    private void compareFiles(Path left, BasicFileAttributes leftAttributes, Path right,
+        BasicFileAttributes rightAttributes, String path) {
+      long leftModified = leftAttributes.lastModifiedTime().toMillis();
+      long rightModified = rightAttributes.lastModifiedTime().toMillis();
+      Status newer = leftModified > rightModified ? Status.LEFT_NEWER
+          : leftModified < rightModified ? Status.RIGHT_NEWER : Status.CONFLICT;
+
+      if (leftAttributes.size() != rightAttributes.size()) {
+        differences.add(new Difference(path, newer));
+      } else if (newer != Status.CONFLICT && leftAttributes.size() > 0) {
+        // Same size, different mtime: only the contents can tell.
+        pendingHashes.add(new PendingHash(path, newer,
+            hash(left, leftAttributes), hash(right, rightAttributes)));
+      }
+    }
+
+    void resolveHashes() {
+      for (PendingHash pending : pendingHashes) {
+        if (future.isCancelled()) {
+          return;
+        }
+        byte[] leftHash = pending.left.join();
+        byte[] rightHash = pending.right.join();
+        if (leftHash == null || rightHash == null || !Arrays.equals(leftHash, rightHash)) {
+          differences.add(new Difference(pending.path, pending.newer));
+        }
+      }
+    }
+
+    private CompletableFuture<byte[]> hash(Path file, BasicFileAttributes attributes) {
+      long size = attributes.size();
+      long lastModified = attributes.lastModifiedTime().toMillis();
+      CachedHash cached = hashCache.get(file);
+      if (cached != null && cached.size == size && cached.lastModified == lastModified) {
+        return CompletableFuture.completedFuture(cached.hash);
+      }
+      return CompletableFuture.supplyAsync(() -> {
+        if (future.isCancelled()) {
+          return null;
+        }
+        byte[] hash = hashFile(file);
+        if (hash != null) {
+          hashCache.put(file, new CachedHash(size, lastModified, hash));
+          hashed.incrementAndGet();
+          hashedBytes.addAndGet(size);
+        }
+        return hash;
+      }, hashers);
+    }
+  }
+
+  private static final class PendingHash {
+
+    final String path;
+    final Status newer;
+    final CompletableFuture<byte[]> left;
+    final CompletableFuture<byte[]> right;
+
+    PendingHash(String path, Status newer, CompletableFuture<byte[]> left,
+        CompletableFuture<byte[]> right) {
+      this.path = path;
+      this.newer = newer;
+      this.left = left;
+      this.right = right;
+    }
+  }
+
+  private static Map<String, BasicFileAttributes> list(Path directory) throws IOException {
+    Map<String, BasicFileAttributes> entries = new HashMap<>();
+    if (!Files.isDirectory(directory)) {
+      return entries;
+    }
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+      for (Path path : stream) {
+        try {
+          entries.put(path.getFileName().toString(), Files.readAttributes(path,
+              BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS));
+        } catch (IOException e) {
+          // Vanished while listing.
+        }
+      }
+    }
+    return entries;
+  }
+
+  private static byte[] hashFile(Path file) {
+    try (SeekableByteChannel channel = Files.newByteChannel(file, StandardOpenOption.READ)) {
+      MessageDigest digest = MessageDigest.getInstance(HASH_ALGORITHM);
+      ByteBuffer buffer = HASH_BUFFERS.get();
+      buffer.clear();
+      while (channel.read(buffer) > 0 || buffer.position() > 0) {
+        buffer.flip();
+        digest.update(buffer);
+        buffer.clear();
+      }
+      return digest.digest();
+    } catch (IOException | NoSuchAlgorithmException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,249 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiConsumer;
+
+public class DirectorySizeCalculator {
+
+  private static final boolean UNIX_ATTRIBUTES =
+      FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+  private static final String UNIX_ATTRIBUTE_NAMES =
+      "unix:size,nlink,fileKey,isDirectory";
+
+  public static final class Total {
+
+    private final long bytes;
+    private final long files;
+
+    Total(long bytes, long files) {
+      this.bytes = bytes;
+      this.files = files;
+    }
+
+    public long getBytes() {
+      return bytes;
+    }
+
+    public long getFiles() {
+      return files;
+    }
+  }
+
+  // A cached subtree is reused only while its own and every subdirectory's mtime is unchanged.
+  // Writing to a file in place changes no directory mtime, so a file that grows keeps its old
+  // size here until an entry is added, removed or renamed in its directory. Subtrees holding
+  // hardlinked files are not cached: their totals depend on which links the run counted first.
+  private static final class Node {
+
+    final long lastModified;
+    final long bytes;
+    final long files;
+    final List<Path> subdirectories;
+    final boolean hardlinks;
+
+    Node(long lastModified, long bytes, long files, List<Path> subdirectories,
+        boolean hardlinks) {
+      this.lastModified = lastModified;
+      this.bytes = bytes;
+      this.files = files;
+      this.subdirectories = subdirectories;
+      this.hardlinks = hardlinks;
+    }
+  }
+
+  private static final Node EMPTY = new Node(0, 0, 0, List.of(), false);
+
+  private final ForkJoinPool pool;
+  private final int maxCachedDirectories;
+  private final Map<Path, Node> cache = new ConcurrentHashMap<>();
+
+  public DirectorySizeCalculator(int parallelism, int maxCachedDirectories) {
+    this.pool = new ForkJoinPool(parallelism);
+    this.maxCachedDirectories = maxCachedDirectories;
+  }
+
+  /**
+   * Calculates the recursive size of each directory in parallel, reporting every directory as
+   * soon as its subtree is done. Cancelling the returned future stops the walk.
+   */
+  public Future<?> calculate(List<Path> directories, BiConsumer<Path, Total> listener) {
+    CompletableFuture<Void> calculation = new CompletableFuture<>();
+    Set<Object> linkedFiles = ConcurrentHashMap.newKeySet();
+
+    pool.execute(() -> {
+      List<SizeTask> tasks = new ArrayList<>();
+      for (Path directory : directories) {
+        SizeTask task = new SizeTask(directory, calculation, linkedFiles) {
+          @Override
+          protected Node compute() {
+            Node node = super.compute();
+            if (node != null && !calculation.isCancelled()) {
+              listener.accept(directory, new Total(node.bytes, node.files));
+            }
+            return node;
+          }
+        };
+        tasks.add(task);
+        task.fork();
+      }
+      for (SizeTask task : tasks) {
+        task.join();
+      }
+      if (cache.size() > maxCachedDirectories) {
+        cache.clear();
+      }
+      calculation.complete(null);
+    });
+    return calculation;
+  }
+
+  private boolean isValid(Path directory, Node node) {
+    try {
+      BasicFileAttributes attributes = Files.readAttributes(directory, BasicFileAttributes.class);
+      if (attributes.lastModifiedTime().toMillis() != node.lastModified) {
+        return false;
+      }
+    } catch (IOException e) {
+      return false;
+    }
+    for (Path subdirectory : node.subdirectories) {
+      Node child = cache.get(subdirectory);
+      if (child == null || !isValid(subdirectory, child)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private class SizeTask extends RecursiveTask<Node> {
+
+    private final Path directory;
+    private final Future<?> calculation;
+    private final Set<Object> linkedFiles;
+
+    SizeTask(Path directory, Future<?> calculation, Set<Object> linkedFiles) {
+      this.directory = directory;
+      this.calculation = calculation;
+      this.linkedFiles = linkedFiles;
+    }
+
+    @Override
+    protected Node compute() {
+      if (calculation.isCancelled()) {
+        return null;
+      }
+
+      BasicFileAttributes attributes;
+      try {
+        attributes = Files.readAttributes(directory, BasicFileAttributes.class);
+      } catch (IOException e) {
+        return EMPTY;
+      }
+
+      Node cached = cache.get(directory);
+      if (cached != null && isValid(directory, cached)) {
+        return cached;
+      }
+
+      long bytes = 0;
+      long files = 0;
+      boolean hardlinks = false;
+      List<SizeTask> subtasks = new ArrayList<>();
+      List<Path> subdirectories = new ArrayList<>();
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+        for (Path child : stream) {
+          if (calculation.isCancelled()) {
+            return null;
+          }
+          FileInfo info = FileInfo.read(child);
+          if (info == null) {
+            continue;
+          }
+          if (info.directory) {
+            SizeTask subtask = new SizeTask(child, calculation, linkedFiles);
+            subtask.fork();
+            subtasks.add(subtask);
+            subdirectories.add(child);
+          } else if (info.links <= 1 || info.fileKey == null) {
+            bytes += info.size;
+            files++;
+          } else {
+            hardlinks = true;
+            if (linkedFiles.add(info.fileKey)) {
+              bytes += info.size;
+              files++;
+            }
+          }
+        }
+      } catch (IOException | RuntimeException e) {
+        // Unreadable directories count as empty.
+      }
+
+      for (SizeTask subtask : subtasks) {
+        Node child = subtask.join();
+        if (child == null) {
+          return null;
+        }
+        bytes += child.bytes;
+        files += child.files;
+        hardlinks |= child.hardlinks;
+      }
+
+      Node node = new Node(attributes.lastModifiedTime().toMillis(), bytes, files,
+          subdirectories, hardlinks);
+      if (hardlinks) {
+        cache.remove(directory);
+      } else {
+        cache.put(directory, node);
+      }
+      return node;
+    }
+  }
+
+  private static final class FileInfo {
+
+    final boolean directory;
+    final long size;
+    final int links;
+    final Object fileKey;
+
+    FileInfo(boolean directory, long size, int links, Object fileKey) {
+      this.directory = directory;
+      this.size = size;
+      this.links = links;
+      this.fileKey = fileKey;
+    }
+
+    // Symlinks are counted as links and never descended, so a walk cannot loop or leave the
+    // tree, and hardlinked files are counted once by file key.
+    static FileInfo read(Path path) {
+      try {
+        if (UNIX_ATTRIBUTES && path.getFileSystem() == FileSystems.getDefault()) {
+          Map<String, Object> attributes = Files.readAttributes(path, UNIX_ATTRIBUTE_NAMES,
+              LinkOption.NOFOLLOW_LINKS);
+          return new FileInfo((Boolean) attributes.get("isDirectory"),
+              (Long) attributes.get("size"), (Integer) attributes.get("nlink"),
+              attributes.get("fileKey"));
+        }
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class,
+            LinkOption.NOFOLLOW_LINKS);
+        return new FileInfo(attributes.isDirectory(), attributes.size(), 1, attributes.fileKey());
+      } catch (IOException e) {
+        return null;
+      }
+    }
+  }
+}
@@ -0,0 +1,112 @@
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributes;
+import java.util.Comparator;
+
+public final class FileEntry {
+
+  public enum Kind {
+    DIRECTORY, FILE, OTHER
+  }
+
+  public static final Comparator<FileEntry> DIRECTORIES_FIRST =
+      Comparator.comparing(FileEntry::isDirectory).reversed()
+          .thenComparing(FileEntry::getName, String.CASE_INSENSITIVE_ORDER)
+          .thenComparing(FileEntry::getName);
+
+  private static final boolean DOS_ATTRIBUTES =
+      System.getProperty("os.name").toLowerCase().contains("win");
+
+  private final String name;
+  private final Kind kind;
+  private final long size;
+  private final long lastModified;
+  private final boolean hidden;
+  private final boolean symlink;
+
+  public FileEntry(String name, Kind kind, long size, long lastModified, boolean hidden,
+      boolean symlink) {
+    this.name = name;
+    this.kind = kind;
+    this.size = size;
+    this.lastModified = lastModified;
+    this.hidden = hidden;
+    this.symlink = symlink;
+  }
+
+  public static FileEntry read(Path path) throws IOException {
+    return read(path, path.getFileName().toString());
+  }
+
+  // Lists the file under the given name, such as its path relative to a search root.
+  public static FileEntry read(Path path, String name) throws IOException {
+    BasicFileAttributes attributes = readAttributes(path, LinkOption.NOFOLLOW_LINKS);
+    boolean symlink = attributes.isSymbolicLink();
+    if (symlink) {
+      try {
+        attributes = readAttributes(path);
+      } catch (IOException e) {
+        // A dangling link is still listed, with the attributes of the link itself.
+      }
+    }
+
+    boolean hidden = attributes instanceof DosFileAttributes
+        ? ((DosFileAttributes) attributes).isHidden()
+        : path.getFileName().toString().startsWith(".");
+
+    return new FileEntry(name, kindOf(attributes), attributes.size(),
+        attributes.lastModifiedTime().toMillis(), hidden, symlink);
+  }
+
+  private static BasicFileAttributes readAttributes(Path path, LinkOption... options)
+      throws IOException {
+    if (DOS_ATTRIBUTES && path.getFileSystem() == FileSystems.getDefault()) {
+      return Files.readAttributes(path, DosFileAttributes.class, options);
+    }
+    return Files.readAttributes(path, BasicFileAttributes.class, options);
+  }
+
+  static Kind kindOf(BasicFileAttributes attributes) {
+    if (attributes.isDirectory()) {
+      return Kind.DIRECTORY;
+    }
+    return attributes.isRegularFile() ? Kind.FILE : Kind.OTHER;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public Kind getKind() {
+    return kind;
+  }
+
+  public boolean isDirectory() {
+    return kind == Kind.DIRECTORY;
+  }
+
+  public long getSize() {
+    return size;
+  }
+
+  public long getLastModified() {
+    return lastModified;
+  }
+
+  public boolean isHidden() {
+    return hidden;
+  }
+
+  public boolean isSymlink() {
+    return symlink;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
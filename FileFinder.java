@@ -0,0 +1,266 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+public class FileFinder {
+
+  private static final long REPORT_INTERVAL_MS = 100;
+
+  public interface Listener {
+
+    void matchesFound(List<FileEntry> batch, long scanned, double scannedPerSecond);
+
+    void searchFinished(long found, long scanned, long elapsedNanos);
+  }
+
+  public static final class Criteria {
+
+    private final Pattern namePattern;
+    private final long minSize;
+    private final long maxSize;
+    private final long modifiedAfter;
+    private final FileEntry.Kind kind;
+    private final int maxDepth;
+    private final boolean followLinks;
+
+    /**
+     * Matches names against a glob, or a regular expression when regex is set, ignoring case.
+     * Sizes and times of -1 and a null kind match anything.
+     */
+    public Criteria(String namePattern, boolean regex, long minSize, long maxSize,
+        long modifiedAfter, FileEntry.Kind kind, int maxDepth, boolean followLinks) {
+      String expression = regex ? namePattern : globToRegex(namePattern);
+      this.namePattern = Pattern.compile(expression,
+          Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+      this.minSize = minSize;
+      this.maxSize = maxSize;
+      this.modifiedAfter = modifiedAfter;
+      this.kind = kind;
+      this.maxDepth = maxDepth;
+      this.followLinks = followLinks;
+    }
+
+    boolean matches(String name, BasicFileAttributes attributes) {
+      if (kind != null && FileEntry.kindOf(attributes) != kind) {
+        return false;
+      }
+      if (minSize >= 0 && attributes.size() < minSize) {
+        return false;
+      }
+      if (maxSize >= 0 && attributes.size() > maxSize) {
+        return false;
+      }
+      if (modifiedAfter >= 0 && attributes.lastModifiedTime().toMillis() < modifiedAfter) {
+        return false;
+      }
+      return namePattern.matcher(name).matches();
+    }
+  }
+
+  private final ForkJoinPool pool;
+  private final ExecutorService reporters =
+      Executors.newCachedThreadPool(Model.daemonThreadFactory("dpfm-find"));
+
+  public FileFinder(int parallelism) {
+    this.pool = new ForkJoinPool(parallelism);
+  }
+
+  /**
+   * Walks the tree under root in parallel and streams matches, named by their path relative to
+   * root, in sorted batches. Cancelling the returned future stops the walk.
+   */
+  public Future<?> find(Path root, Criteria criteria, Listener listener) {
+    CompletableFuture<Void> search = new CompletableFuture<>();
+    Search state = new Search(root, criteria, search);
+
+    reporters.execute(() -> {
+      long start = System.nanoTime();
+      try {
+        Object rootKey = Files.readAttributes(root, BasicFileAttributes.class).fileKey();
+        if (rootKey != null) {
+          state.visitedDirectories.add(rootKey);
+        }
+      } catch (IOException e) {
+        // The walk finds nothing either.
+      }
+      ForkJoinTask<?> walk = pool.submit(new FindTask(state, root, 0));
+      while (!walk.isDone() && !search.isCancelled()) {
+        try {
+          walk.get(REPORT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+          report(state, listener, start);
+        } catch (InterruptedException | ExecutionException e) {
+          break;
+        }
+      }
+      if (!search.isCancelled()) {
+        report(state, listener, start);
+        listener.searchFinished(state.found.sum(), state.scanned.sum(),
+            System.nanoTime() - start);
+      }
+      search.complete(null);
+    });
+    return search;
+  }
+
+  private static void report(Search state, Listener listener, long start) {
+    List<FileEntry> batch = new ArrayList<>();
+    FileEntry entry;
+    while ((entry = state.matches.poll()) != null) {
+      batch.add(entry);
+    }
+    long scanned = state.scanned.sum();
+    double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+    batch.sort(FileEntry.DIRECTORIES_FIRST);
+    listener.matchesFound(batch, scanned, elapsedSeconds > 0 ? scanned / elapsedSeconds : 0);
+  }
+
+  private static final class Search {
+
+    final Path root;
+    final Criteria criteria;
+    final Future<?> future;
+    final Queue<FileEntry> matches = new ConcurrentLinkedQueue<>();
+    final Set<Object> visitedDirectories = ConcurrentHashMap.newKeySet();
+    final LongAdder scanned = new LongAdder();
+    final LongAdder found = new LongAdder();
+
+    Search(Path root, Criteria criteria, Future<?> future) {
+      this.root = root;
+      this.criteria = criteria;
+      this.future = future;
+    }
+  }
+
+  private static final class FindTask extends RecursiveAction {
+
+    private final Search search;
+    private final Path directory;
+    private final int depth;
+
+    FindTask(Search search, Path directory, int depth) {
+      this.search = search;
+      this.directory = directory;
+      this.depth = depth;
+    }
+
+    @Override
+    protected void compute() {
+      List<FindTask> subtasks = new ArrayList<>();
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+        for (Path child : stream) {
+          if (search.future.isCancelled()) {
+            return;
+          }
+          visit(child, subtasks);
+        }
+      } catch (IOException | RuntimeException e) {
+        // Unreadable directories are skipped.
+      }
+      invokeAll(subtasks);
+    }
+
+    private void visit(Path child, List<FindTask> subtasks) {
+      BasicFileAttributes attributes;
+      try {
+        attributes = Files.readAttributes(child, BasicFileAttributes.class,
+            LinkOption.NOFOLLOW_LINKS);
+        if (attributes.isSymbolicLink() && search.criteria.followLinks) {
+          attributes = Files.readAttributes(child, BasicFileAttributes.class);
+        }
+      } catch (IOException e) {
+        return;
+      }
+      search.scanned.increment();
+
+      String name = child.getFileName().toString();
+      if (search.criteria.matches(name, attributes)) {
+        try {
+          search.matches.add(FileEntry.read(child,
+              search.root.relativize(child).toString()));
+          search.found.increment();
+        } catch (IOException e) {
+          // Vanished since it was matched.
+        }
+      }
+
+      // Each directory is walked once, so links back up the tree cannot loop.
+      if (attributes.isDirectory() && depth + 1 < search.criteria.maxDepth) {
+        Object key = attributes.fileKey();
+        if (key == null || search.visitedDirectories.add(key)) {
+          subtasks.add(new FindTask(search, child, depth + 1));
+        }
+      }
+    }
+  }
+
+  /**
+   * Translates a glob with *, ?, [...] and {a,b} into a regular expression.
+   */
+  static String globToRegex(String glob) {
+    StringBuilder regex = new StringBuilder();
+    boolean inGroup = false;
+    for (int i = 0; i < glob.length(); i++) {
+      char c = glob.charAt(i);
+      switch (c) {
+        case '*':
+          regex.append(".*");
+          break;
+        case '?':
+          regex.append('.');
+          break;
+        case '[':
+          int close = glob.indexOf(']', i + 1);
+          if (close > i + 1) {
+            String set = glob.substring(i + 1, close);
+            if (set.startsWith("!")) {
+              set = "^" + set.substring(1);
+            }
+            regex.append('[').append(set.replace("\\", "\\\\")).append(']');
+            i = close;
+          } else {
+            regex.append("\\[");
+          }
+          break;
+        case '{':
+          regex.append("(?:");
+          inGroup = true;
+          break;
+        case '}':
+          regex.append(inGroup ? ")" : "\\}");
+          inGroup = false;
+          break;
+        case ',':
+          regex.append(inGroup ? "|" : ",");
+          break;
+        default:
+          if ("\\.^$+()|".indexOf(c) >= 0) {
+            regex.append('\\');
+          }
+          regex.append(c);
+      }
+    }
+    return regex.toString();
+  }
+}
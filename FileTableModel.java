@@ -0,0 +1,794 @@
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.swing.table.AbstractTableModel;
+
+public class FileTableModel extends AbstractTableModel {
+
+  public static final int NAME_COLUMN = 0;
+  public static final int SIZE_COLUMN = 1;
+  public static final int DATE_COLUMN = 2;
+  public static final int TYPE_COLUMN = 3;
+
+  // How an entry differs from the other panel after a comparison.
+  public enum Mark {
+    UNIQUE, NEWER, DIFFERENT
+  }
+
+  private static final String[] COLUMN_NAMES = {"Name", "Size", "Date Modified", "Type"};
+  private static final DateTimeFormatter DATE_FORMAT =
+      DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+  private static final int FORMAT_CACHE_SIZE = 512;
+  private static final int MAX_INCREMENTAL_RUNS = 256;
+  private static final int RADIX_BITS = 11;
+  private static final int RADIX = 1 << RADIX_BITS;
+
+  private static final class Columns {
+
+    final int count;
+    final String[] names;
+    final long[] sizes;
+    final long[] directorySizes;
+    final long[] lastModified;
+    final int[] extensionIds;
+    final BitSet directories;
+    final BitSet others;
+    final BitSet symlinks;
+    final BitSet hidden;
+
+    Columns(int count, String[] names, long[] sizes, long[] directorySizes, long[] lastModified,
+        int[] extensionIds, BitSet directories, BitSet others, BitSet symlinks, BitSet hidden) {
+      this.count = count;
+      this.names = names;
+      this.sizes = sizes;
+      this.directorySizes = directorySizes;
+      this.lastModified = lastModified;
+      this.extensionIds = extensionIds;
+      this.directories = directories;
+      this.others = others;
+      this.symlinks = symlinks;
+      this.hidden = hidden;
+    }
+  }
+
+  private int rowCount;
+  private String[] names = new String[0];
+  private long[] sizes = new long[0];
+  private long[] directorySizes = new long[0];
+  private long[] lastModified = new long[0];
+  private int[] extensionIds = new int[0];
+  private BitSet directories = new BitSet();
+  private BitSet others = new BitSet();
+  private BitSet symlinks = new BitSet();
+  private BitSet hidden = new BitSet();
+  private NameIndex nameIndex;
+
+  // Storage rows matching the filter, in storage order; each refinement is pushed on top.
+  private String filter = "";
+  private final ArrayDeque<String> filterQueries = new ArrayDeque<>();
+  private final ArrayDeque<int[]> filterResults = new ArrayDeque<>();
+  // Storage is kept in ascending name order, which is the default sort; any other sort is a
+  // permutation of the storage rows.
+  private int sortColumn = NAME_COLUMN;
+  private boolean sortDescending;
+  private int[] sortedRows;
+  // Storage rows in display order, or null when every row is shown in storage order.
+  private int[] viewRows;
+  // Keyed by name so that marks survive the listing being refreshed.
+  private Map<String, Mark> marks = Map.of();
+  // Names the user selected for an operation. They are kept apart from the table's own selection,
+  // which only tracks the cursor, so moving the cursor or reloading the rows never drops them.
+  private final Set<String> selectedNames = new HashSet<>();
+
+  private final Map<String, Integer> extensionIndex = new HashMap<>();
+  private final List<String> extensions = new ArrayList<>();
+  private final List<String> typeNames = new ArrayList<>();
+
+  private final int[] formattedRows = new int[FORMAT_CACHE_SIZE];
+  private final String[] formattedSizes = new String[FORMAT_CACHE_SIZE];
+  private final String[] formattedDates = new String[FORMAT_CACHE_SIZE];
+
+  public FileTableModel() {
+    resetExtensions();
+  }
+
+  public void setEntries(List<FileEntry> entries) {
+    int count = entries.size();
+    allocate(count);
+    resetExtensions();
+
+    for (int i = 0; i < count; i++) {
+      store(i, entries.get(i));
+    }
+
+    rowCount = count;
+    Arrays.fill(formattedRows, -1);
+    reorder();
+    fireTableDataChanged();
+  }
+
+  public void mergeEntries(List<FileEntry> batch) {
+    if (batch.isEmpty()) {
+      return;
+    }
+
+    Columns old = snapshot();
+    int total = old.count + batch.size();
+    allocate(total);
+    List<int[]> insertedRuns = new ArrayList<>();
+
+    int i = 0;
+    int j = 0;
+    for (int row = 0; row < total; row++) {
+      boolean takeBatch = j < batch.size() && (i == old.count
+          || compare(batch.get(j), old.directories.get(i), old.names[i]) < 0);
+      if (takeBatch) {
+        store(row, batch.get(j++));
+        addToRuns(insertedRuns, row);
+      } else {
+        copyRow(old, i++, row);
+      }
+    }
+
+    rowCount = total;
+    Arrays.fill(formattedRows, -1);
+    reorder();
+    if (viewRows != null) {
+      fireTableDataChanged();
+      return;
+    }
+    for (int[] run : insertedRuns) {
+      fireTableRowsInserted(run[0], run[1]);
+    }
+  }
+
+  /**
+   * Replaces the rows with a fresh sorted listing, firing events only for the rows that were
+   * added, removed or changed so that the table keeps its selection and scroll position. Returns
+   * false when the delta was too fragmented and a full data change was fired instead.
+   */
+  public boolean applyListing(List<FileEntry> entries) {
+    Columns old = snapshot();
+    int total = entries.size();
+    allocate(total);
+    List<int[]> removedRuns = new ArrayList<>();
+    List<int[]> insertedRuns = new ArrayList<>();
+    List<int[]> updatedRuns = new ArrayList<>();
+
+    int i = 0;
+    int j = 0;
+    while (i < old.count || j < total) {
+      int order;
+      if (i == old.count) {
+        order = -1;
+      } else if (j == total) {
+        order = 1;
+      } else {
+        order = compare(entries.get(j), old.directories.get(i), old.names[i]);
+      }
+
+      if (order < 0) {
+        store(j, entries.get(j));
+        addToRuns(insertedRuns, j++);
+      } else if (order > 0) {
+        addToRuns(removedRuns, i++);
+      } else {
+        FileEntry entry = entries.get(j);
+        if (isUnchanged(old, i, entry)) {
+          copyRow(old, i, j);
+        } else {
+          store(j, entry);
+          addToRuns(updatedRuns, j);
+        }
+        i++;
+        j++;
+      }
+    }
+
+    rowCount = total;
+    Arrays.fill(formattedRows, -1);
+
+    reorder();
+    if (viewRows != null) {
+      fireTableDataChanged();
+      return false;
+    }
+    if (removedRuns.size() + insertedRuns.size() + updatedRuns.size() > MAX_INCREMENTAL_RUNS) {
+      fireTableDataChanged();
+      return false;
+    }
+    for (int k = removedRuns.size() - 1; k >= 0; k--) {
+      fireTableRowsDeleted(removedRuns.get(k)[0], removedRuns.get(k)[1]);
+    }
+    for (int[] run : insertedRuns) {
+      fireTableRowsInserted(run[0], run[1]);
+    }
+    for (int[] run : updatedRuns) {
+      fireTableRowsUpdated(run[0], run[1]);
+    }
+    return true;
+  }
+
+  private static void addToRuns(List<int[]> runs, int row) {
+    int[] last = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+    if (last != null && last[1] == row - 1) {
+      last[1] = row;
+    } else {
+      runs.add(new int[]{row, row});
+    }
+  }
+
+  private static int compare(FileEntry entry, boolean rowIsDirectory, String rowName) {
+    if (entry.isDirectory() != rowIsDirectory) {
+      return entry.isDirectory() ? -1 : 1;
+    }
+    int order = String.CASE_INSENSITIVE_ORDER.compare(entry.getName(), rowName);
+    return order != 0 ? order : entry.getName().compareTo(rowName);
+  }
+
+  private static boolean isUnchanged(Columns old, int row, FileEntry entry) {
+    FileEntry.Kind kind = old.directories.get(row) ? FileEntry.Kind.DIRECTORY
+        : old.others.get(row) ? FileEntry.Kind.OTHER : FileEntry.Kind.FILE;
+    return entry.getKind() == kind
+        && entry.getSize() == old.sizes[row]
+        && entry.getLastModified() == old.lastModified[row]
+        && entry.isSymlink() == old.symlinks.get(row)
+        && entry.isHidden() == old.hidden.get(row);
+  }
+
+  private Columns snapshot() {
+    return new Columns(rowCount, names, sizes, directorySizes, lastModified, extensionIds,
+        directories, others, symlinks, hidden);
+  }
+
+  private void copyRow(Columns old, int from, int to) {
+    names[to] = old.names[from];
+    sizes[to] = old.sizes[from];
+    directorySizes[to] = old.directorySizes[from];
+    lastModified[to] = old.lastModified[from];
+    extensionIds[to] = old.extensionIds[from];
+    directories.set(to, old.directories.get(from));
+    others.set(to, old.others.get(from));
+    symlinks.set(to, old.symlinks.get(from));
+    hidden.set(to, old.hidden.get(from));
+  }
+
+  private void allocate(int count) {
+    names = new String[count];
+    sizes = new long[count];
+    directorySizes = new long[count];
+    lastModified = new long[count];
+    extensionIds = new int[count];
+    directories = new BitSet(count);
+    others = new BitSet(count);
+    symlinks = new BitSet(count);
+    hidden = new BitSet(count);
+    nameIndex = null;
+  }
+
+  private void store(int row, FileEntry entry) {
+    names[row] = entry.getName();
+    sizes[row] = entry.getSize();
+    directorySizes[row] = -1;
+    lastModified[row] = entry.getLastModified();
+    if (entry.getKind() == FileEntry.Kind.DIRECTORY) {
+      directories.set(row);
+    } else if (entry.getKind() == FileEntry.Kind.OTHER) {
+      others.set(row);
+    }
+    if (entry.isSymlink()) {
+      symlinks.set(row);
+    }
+    if (entry.isHidden()) {
+      hidden.set(row);
+    }
+    extensionIds[row] = entry.isDirectory() ? 0 : extensionId(getExtension(entry.getName()));
+  }
+
+  private void resetExtensions() {
+    extensionIndex.clear();
+    extensions.clear();
+    typeNames.clear();
+    extensions.add("");
+    typeNames.add("File");
+  }
+
+  private int extensionId(String extension) {
+    if (extension.isEmpty()) {
+      return 0;
+    }
+    Integer id = extensionIndex.get(extension);
+    if (id == null) {
+      id = extensions.size();
+      extensions.add(extension);
+      typeNames.add(extension.toUpperCase() + " File");
+      extensionIndex.put(extension, id);
+    }
+    return id;
+  }
+
+  public void clear() {
+    setEntries(List.of());
+  }
+
+  /**
+   * Narrows the visible rows to names matching the query, case-insensitively. A plain query
+   * matches anywhere in the name; a query with * or ? is a glob anchored at the start of the name.
+   * Extending the previous query only searches its matches and shortening it pops back to an
+   * earlier result, so typing never rescans the whole listing after the first character.
+   */
+  public int setFilter(String query) {
+    String folded = NameIndex.fold(query);
+    if (folded.equals(filter)) {
+      return getRowCount();
+    }
+
+    while (!filterQueries.isEmpty() && !folded.startsWith(filterQueries.peek())) {
+      filterQueries.pop();
+      filterResults.pop();
+    }
+
+    if (!folded.isEmpty() && (filterQueries.isEmpty() || !filterQueries.peek().equals(folded))) {
+      filterResults.push(getNameIndex().find(folded, filterResults.peek()));
+      filterQueries.push(folded);
+    }
+    filter = folded;
+    updateView();
+    fireTableDataChanged();
+    return getRowCount();
+  }
+
+  public String getFilter() {
+    return filter;
+  }
+
+  public boolean isFiltered() {
+    return !filter.isEmpty();
+  }
+
+  public int getUnfilteredRowCount() {
+    return rowCount;
+  }
+
+  // Only repaints, so the table keeps its cursor.
+  public void setMarks(Map<String, Mark> marks) {
+    this.marks = marks;
+    if (getRowCount() > 0) {
+      fireTableRowsUpdated(0, getRowCount() - 1);
+    }
+  }
+
+  public void clearMarks() {
+    if (!marks.isEmpty()) {
+      setMarks(Map.of());
+    }
+  }
+
+  public Mark getMark(int row) {
+    return marks.isEmpty() ? null : marks.get(names[storageRow(row)]);
+  }
+
+  public boolean isSelected(int row) {
+    return !selectedNames.isEmpty() && selectedNames.contains(names[storageRow(row)]);
+  }
+
+  public boolean hasSelection() {
+    return !selectedNames.isEmpty();
+  }
+
+  public void toggleSelected(int row) {
+    String name = names[storageRow(row)];
+    if (!selectedNames.remove(name)) {
+      selectedNames.add(name);
+    }
+    fireTableRowsUpdated(row, row);
+  }
+
+  // Applies to the given rows, in ascending order, with one repaint for the whole run.
+  public void setSelected(int[] rows, boolean selected) {
+    if (rows.length == 0) {
+      return;
+    }
+    for (int row : rows) {
+      String name = names[storageRow(row)];
+      if (selected) {
+        selectedNames.add(name);
+      } else {
+        selectedNames.remove(name);
+      }
+    }
+    fireTableRowsUpdated(rows[0], rows[rows.length - 1]);
+  }
+
+  public void clearSelection() {
+    if (!selectedNames.isEmpty()) {
+      selectedNames.clear();
+      if (getRowCount() > 0) {
+        fireTableRowsUpdated(0, getRowCount() - 1);
+      }
+    }
+  }
+
+  // The selected names among the shown rows, in display order.
+  public List<String> getSelectedNames() {
+    List<String> selected = new ArrayList<>();
+    if (selectedNames.isEmpty()) {
+      return selected;
+    }
+    int count = getRowCount();
+    for (int row = 0; row < count; row++) {
+      String name = names[storageRow(row)];
+      if (selectedNames.contains(name)) {
+        selected.add(name);
+      }
+    }
+    return selected;
+  }
+
+  // Every name in the listing, including rows hidden by the filter.
+  public List<String> getUnfilteredNames() {
+    return List.of(Arrays.copyOf(names, rowCount));
+  }
+
+  private NameIndex getNameIndex() {
+    if (nameIndex == null) {
+      nameIndex = new NameIndex(names, rowCount);
+    }
+    return nameIndex;
+  }
+
+  /**
+   * Orders the rows by a column, keeping directories first. Rows with equal keys stay in name
+   * order. Sorting builds a permutation of the storage rows, so it never touches the entries
+   * themselves or the file system.
+   */
+  public void setSort(int column, boolean descending) {
+    sortColumn = column;
+    sortDescending = descending;
+    resort();
+    updateView();
+    fireTableDataChanged();
+  }
+
+  public int getSortColumn() {
+    return sortColumn;
+  }
+
+  public boolean isSortDescending() {
+    return sortDescending;
+  }
+
+  // Rebuilds the sort permutation and the filter after the storage rows changed.
+  private void reorder() {
+    resort();
+    filterQueries.clear();
+    filterResults.clear();
+    if (isFiltered()) {
+      filterResults.push(getNameIndex().find(filter, null));
+      filterQueries.push(filter);
+    }
+    updateView();
+  }
+
+  private void resort() {
+    if (sortColumn == NAME_COLUMN && !sortDescending) {
+      sortedRows = null;
+      return;
+    }
+    // Storage puts directories first, so each kind is sorted within its own range.
+    int directoryCount = Math.min(directories.nextClearBit(0), rowCount);
+    int[] rows = new int[rowCount];
+    sortRange(rows, 0, directoryCount);
+    sortRange(rows, directoryCount, rowCount);
+    sortedRows = rows;
+  }
+
+  /**
+   * Sorts storage rows [from, to) into rows with an LSD radix sort over keys extracted once per
+   * row. Only the digits that vary within the range are sorted, and the sort is stable, so ties
+   * keep the storage order in either direction.
+   */
+  private void sortRange(int[] rows, int from, int to) {
+    int count = to - from;
+    if (count == 0) {
+      return;
+    }
+    if (sortColumn == NAME_COLUMN) {
+      for (int i = 0; i < count; i++) {
+        rows[from + i] = to - 1 - i;
+      }
+      return;
+    }
+
+    int[] typeRanks = sortColumn == TYPE_COLUMN ? typeRanks() : null;
+    long[] keys = new long[count];
+    int[] order = new int[count];
+    long min = Long.MAX_VALUE;
+    long max = Long.MIN_VALUE;
+    for (int i = 0; i < count; i++) {
+      long key = sortKey(from + i, typeRanks);
+      keys[i] = key;
+      order[i] = from + i;
+      min = Math.min(min, key);
+      max = Math.max(max, key);
+    }
+    // Offsets from the minimum are unsigned, so the span fits even when max - min overflows.
+    long span = max - min;
+    for (int i = 0; i < count; i++) {
+      long key = keys[i] - min;
+      keys[i] = sortDescending ? span - key : key;
+    }
+
+    int keyBits = 64 - Long.numberOfLeadingZeros(span);
+    long[] keyBuffer = new long[count];
+    int[] orderBuffer = new int[count];
+    int[] counts = new int[RADIX];
+    for (int shift = 0; shift < keyBits; shift += RADIX_BITS) {
+      Arrays.fill(counts, 0);
+      for (int i = 0; i < count; i++) {
+        counts[(int) (keys[i] >>> shift) & (RADIX - 1)]++;
+      }
+      int position = 0;
+      for (int digit = 0; digit < RADIX; digit++) {
+        int digitCount = counts[digit];
+        counts[digit] = position;
+        position += digitCount;
+      }
+      for (int i = 0; i < count; i++) {
+        int target = counts[(int) (keys[i] >>> shift) & (RADIX - 1)]++;
+        keyBuffer[target] = keys[i];
+        orderBuffer[target] = order[i];
+      }
+      long[] sortedKeys = keyBuffer;
+      keyBuffer = keys;
+      keys = sortedKeys;
+      int[] sortedOrder = orderBuffer;
+      orderBuffer = order;
+      order = sortedOrder;
+    }
+    System.arraycopy(order, 0, rows, from, count);
+  }
+
+  private long sortKey(int index, int[] typeRanks) {
+    switch (sortColumn) {
+      case SIZE_COLUMN:
+        return directories.get(index) ? directorySizes[index] : sizes[index];
+      case DATE_COLUMN:
+        return lastModified[index];
+      case TYPE_COLUMN:
+        return directories.get(index) ? 0 : typeRanks[extensionIds[index]];
+      default:
+        throw new IndexOutOfBoundsException("column " + sortColumn);
+    }
+  }
+
+  // Position of each extension id when the type names are in alphabetical order.
+  private int[] typeRanks() {
+    Integer[] ids = new Integer[typeNames.size()];
+    for (int id = 0; id < ids.length; id++) {
+      ids[id] = id;
+    }
+    Arrays.sort(ids, (a, b) -> String.CASE_INSENSITIVE_ORDER.compare(typeNames.get(a),
+        typeNames.get(b)));
+    int[] ranks = new int[ids.length];
+    for (int rank = 0; rank < ids.length; rank++) {
+      ranks[ids[rank]] = rank;
+    }
+    return ranks;
+  }
+
+  private void updateView() {
+    int[] filtered = isFiltered() ? filterResults.peek() : null;
+    if (filtered == null || sortedRows == null) {
+      viewRows = filtered != null ? filtered : sortedRows;
+      return;
+    }
+    BitSet matches = new BitSet(rowCount);
+    for (int row : filtered) {
+      matches.set(row);
+    }
+    int[] rows = new int[filtered.length];
+    int found = 0;
+    for (int row : sortedRows) {
+      if (matches.get(row)) {
+        rows[found++] = row;
+      }
+    }
+    viewRows = rows;
+  }
+
+  private int storageRow(int row) {
+    return viewRows != null ? viewRows[row] : row;
+  }
+
+  @Override
+  public int getRowCount() {
+    return viewRows != null ? viewRows.length : rowCount;
+  }
+
+  @Override
+  public int getColumnCount() {
+    return COLUMN_NAMES.length;
+  }
+
+  @Override
+  public String getColumnName(int column) {
+    return COLUMN_NAMES[column];
+  }
+
+  @Override
+  public Class<?> getColumnClass(int column) {
+    return String.class;
+  }
+
+  @Override
+  public boolean isCellEditable(int row, int column) {
+    return false;
+  }
+
+  @Override
+  public Object getValueAt(int row, int column) {
+    int index = storageRow(row);
+    switch (column) {
+      case NAME_COLUMN:
+        return names[index];
+      case SIZE_COLUMN:
+        return directories.get(index) && directorySizes[index] < 0
+            ? "<DIR>" : formattedSizes[formatRow(index)];
+      case DATE_COLUMN:
+        return formattedDates[formatRow(index)];
+      case TYPE_COLUMN:
+        return directories.get(index) ? "Directory" : typeNames.get(extensionIds[index]);
+      default:
+        throw new IndexOutOfBoundsException("column " + column);
+    }
+  }
+
+  private int formatRow(int index) {
+    int slot = index & (FORMAT_CACHE_SIZE - 1);
+    if (formattedRows[slot] != index) {
+      long size = directories.get(index) ? directorySizes[index] : sizes[index];
+      formattedSizes[slot] = formatFileSize(size);
+      formattedDates[slot] = DATE_FORMAT.format(Instant.ofEpochMilli(lastModified[index]));
+      formattedRows[slot] = index;
+    }
+    return slot;
+  }
+
+  public String getName(int row) {
+    return names[storageRow(row)];
+  }
+
+  public int indexOf(String name) {
+    int count = getRowCount();
+    for (int row = 0; row < count; row++) {
+      if (names[storageRow(row)].equals(name)) {
+        return row;
+      }
+    }
+    return -1;
+  }
+
+  public FileEntry.Kind getKind(int row) {
+    int index = storageRow(row);
+    if (directories.get(index)) {
+      return FileEntry.Kind.DIRECTORY;
+    }
+    return others.get(index) ? FileEntry.Kind.OTHER : FileEntry.Kind.FILE;
+  }
+
+  public boolean isDirectory(int row) {
+    return directories.get(storageRow(row));
+  }
+
+  public boolean isSymlink(int row) {
+    return symlinks.get(storageRow(row));
+  }
+
+  public boolean isHidden(int row) {
+    return hidden.get(storageRow(row));
+  }
+
+  public String getExtension(int row) {
+    return extensions.get(extensionIds[storageRow(row)]);
+  }
+
+  public long getSize(int row) {
+    return sizes[storageRow(row)];
+  }
+
+  /**
+   * Returns the size of a file, or the calculated recursive size of a directory, or -1 for a
+   * directory whose size has not been calculated.
+   */
+  public long getTotalSize(int row) {
+    int index = storageRow(row);
+    return directories.get(index) ? directorySizes[index] : sizes[index];
+  }
+
+  /**
+   * Stores calculated directory sizes, each found by a binary search of the name-ordered storage
+   * rows. Returns true if the rows were sorted by size and so re-sorted, which clears the table's
+   * selection; otherwise the rows are only repainted.
+   */
+  public boolean setDirectorySizes(Map<String, Long> totals) {
+    int directoryCount = Math.min(directories.nextClearBit(0), rowCount);
+    boolean changed = false;
+    for (Map.Entry<String, Long> total : totals.entrySet()) {
+      int index = findDirectory(total.getKey(), directoryCount);
+      if (index == -1) {
+        continue;
+      }
+      directorySizes[index] = total.getValue();
+      int slot = index & (FORMAT_CACHE_SIZE - 1);
+      if (formattedRows[slot] == index) {
+        formattedRows[slot] = -1;
+      }
+      changed = true;
+    }
+    if (!changed) {
+      return false;
+    }
+    if (sortColumn == SIZE_COLUMN) {
+      resort();
+      updateView();
+      fireTableDataChanged();
+      return true;
+    }
+    fireTableRowsUpdated(0, getRowCount() - 1);
+    return false;
+  }
+
+  private int findDirectory(String name, int directoryCount) {
+    int low = 0;
+    int high = directoryCount - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      int order = String.CASE_INSENSITIVE_ORDER.compare(names[middle], name);
+      if (order == 0) {
+        order = names[middle].compareTo(name);
+      }
+      if (order < 0) {
+        low = middle + 1;
+      } else if (order > 0) {
+        high = middle - 1;
+      } else {
+        return middle;
+      }
+    }
+    return -1;
+  }
+
+  public long getLastModified(int row) {
+    return lastModified[storageRow(row)];
+  }
+
+  public static String formatFileSize(long size) {
+    if (size < 1024) {
+      return size + " B";
+    } else if (size < 1024 * 1024) {
+      return String.format("%.1f KB", size / 1024.0);
+    } else if (size < 1024 * 1024 * 1024) {
+      return String.format("%.1f MB", size / (1024.0 * 1024));
+    } else {
+      return String.format("%.1f GB", size / (1024.0 * 1024 * 1024));
+    }
+  }
+
+  public static String getExtension(String fileName) {
+    int lastDot = fileName.lastIndexOf('.');
+    if (lastDot > 0 && lastDot < fileName.length() - 1) {
+      return fileName.substring(lastDot + 1).toLowerCase();
+    }
+    return "";
+  }
+}
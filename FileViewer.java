@@ -0,0 +1,396 @@
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.event.ActionEvent;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import javax.swing.AbstractAction;
+import javax.swing.InputMap;
+import javax.swing.JComponent;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JScrollBar;
+import javax.swing.KeyStroke;
+import javax.swing.Timer;
+import javax.swing.border.EmptyBorder;
+
+/**
+ * Read-only viewer for files of any size. Only the rows on screen are read and decoded, from a
+ * PagedFile, and the scroll bar tracks the byte offset rather than the line, so nothing needs to
+ * be known about the rest of the file to open it or to jump anywhere in it.
+ */
+public class FileViewer extends JFrame {
+
+  private static final int HEX_ROW_BYTES = 16;
+  private static final int SCROLL_RANGE = 1 << 20;
+  private static final int WHEEL_LINES = 3;
+  private static final int TAB_WIDTH = 8;
+  private static final int REFRESH_INTERVAL_MS = 250;
+  private static final Color BACKGROUND = Color.BLUE;
+  private static final Color OFFSET_FOREGROUND = Color.CYAN;
+
+  private final PagedFile file;
+  private final PageView page = new PageView();
+  private final JScrollBar scrollBar = new JScrollBar(JScrollBar.VERTICAL, 0, 0, 0, SCROLL_RANGE);
+  private final JLabel statusBar = new JLabel(" ");
+  private final Timer refreshTimer;
+  private byte[] pageBytes = new byte[0];
+  private long top;
+  private boolean hex;
+  private boolean follow;
+  private boolean updatingScrollBar;
+
+  private FileViewer(PagedFile file) {
+    super("View - " + file.getPath());
+    this.file = file;
+    setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+
+    page.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 13));
+    page.setBackground(BACKGROUND);
+    page.setForeground(Color.WHITE);
+    page.setFocusable(true);
+    page.addMouseWheelListener(e -> scrollLines(e.getWheelRotation() * WHEEL_LINES));
+    page.addComponentListener(new ComponentAdapter() {
+      @Override
+      public void componentResized(ComponentEvent e) {
+        // The wrap width follows the window, so realign to a row start for the new width.
+        jumpTo(top);
+      }
+    });
+
+    scrollBar.addAdjustmentListener(e -> {
+      if (!updatingScrollBar) {
+        follow = false;
+        long size = file.size();
+        jumpTo(e.getValue() >= SCROLL_RANGE - scrollBar.getVisibleAmount()
+            ? lastPageTop() : (long) (e.getValue() / (double) SCROLL_RANGE * size));
+      }
+    });
+
+    statusBar.setBorder(new EmptyBorder(3, 5, 3, 5));
+    statusBar.setBackground(BACKGROUND);
+    statusBar.setForeground(Color.WHITE);
+    statusBar.setOpaque(true);
+
+    add(page, BorderLayout.CENTER);
+    add(scrollBar, BorderLayout.EAST);
+    add(statusBar, BorderLayout.SOUTH);
+    bindKeys();
+
+    refreshTimer = new Timer(REFRESH_INTERVAL_MS, e -> refresh());
+    addWindowListener(new WindowAdapter() {
+      @Override
+      public void windowClosed(WindowEvent e) {
+        refreshTimer.stop();
+        try {
+          file.close();
+        } catch (IOException ex) {
+          // Nothing left to release.
+        }
+      }
+    });
+    setSize(1000, 700);
+  }
+
+  /**
+   * Opens a viewer on path with the row containing offset at the top.
+   */
+  public static void open(Component parent, Path path, long offset) {
+    PagedFile file;
+    try {
+      file = new PagedFile(path);
+    } catch (IOException e) {
+      JOptionPane.showMessageDialog(parent, "Cannot open " + path + ": " + e.getMessage(),
+          "Error", JOptionPane.ERROR_MESSAGE);
+      return;
+    }
+    FileViewer viewer = new FileViewer(file);
+    viewer.setLocationRelativeTo(parent);
+    viewer.setVisible(true);
+    viewer.jumpTo(offset);
+    viewer.refreshTimer.start();
+    viewer.page.requestFocusInWindow();
+  }
+
+  private void bindKeys() {
+    InputMap inputMap = getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW);
+    bind(inputMap, KeyStroke.getKeyStroke(KeyEvent.VK_UP, 0), "lineUp", () -> scrollLines(-1));
+    bind(inputMap, KeyStroke.getKeyStroke(KeyEvent.VK_DOWN, 0), "lineDown",
+        () -> scrollLines(1));
+    bind(inputMap, KeyStroke.getKeyStroke(KeyEvent.VK_PAGE_UP, 0), "pageUp",
+        () -> scrollLines(-Math.max(1, page.getRows() - 1)));
+    bind(inputMap, KeyStroke.getKeyStroke(KeyEvent.VK_PAGE_DOWN, 0), "pageDown",
+        () -> scrollLines(Math.max(1, page.getRows() - 1)));
+    bind(inputMap, KeyStroke.getKeyStroke(KeyEvent.VK_HOME, 0), "home", () -> {
+      follow = false;
+      jumpTo(0);
+    });
+    bind(inputMap, KeyStroke.getKeyStroke(KeyEvent.VK_END, 0), "end", () -> jumpTo(lastPageTop()));
+    bind(inputMap, KeyStroke.getKeyStroke(KeyEvent.VK_F4, 0), "hex", () -> {
+      hex = !hex;
+      jumpTo(top);
+    });
+    bind(inputMap, KeyStroke.getKeyStroke(KeyEvent.VK_F, 0), "follow", () -> {
+      follow = !follow;
+      if (follow) {
+        jumpTo(lastPageTop());
+      }
+      updateStatus();
+    });
+    bind(inputMap, KeyStroke.getKeyStroke(KeyEvent.VK_G, InputEvent.CTRL_DOWN_MASK), "goTo",
+        this::promptGoTo);
+    bind(inputMap, KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0), "close", this::dispose);
+    bind(inputMap, KeyStroke.getKeyStroke(KeyEvent.VK_F3, 0), "close", this::dispose);
+    bind(inputMap, KeyStroke.getKeyStroke(KeyEvent.VK_F10, 0), "close", this::dispose);
+  }
+
+  private void bind(InputMap inputMap, KeyStroke key, String name, Runnable action) {
+    inputMap.put(key, name);
+    getRootPane().getActionMap().put(name, new AbstractAction() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        action.run();
+      }
+    });
+  }
+
+  /**
+   * Asks for a line number, a byte offset written as @1234 or 0x4d2, or a percentage of the
+   * file, and moves there.
+   */
+  private void promptGoTo() {
+    String input = JOptionPane.showInputDialog(this,
+        "Go to line, @offset, 0xoffset or percent%:", "Go To", JOptionPane.QUESTION_MESSAGE);
+    if (input == null || input.isBlank()) {
+      return;
+    }
+    input = input.strip();
+    follow = false;
+    try {
+      if (input.endsWith("%")) {
+        double percent = Double.parseDouble(input.substring(0, input.length() - 1));
+        jumpTo((long) (Math.max(0, Math.min(100, percent)) / 100 * file.size()));
+      } else if (input.startsWith("@")) {
+        jumpTo(Long.parseLong(input.substring(1)));
+      } else if (input.startsWith("0x") || input.startsWith("0X")) {
+        jumpTo(Long.parseLong(input.substring(2), 16));
+      } else {
+        long line = Long.parseLong(input);
+        long offset = file.offsetOfLine(Math.max(0, line - 1));
+        if (offset < 0) {
+          JOptionPane.showMessageDialog(this, "Line " + line + " has not been indexed yet ("
+              + String.format("%,d", file.getIndexedLines()) + " lines so far)", "Go To",
+              JOptionPane.INFORMATION_MESSAGE);
+          return;
+        }
+        jumpTo(offset);
+      }
+    } catch (NumberFormatException e) {
+      JOptionPane.showMessageDialog(this, "Not a line, offset or percentage: " + input, "Go To",
+          JOptionPane.ERROR_MESSAGE);
+    } catch (IOException e) {
+      showError(e);
+    }
+  }
+
+  private void refresh() {
+    try {
+      if (file.refresh() && follow) {
+        jumpTo(lastPageTop());
+        return;
+      }
+    } catch (IOException e) {
+      refreshTimer.stop();
+      showError(e);
+      return;
+    }
+    updateStatus();
+  }
+
+  private void scrollLines(int lines) {
+    try {
+      long offset = top;
+      for (int i = 0; i < lines && offset < file.size(); i++) {
+        offset = hex ? offset + HEX_ROW_BYTES : file.nextLine(offset, page.getWrap());
+      }
+      for (int i = 0; i > lines && offset > 0; i--) {
+        offset = hex ? offset - HEX_ROW_BYTES : file.previousLine(offset, page.getWrap());
+      }
+      if (lines < 0) {
+        follow = false;
+      } else if (file.size() - offset < (long) page.getRows() * (page.getWrap() + 1)) {
+        offset = Math.min(offset, lastPageTop());
+      }
+      setTop(offset);
+    } catch (IOException e) {
+      showError(e);
+    }
+  }
+
+  private void jumpTo(long offset) {
+    try {
+      offset = Math.max(0, Math.min(offset, file.size()));
+      setTop(hex ? offset / HEX_ROW_BYTES * HEX_ROW_BYTES : file.lineStart(offset, page.getWrap()));
+    } catch (IOException e) {
+      showError(e);
+    }
+  }
+
+  // The top row that puts the end of the file at the bottom of the window.
+  private long lastPageTop() {
+    long size = file.size();
+    if (hex) {
+      long rows = (size + HEX_ROW_BYTES - 1) / HEX_ROW_BYTES;
+      return Math.max(0, rows - page.getRows()) * HEX_ROW_BYTES;
+    }
+    try {
+      long offset = size;
+      for (int i = 0; i < page.getRows() && offset > 0; i++) {
+        offset = file.previousLine(offset, page.getWrap());
+      }
+      return offset;
+    } catch (IOException e) {
+      return top;
+    }
+  }
+
+  private void setTop(long offset) {
+    top = offset;
+    long size = file.size();
+    updatingScrollBar = true;
+    int visible = size > 0 ? (int) Math.min(SCROLL_RANGE,
+        Math.max(1, (long) page.getRows() * page.getWrap() * SCROLL_RANGE / size)) : SCROLL_RANGE;
+    scrollBar.setValues(size > 0 ? (int) (top / (double) size * SCROLL_RANGE) : 0, visible, 0,
+        SCROLL_RANGE);
+    scrollBar.setBlockIncrement(visible);
+    updatingScrollBar = false;
+    page.repaint();
+    updateStatus();
+  }
+
+  private void updateStatus() {
+    long size = file.size();
+    StringBuilder status = new StringBuilder();
+    try {
+      long line = file.lineAt(top);
+      status.append(line >= 0 ? String.format("Line %,d", line + 1) : "Line ?");
+    } catch (IOException e) {
+      status.append("Line ?");
+    }
+    if (file.isIndexed()) {
+      status.append(String.format(" of %,d", file.getIndexedLines() + 1));
+    } else {
+      status.append(String.format(" (indexing %d%%)",
+          size > 0 ? file.getIndexedBytes() * 100 / size : 100));
+    }
+    status.append(String.format("   Offset %,d of %,d", top, size));
+    status.append(hex ? "   Hex" : "   Text");
+    if (follow) {
+      status.append("   Following");
+    }
+    status.append("   F4 hex, F follow, Ctrl+G go to, Esc close");
+    statusBar.setText(status.toString());
+  }
+
+  private void showError(IOException e) {
+    JOptionPane.showMessageDialog(this, e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+  }
+
+  private class PageView extends JComponent {
+
+    int getRows() {
+      int lineHeight = getFontMetrics(getFont()).getHeight();
+      return Math.max(1, getHeight() / lineHeight);
+    }
+
+    // Bytes per row of text before a long line wraps.
+    int getWrap() {
+      int charWidth = getFontMetrics(getFont()).charWidth('m');
+      return Math.max(16, (getWidth() - 10) / charWidth);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+      g.setColor(getBackground());
+      g.fillRect(0, 0, getWidth(), getHeight());
+      g.setFont(getFont());
+      FontMetrics metrics = g.getFontMetrics();
+      int rows = getRows() + 1;
+      int rowBytes = hex ? HEX_ROW_BYTES : getWrap() + 1;
+      if (pageBytes.length < rows * rowBytes) {
+        pageBytes = new byte[rows * rowBytes];
+      }
+      int length;
+      try {
+        length = file.read(top, pageBytes, rows * rowBytes);
+      } catch (IOException e) {
+        return;
+      }
+
+      int y = metrics.getAscent();
+      int position = 0;
+      for (int row = 0; row < rows && position < length; row++) {
+        if (hex) {
+          int end = Math.min(length, position + HEX_ROW_BYTES);
+          g.setColor(OFFSET_FOREGROUND);
+          String offset = String.format("%010x  ", top + position);
+          g.drawString(offset, 5, y);
+          g.setColor(getForeground());
+          g.drawString(hexRow(pageBytes, position, end), 5 + metrics.stringWidth(offset), y);
+          position = end;
+        } else {
+          int end = PagedFile.lineEnd(pageBytes, position, length, getWrap());
+          g.setColor(getForeground());
+          g.drawString(textRow(pageBytes, position, end), 5, y);
+          position = end < length && pageBytes[end] == '\n' ? end + 1 : end;
+        }
+        y += metrics.getHeight();
+      }
+    }
+  }
+
+  private static String hexRow(byte[] bytes, int from, int to) {
+    StringBuilder row = new StringBuilder(HEX_ROW_BYTES * 4 + 2);
+    for (int i = from; i < from + HEX_ROW_BYTES; i++) {
+      row.append(i < to ? String.format("%02x ", bytes[i] & 0xff) : "   ");
+      if (i == from + HEX_ROW_BYTES / 2 - 1) {
+        row.append(' ');
+      }
+    }
+    row.append(' ');
+    for (int i = from; i < to; i++) {
+      int b = bytes[i] & 0xff;
+      row.append(b >= 0x20 && b < 0x7f ? (char) b : '.');
+    }
+    return row.toString();
+  }
+
+  private static String textRow(byte[] bytes, int from, int to) {
+    String text = new String(bytes, from, to - from, StandardCharsets.UTF_8);
+    StringBuilder row = new StringBuilder(text.length());
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (c == '\t') {
+        do {
+          row.append(' ');
+        } while (row.length() % TAB_WIDTH != 0);
+      } else if (c == '\r' && i == text.length() - 1) {
+        break;
+      } else {
+        row.append(Character.isISOControl(c) ? '.' : c);
+      }
+    }
+    return row.toString();
+  }
+}
@@ -0,0 +1,42 @@
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.swing.Icon;
+import javax.swing.UIManager;
+import javax.swing.filechooser.FileSystemView;
+
+public class IconCache {
+
+  private static final int MAX_EXTENSIONS = 256;
+
+  private final Icon directoryIcon = UIManager.getIcon("FileView.directoryIcon");
+  private final Icon fileIcon = UIManager.getIcon("FileView.fileIcon");
+  private final FileSystemView fileSystemView = FileSystemView.getFileSystemView();
+
+  private final Map<String, Icon> extensionIcons =
+      new LinkedHashMap<String, Icon>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Icon> eldest) {
+          return size() > MAX_EXTENSIONS;
+        }
+      };
+
+  public Icon getDirectoryIcon() {
+    return directoryIcon;
+  }
+
+  public Icon getFileIcon(String extension, String directory, String name) {
+    if (extension.isEmpty()) {
+      return fileIcon;
+    }
+    Icon icon = extensionIcons.get(extension);
+    if (icon == null) {
+      icon = fileSystemView.getSystemIcon(new File(directory, name));
+      if (icon == null) {
+        icon = fileIcon;
+      }
+      extensionIcons.put(extension, icon);
+    }
+    return icon;
+  }
+}
@@ -0,0 +1,91 @@
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+public class Job {
+
+  public enum State {
+    QUEUED, RUNNING, FINISHED, CANCELLED
+  }
+
+  private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+  private final int id = NEXT_ID.incrementAndGet();
+  private final String description;
+  private final Path devicePath;
+  private final List<Path> scanRoots;
+  private final Function<OperationProgress, OperationResult> task;
+  private final Consumer<Job> completion;
+  private final OperationProgress progress = new OperationProgress();
+
+  private volatile State state = State.QUEUED;
+  private volatile OperationResult result;
+
+  public Job(String description, Path devicePath, List<Path> scanRoots,
+      Function<OperationProgress, OperationResult> task, Consumer<Job> completion) {
+    this.description = description;
+    this.devicePath = devicePath;
+    this.scanRoots = scanRoots;
+    this.task = task;
+    this.completion = completion;
+  }
+
+  void start() {
+    state = State.RUNNING;
+    progress.start();
+  }
+
+  void run() {
+    result = task.apply(progress);
+  }
+
+  void finish(OperationResult result) {
+    if (result != null) {
+      this.result = result;
+    }
+    state = progress.isCancelled() ? State.CANCELLED : State.FINISHED;
+    completion.accept(this);
+  }
+
+  public void cancel() {
+    progress.cancel();
+  }
+
+  public void pause() {
+    progress.pause();
+  }
+
+  public void resume() {
+    progress.resume();
+  }
+
+  public int getId() {
+    return id;
+  }
+
+  public String getDescription() {
+    return description;
+  }
+
+  public Path getDevicePath() {
+    return devicePath;
+  }
+
+  public List<Path> getScanRoots() {
+    return scanRoots;
+  }
+
+  public OperationProgress getProgress() {
+    return progress;
+  }
+
+  public State getState() {
+    return state;
+  }
+
+  public OperationResult getResult() {
+    return result;
+  }
+}
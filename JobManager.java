@@ -0,0 +1,181 @@
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class JobManager {
+
+  // Jobs beyond the per-device limit wait here rather than holding a pool thread.
+  private static final class Device {
+
+    final Deque<Job> waiting = new ArrayDeque<>();
+    int running;
+  }
+
+  private final int perDeviceLimit;
+  private final int queueCapacity;
+  private final ThreadPoolExecutor executor;
+  private final ExecutorService scanExecutor =
+      Executors.newSingleThreadExecutor(Model.daemonThreadFactory("dpfm-job-scan"));
+  private final Map<String, Device> devices = new HashMap<>();
+  // Jobs waiting in a device queue; guarded by devices.
+  private int parked;
+  private final List<Job> jobs = new CopyOnWriteArrayList<>();
+
+  public JobManager(int maxConcurrentJobs, int perDeviceLimit, int queueCapacity) {
+    this.perDeviceLimit = perDeviceLimit;
+    this.queueCapacity = queueCapacity;
+    this.executor = new ThreadPoolExecutor(maxConcurrentJobs, maxConcurrentJobs, 0,
+        TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity),
+        Model.daemonThreadFactory("dpfm-job"));
+  }
+
+  // Jobs waiting for their device count against the capacity as well as those not yet dispatched.
+  public boolean submit(Job job) {
+    synchronized (devices) {
+      if (parked + executor.getQueue().size() >= queueCapacity) {
+        return false;
+      }
+    }
+    jobs.add(job);
+    try {
+      executor.execute(() -> dispatch(job));
+      return true;
+    } catch (RejectedExecutionException e) {
+      jobs.remove(job);
+      return false;
+    }
+  }
+
+  public List<Job> getJobs() {
+    return List.copyOf(jobs);
+  }
+
+  // A job still waiting for its device is finished at once instead of when its turn comes.
+  public void cancel(Job job) {
+    job.cancel();
+    boolean removed = false;
+    synchronized (devices) {
+      for (Device state : devices.values()) {
+        if (state.waiting.remove(job)) {
+          parked--;
+          removed = true;
+          break;
+        }
+      }
+    }
+    if (removed) {
+      jobs.remove(job);
+      job.finish(null);
+    }
+  }
+
+  // Runs the job if its device has a free slot, and then the jobs that queued up behind it.
+  private void dispatch(Job job) {
+    String device = deviceOf(job.getDevicePath());
+    synchronized (devices) {
+      // Checked under the lock so that cancel either sees the job parked or it never parks.
+      if (job.getProgress().isCancelled()) {
+        jobs.remove(job);
+        job.finish(null);
+        return;
+      }
+      Device state = devices.computeIfAbsent(device, key -> new Device());
+      if (state.running >= perDeviceLimit) {
+        state.waiting.add(job);
+        parked++;
+        return;
+      }
+      state.running++;
+    }
+    for (Job next = job; next != null; next = next(device)) {
+      run(next);
+    }
+  }
+
+  // Hands the finished job's slot to the next waiting job, or frees it.
+  private Job next(String device) {
+    synchronized (devices) {
+      Device state = devices.get(device);
+      Job next = state.waiting.poll();
+      if (next != null) {
+        parked--;
+      } else if (--state.running == 0) {
+        devices.remove(device);
+      }
+      return next;
+    }
+  }
+
+  private void run(Job job) {
+    OperationResult failure = null;
+    try {
+      if (!job.getProgress().isCancelled()) {
+        job.start();
+        scanExecutor.execute(() -> scanTotals(job));
+        job.run();
+      }
+    } catch (RuntimeException e) {
+      failure = OperationResult.failure(job.getDevicePath(), e);
+    } finally {
+      jobs.remove(job);
+      job.finish(failure);
+    }
+  }
+
+  private static String deviceOf(Path path) {
+    Path existing = path.toAbsolutePath();
+    while (existing != null && !Files.exists(existing)) {
+      existing = existing.getParent();
+    }
+    try {
+      return existing != null ? Files.getFileStore(existing).toString() : "";
+    } catch (IOException e) {
+      return "";
+    }
+  }
+
+  private static void scanTotals(Job job) {
+    OperationProgress progress = job.getProgress();
+    long[] totals = new long[2];
+
+    for (Path root : job.getScanRoots()) {
+      try {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+            totals[0] += attributes.size();
+            totals[1]++;
+            return job.getState() == Job.State.RUNNING && !progress.isCancelled()
+                ? FileVisitResult.CONTINUE : FileVisitResult.TERMINATE;
+          }
+
+          @Override
+          public FileVisitResult visitFileFailed(Path file, IOException e) {
+            return FileVisitResult.CONTINUE;
+          }
+        });
+      } catch (IOException e) {
+        return;
+      }
+    }
+
+    if (job.getState() == Job.State.RUNNING) {
+      progress.setTotals(totals[0], totals[1]);
+    }
+  }
+}
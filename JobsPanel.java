@@ -0,0 +1,139 @@
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.FlowLayout;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.swing.BorderFactory;
+import javax.swing.BoxLayout;
+import javax.swing.JButton;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.Timer;
+
+public class JobsPanel extends JPanel {
+
+  private static final int REFRESH_INTERVAL_MS = 250;
+
+  private final JobManager jobManager;
+  private final Map<Job, JobRow> rows = new LinkedHashMap<>();
+
+  public JobsPanel(JobManager jobManager) {
+    this.jobManager = jobManager;
+    setLayout(new BoxLayout(this, BoxLayout.Y_AXIS));
+    setBackground(Color.BLUE);
+    setBorder(BorderFactory.createEmptyBorder(0, 5, 0, 5));
+    setVisible(false);
+
+    new Timer(REFRESH_INTERVAL_MS, e -> refresh()).start();
+  }
+
+  private void refresh() {
+    List<Job> jobs = jobManager.getJobs();
+    if (!rows.keySet().equals(new HashSet<>(jobs))) {
+      for (Job job : new ArrayList<>(rows.keySet())) {
+        if (!jobs.contains(job)) {
+          remove(rows.remove(job));
+        }
+      }
+      for (Job job : jobs) {
+        if (!rows.containsKey(job)) {
+          JobRow row = new JobRow(job, jobManager);
+          rows.put(job, row);
+          add(row);
+        }
+      }
+      setVisible(!rows.isEmpty());
+      revalidate();
+      repaint();
+    }
+
+    for (JobRow row : rows.values()) {
+      row.update();
+    }
+  }
+
+  static String describe(Job job) {
+    OperationProgress progress = job.getProgress();
+    StringBuilder text = new StringBuilder(job.getDescription()).append(": ");
+
+    if (job.getState() == Job.State.QUEUED) {
+      return text.append("queued").toString();
+    }
+    if (progress.isPaused()) {
+      text.append("paused, ");
+    }
+
+    long totalBytes = progress.getTotalBytes();
+    if (totalBytes > 0) {
+      long percent = Math.min(100, progress.getBytesDone() * 100 / totalBytes);
+      text.append(percent).append("% of ").append(FileTableModel.formatFileSize(totalBytes));
+    } else {
+      text.append(FileTableModel.formatFileSize(progress.getBytesDone()));
+    }
+    text.append(", ").append(progress.getFilesDone()).append(" files, ")
+        .append(FileTableModel.formatFileSize((long) progress.getBytesPerSecond())).append("/s");
+
+    long eta = progress.getEtaSeconds();
+    if (eta >= 0 && !progress.isPaused()) {
+      text.append(String.format(", ETA %d:%02d", eta / 60, eta % 60));
+    }
+
+    String currentFile = progress.getCurrentFile();
+    if (!currentFile.isEmpty()) {
+      text.append(" - ").append(currentFile);
+    }
+    return text.toString();
+  }
+
+  private static class JobRow extends JPanel {
+
+    private final Job job;
+    private final JLabel label = new JLabel();
+    private final JButton pauseButton = createButton("Pause");
+
+    JobRow(Job job, JobManager jobManager) {
+      super(new BorderLayout());
+      this.job = job;
+      setBackground(Color.BLUE);
+
+      label.setForeground(Color.WHITE);
+      add(label, BorderLayout.CENTER);
+
+      JButton cancelButton = createButton("Cancel");
+      pauseButton.addActionListener(e -> {
+        if (job.getProgress().isPaused()) {
+          job.resume();
+        } else {
+          job.pause();
+        }
+        update();
+      });
+      cancelButton.addActionListener(e -> jobManager.cancel(job));
+
+      JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT, 5, 0));
+      buttons.setBackground(Color.BLUE);
+      buttons.add(pauseButton);
+      buttons.add(cancelButton);
+      add(buttons, BorderLayout.EAST);
+      update();
+    }
+
+    private static JButton createButton(String text) {
+      JButton button = new JButton(text);
+      button.setBackground(Color.BLUE);
+      button.setForeground(Color.WHITE);
+      button.setOpaque(true);
+      button.setBorderPainted(false);
+      button.setFocusable(false);
+      return button;
+    }
+
+    void update() {
+      label.setText(describe(job));
+      pauseButton.setText(job.getProgress().isPaused() ? "Resume" : "Pause");
+    }
+  }
+}
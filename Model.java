@@ -1,134 +1,386 @@
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.ClosedFileSystemException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
-import java.util.Arrays;
-import java.util.Comparator;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 public class Model {
 
-  public List<File> getDirectoryContents(String directoryPath) {
-    File directory = new File(directoryPath);
-    if (!directory.exists() || !directory.isDirectory()) {
-      return List.of();
-    }
+  private static final int LISTING_THREADS = 4;
+  private static final int STREAM_BATCH_ENTRIES = 2048;
+  private static final long STREAM_FLUSH_INTERVAL_NANOS = 16_000_000L;
 
-    File[] files = directory.listFiles();
-    if (files == null) {
-      return List.of();
-    }
+  public interface ListingListener {
 
-    return Arrays.stream(files)
-        .sorted(Comparator.comparing(File::isDirectory).reversed()
-            .thenComparing(File::getName, String.CASE_INSENSITIVE_ORDER))
-        .collect(Collectors.toList());
-  }
+    void entriesLoaded(List<FileEntry> batch);
 
-  public String getParentDirectory(String directoryPath) {
-    File directory = new File(directoryPath);
-    File parent = directory.getParentFile();
-    return parent != null ? parent.getAbsolutePath() : directoryPath;
+    void listingFinished(List<FileEntry> entries);
   }
 
-  public boolean copyFile(String sourcePath, String destinationPath) {
-    try {
-      Path source = Paths.get(sourcePath);
-      Path destination = Paths.get(destinationPath);
+  private final ExecutorService listingExecutor =
+      Executors.newFixedThreadPool(LISTING_THREADS, daemonThreadFactory("dpfm-listing"));
+  private final CopyEngine copyEngine = new CopyEngine(
+      Integer.getInteger("dpfm.copy.workers", 4),
+      Long.getLong("dpfm.copy.largeFileThreshold", 64L * 1024 * 1024),
+      Long.getLong("dpfm.copy.chunkSize", 16L * 1024 * 1024),
+      Boolean.getBoolean("dpfm.copy.verifyFromDisk"));
+  private final DeleteEngine deleteEngine =
+      new DeleteEngine(Integer.getInteger("dpfm.delete.workers", 4));
+  private final JobManager jobManager = new JobManager(
+      Integer.getInteger("dpfm.jobs.maxConcurrent", 4),
+      Integer.getInteger("dpfm.jobs.perDevice", 2),
+      Integer.getInteger("dpfm.jobs.queueCapacity", 64));
+  private final DirectoryCache directoryCache = new DirectoryCache(
+      Integer.getInteger("dpfm.cache.maxDirectories", 64),
+      Integer.getInteger("dpfm.cache.maxEntries", 500_000));
+  private final DirectorySizeCalculator directorySizeCalculator = new DirectorySizeCalculator(
+      Integer.getInteger("dpfm.sizes.parallelism", Runtime.getRuntime().availableProcessors()),
+      Integer.getInteger("dpfm.sizes.maxCachedDirectories", 200_000));
+  private final FileFinder fileFinder = new FileFinder(
+      Integer.getInteger("dpfm.find.parallelism", Runtime.getRuntime().availableProcessors()));
+  private final ContentSearcher contentSearcher = new ContentSearcher(fileFinder,
+      Integer.getInteger("dpfm.grep.parallelism", Runtime.getRuntime().availableProcessors()),
+      Integer.getInteger("dpfm.grep.windowSize", 64 * 1024 * 1024),
+      Integer.getInteger("dpfm.grep.maxHits", 10_000));
+  private final DirectoryComparator directoryComparator = new DirectoryComparator(
+      Integer.getInteger("dpfm.compare.workers", Runtime.getRuntime().availableProcessors()),
+      Integer.getInteger("dpfm.compare.maxCachedHashes", 200_000));
+  private final PreviewLoader previewLoader = new PreviewLoader(
+      Long.getLong("dpfm.preview.cacheBytes", 64L * 1024 * 1024),
+      System.getProperty("dpfm.preview.diskCache") != null
+          ? Paths.get(System.getProperty("dpfm.preview.diskCache")) : null);
+  private final Packer packer = new Packer(
+      Integer.getInteger("dpfm.pack.workers", Runtime.getRuntime().availableProcessors()),
+      Integer.getInteger("dpfm.pack.blockSize", 128 * 1024),
+      Integer.getInteger("dpfm.pack.level", 6));
+  private final Archives archives = new Archives();
+  private final Trash trash = new Trash(
+      Long.getLong("dpfm.trash.maxAgeSeconds", 600L) * 1000,
+      Long.getLong("dpfm.trash.maxSize", 10L * 1024 * 1024 * 1024));
 
-      File destFile = destination.toFile();
-      if (destFile.isDirectory()) {
-        destination = destination.resolve(source.getFileName());
+  public JobManager getJobManager() {
+    return jobManager;
+  }
+
+  public Future<?> loadDirectoryContents(String directoryPath,
+      Consumer<List<FileEntry>> callback) {
+    return listingExecutor.submit(() -> {
+      List<FileEntry> entries = getDirectoryContents(directoryPath);
+      if (!Thread.currentThread().isInterrupted()) {
+        callback.accept(entries);
       }
+    });
+  }
 
-      if (Files.isDirectory(source)) {
-        return copyDirectory(source.toFile(), destination.toFile());
-      } else {
-        Files.copy(source, destination, StandardCopyOption.REPLACE_EXISTING);
-        return true;
+  public Future<?> streamDirectoryContents(String directoryPath, ListingListener listener) {
+    return listingExecutor.submit(() -> {
+      List<FileEntry> entries = readDirectory(directoryPath, listener);
+      if (!Thread.currentThread().isInterrupted()) {
+        listener.listingFinished(entries);
       }
-    } catch (IOException e) {
-      e.printStackTrace();
-      return false;
+    });
+  }
+
+  public List<FileEntry> getCachedDirectoryContents(String directoryPath) {
+    if (!Archives.isInArchive(directoryPath)) {
+      return directoryCache.get(DirectoryCache.key(directoryPath));
     }
+    // Called on the EDT, so an archive that is not open yet is left to the listing thread.
+    Path directory = archives.resolveIfOpen(directoryPath);
+    return directory != null ? directoryCache.get(directory) : null;
   }
 
-  private boolean copyDirectory(File sourceDir, File destDir) {
-    try {
-      if (!destDir.exists()) {
-        destDir.mkdir();
+  public Future<?> revalidateDirectoryContents(String directoryPath,
+      Consumer<List<FileEntry>> changedCallback) {
+    return listingExecutor.submit(() -> {
+      // Archives are not watched, but listing one again is only a walk over its index.
+      if (!Archives.isInArchive(directoryPath)
+          && directoryCache.isValid(DirectoryCache.key(directoryPath))) {
+        return;
       }
-
-      File[] files = sourceDir.listFiles();
-      if (files == null) {
-        return true;
+      List<FileEntry> entries = readDirectory(directoryPath, null);
+      if (!Thread.currentThread().isInterrupted()) {
+        changedCallback.accept(entries);
       }
+    });
+  }
+
+  public void setDirectoryChangeListener(Consumer<Path> listener) {
+    directoryCache.setChangeListener(listener);
+  }
+
+  public static boolean isSameDirectory(String directoryPath, Path directory) {
+    return directoryPath != null && DirectoryCache.key(directoryPath).equals(directory);
+  }
+
+  public List<FileEntry> getDirectoryContents(String directoryPath) {
+    return readDirectory(directoryPath, null);
+  }
 
-      for (File file : files) {
-        File destFile = new File(destDir, file.getName());
-        if (file.isDirectory()) {
-          copyDirectory(file, destFile);
-        } else {
-          Files.copy(file.toPath(), destFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  // Resolves a panel path, which may be inside an archive.
+  public Path toPath(String path) {
+    return archives.resolve(path);
+  }
+
+  public boolean isDirectory(String path) {
+    return Files.isDirectory(toPath(path));
+  }
+
+  private Path directoryKey(String directoryPath) {
+    return Archives.isInArchive(directoryPath) ? archives.resolve(directoryPath)
+        : DirectoryCache.key(directoryPath);
+  }
+
+  private List<FileEntry> readDirectory(String directoryPath, ListingListener listener) {
+    Path directory = directoryKey(directoryPath);
+    List<FileEntry> entries = new ArrayList<>();
+    List<FileEntry> batch = new ArrayList<>();
+    long lastFlush = System.nanoTime();
+    long directoryModified;
+
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+      directoryModified = Files.getLastModifiedTime(directory).toMillis();
+      for (Path path : stream) {
+        if (Thread.currentThread().isInterrupted()) {
+          return List.of();
+        }
+        FileEntry entry;
+        try {
+          entry = FileEntry.read(path);
+        } catch (IOException e) {
+          // The entry vanished or cannot be read between listing and stat; skip it.
+          continue;
+        }
+        entries.add(entry);
+
+        if (listener != null) {
+          batch.add(entry);
+          long now = System.nanoTime();
+          boolean due = batch.size() >= STREAM_BATCH_ENTRIES
+              || now - lastFlush >= STREAM_FLUSH_INTERVAL_NANOS;
+          // Batches grow with the listing so that merging them stays linear overall.
+          if (due && batch.size() >= (entries.size() - batch.size()) / 4) {
+            flushBatch(batch, listener);
+            batch = new ArrayList<>();
+            lastFlush = now;
+          }
         }
       }
-      return true;
-    } catch (IOException e) {
-      e.printStackTrace();
-      return false;
+    } catch (IOException | DirectoryIteratorException | ClosedFileSystemException e) {
+      directoryCache.invalidate(directory);
+      return List.of();
     }
-  }
 
-  public boolean moveFile(String sourcePath, String destinationPath) {
-    try {
-      Path source = Paths.get(sourcePath);
-      Path destination = Paths.get(destinationPath);
+    if (listener != null && !batch.isEmpty()) {
+      flushBatch(batch, listener);
+    }
 
-      File destFile = destination.toFile();
-      if (destFile.isDirectory()) {
-        destination = destination.resolve(source.getFileName());
-      }
+    entries.sort(FileEntry.DIRECTORIES_FIRST);
+    directoryCache.put(directory, entries, directoryModified);
+    return entries;
+  }
 
-      Files.move(source, destination, StandardCopyOption.REPLACE_EXISTING);
-      return true;
-    } catch (IOException e) {
-      e.printStackTrace();
-      return false;
+  private static void flushBatch(List<FileEntry> batch, ListingListener listener) {
+    batch.sort(FileEntry.DIRECTORIES_FIRST);
+    listener.entriesLoaded(batch);
+  }
+
+  public Future<?> calculateDirectorySizes(String parentPath, List<String> directoryNames,
+      BiConsumer<String, DirectorySizeCalculator.Total> listener) {
+    Path parent = toPath(parentPath);
+    List<Path> directories = new ArrayList<>(directoryNames.size());
+    for (String name : directoryNames) {
+      directories.add(parent.resolve(name));
     }
+    return directorySizeCalculator.calculate(directories,
+        (directory, total) -> listener.accept(parent.relativize(directory).toString(), total));
   }
 
-  public boolean deleteFile(String path) {
-    try {
-      File file = new File(path);
-      if (file.isDirectory()) {
-        return deleteDirectory(file);
-      } else {
-        return file.delete();
+  public Future<?> findFiles(String rootPath, FileFinder.Criteria criteria,
+      FileFinder.Listener listener) {
+    return fileFinder.find(toPath(rootPath), criteria, listener);
+  }
+
+  public Future<?> searchContents(String rootPath, FileFinder.Criteria criteria,
+      ContentSearcher.Query query, ContentSearcher.Listener listener) {
+    return contentSearcher.search(toPath(rootPath), criteria, query, listener);
+  }
+
+  public Future<?> compareDirectories(String leftPath, String rightPath, boolean recursive,
+      Consumer<DirectoryComparator.Result> callback) {
+    return directoryComparator.compare(toPath(leftPath), toPath(rightPath), recursive, callback);
+  }
+
+  public Future<?> loadPreview(String directoryPath, String name, FileEntry.Kind kind, long size,
+      long lastModified, Consumer<PreviewLoader.Preview> callback) {
+    return previewLoader.load(toPath(directoryPath).resolve(name), kind, size, lastModified,
+        callback);
+  }
+
+  // Copies each difference from the side that has it, or has it newer; conflicts are skipped.
+  public OperationResult synchronize(String leftPath, String rightPath,
+      List<DirectoryComparator.Difference> differences, OperationProgress progress) {
+    List<String> both = List.of(leftPath, rightPath);
+    return archives.use(both, both, () -> copyDifferences(leftPath, rightPath, differences,
+        progress));
+  }
+
+  private OperationResult copyDifferences(String leftPath, String rightPath,
+      List<DirectoryComparator.Difference> differences, OperationProgress progress) {
+    Path left = toPath(leftPath);
+    Path right = toPath(rightPath);
+    List<Path> sources = new ArrayList<>();
+    List<Path> destinations = new ArrayList<>();
+    for (DirectoryComparator.Difference difference : differences) {
+      switch (difference.getStatus()) {
+        case LEFT_ONLY:
+        case LEFT_NEWER:
+          sources.add(left.resolve(difference.getPath()));
+          destinations.add(right.resolve(difference.getPath()));
+          break;
+        case RIGHT_ONLY:
+        case RIGHT_NEWER:
+          sources.add(right.resolve(difference.getPath()));
+          destinations.add(left.resolve(difference.getPath()));
+          break;
+        default:
+          break;
       }
-    } catch (Exception e) {
-      e.printStackTrace();
-      return false;
     }
+    return copyEngine.copy(sources, destinations, progress);
   }
 
-  private boolean deleteDirectory(File directory) {
-    File[] files = directory.listFiles();
-    if (files != null) {
-      for (File file : files) {
-        if (file.isDirectory()) {
-          deleteDirectory(file);
-        } else {
-          file.delete();
+  // Re-reads entries named relative to a root, dropping the ones that no longer exist.
+  public Future<?> rereadEntries(String rootPath, List<String> names,
+      Consumer<List<FileEntry>> callback) {
+    return listingExecutor.submit(() -> {
+      Path root = toPath(rootPath);
+      List<FileEntry> entries = new ArrayList<>(names.size());
+      for (String name : names) {
+        if (Thread.currentThread().isInterrupted()) {
+          return;
+        }
+        try {
+          entries.add(FileEntry.read(root.resolve(name), name));
+        } catch (IOException e) {
+          // Moved or deleted since it was found.
         }
       }
+      entries.sort(FileEntry.DIRECTORIES_FIRST);
+      callback.accept(entries);
+    });
+  }
+
+  public String getParentDirectory(String directoryPath) {
+    File directory = new File(directoryPath);
+    File parent = directory.getParentFile();
+    return parent != null ? parent.getAbsolutePath() : directoryPath;
+  }
+
+  public OperationResult copyFile(String sourcePath, String destinationPath) {
+    return copyFile(sourcePath, destinationPath, new OperationProgress());
+  }
+
+  public OperationResult copyFile(String sourcePath, String destinationPath,
+      OperationProgress progress) {
+    return copyFiles(List.of(sourcePath), destinationPath, progress);
+  }
+
+  public OperationResult moveFile(String sourcePath, String destinationPath,
+      OperationProgress progress) {
+    return moveFiles(List.of(sourcePath), destinationPath, progress);
+  }
+
+  public OperationResult copyFiles(List<String> sourcePaths, String destinationPath,
+      OperationProgress progress) {
+    return copyFiles(sourcePaths, destinationPath, false, progress);
+  }
+
+  public OperationResult copyFiles(List<String> sourcePaths, String destinationPath,
+      boolean verify, OperationProgress progress) {
+    return archives.use(sourcePaths, List.of(destinationPath),
+        () -> copyEngine.copy(toPaths(sourcePaths), resolveTargets(sourcePaths, destinationPath),
+            verify, progress));
+  }
+
+  public OperationResult moveFiles(List<String> sourcePaths, String destinationPath,
+      OperationProgress progress) {
+    List<String> changed = new ArrayList<>(sourcePaths);
+    changed.add(destinationPath);
+    return archives.use(List.of(), changed,
+        () -> copyEngine.move(toPaths(sourcePaths), resolveTargets(sourcePaths, destinationPath),
+            progress));
+  }
+
+  public OperationResult packFiles(List<String> sourcePaths, String archivePath,
+      Packer.Format format, OperationProgress progress) {
+    return archives.use(sourcePaths, List.of(archivePath),
+        () -> packer.pack(toPaths(sourcePaths), toPath(archivePath), format, progress));
+  }
+
+  public OperationResult deleteFile(String path, OperationProgress progress) {
+    return deleteFiles(List.of(path), false, progress);
+  }
+
+  public OperationResult deleteFiles(List<String> paths, boolean useTrash,
+      OperationProgress progress) {
+    return archives.use(List.of(), paths,
+        () -> useTrash ? trash.moveToTrash(toPaths(paths), progress)
+            : deleteEngine.delete(toPaths(paths), progress));
+  }
+
+  public List<Trash.Entry> getLastTrashed() {
+    return trash.getLatestEntries();
+  }
+
+  public OperationResult restoreFromTrash(List<Trash.Entry> entries, OperationProgress progress) {
+    return trash.restore(entries, progress);
+  }
+
+  private List<Path> toPaths(List<String> paths) {
+    List<Path> result = new ArrayList<>(paths.size());
+    for (String path : paths) {
+      result.add(toPath(path));
     }
-    return directory.delete();
+    return result;
+  }
+
+  // Sources land inside an existing target directory; a single source may also be renamed.
+  private List<Path> resolveTargets(List<String> sourcePaths, String destinationPath) {
+    Path destination = toPath(destinationPath);
+    boolean intoDirectory = sourcePaths.size() > 1 || Files.isDirectory(destination);
+    List<Path> targets = new ArrayList<>(sourcePaths.size());
+    for (String sourcePath : sourcePaths) {
+      // Names are taken as strings, as the source may be in another kind of file system.
+      targets.add(intoDirectory
+          ? destination.resolve(toPath(sourcePath).getFileName().toString()) : destination);
+    }
+    return targets;
   }
 
   public boolean createDirectory(String parentPath, String directoryName) {
+    if (Archives.isInArchive(parentPath)) {
+      return archives.use(List.of(), List.of(parentPath), () -> {
+        try {
+          Files.createDirectory(toPath(parentPath).resolve(directoryName));
+          return true;
+        } catch (IOException e) {
+          return false;
+        }
+      });
+    }
     try {
       File newDir = new File(parentPath, directoryName);
       return newDir.mkdir();
@@ -139,6 +391,11 @@ public class Model {
   }
 
   public boolean renameFile(String path, String newName) {
+    if (Archives.isInArchive(path)) {
+      // Zip file systems rename a directory without its entries, so they are moved one by one.
+      String target = new File(path).getParent() + File.separator + newName;
+      return moveFile(path, target, new OperationProgress()).isSuccess();
+    }
     try {
       File file = new File(path);
       File parent = file.getParentFile();
@@ -149,4 +406,18 @@ public class Model {
       return false;
     }
   }
+
+  static ThreadFactory daemonThreadFactory(String prefix) {
+    return daemonThreadFactory(prefix, Thread.NORM_PRIORITY);
+  }
+
+  static ThreadFactory daemonThreadFactory(String prefix, int priority) {
+    AtomicInteger counter = new AtomicInteger();
+    return runnable -> {
+      Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      thread.setPriority(priority);
+      return thread;
+    };
+  }
 }
@@ -0,0 +1,185 @@
+import java.util.Arrays;
+
+/**
+ * Case-folded copy of a listing's names stored back to back in one string, so that a filter
+ * runs as a few vectorized indexOf calls over contiguous memory instead of touching one String
+ * object per row.
+ */
+public class NameIndex {
+
+  private static final char SEPARATOR = '\n';
+
+  private final String text;
+  private final int[] offsets;
+  private final int count;
+
+  public NameIndex(String[] names, int count) {
+    StringBuilder builder = new StringBuilder(count * 16);
+    int[] starts = new int[count + 1];
+    for (int row = 0; row < count; row++) {
+      starts[row] = builder.length();
+      String name = names[row];
+      for (int i = 0; i < name.length(); i++) {
+        builder.append(fold(name.charAt(i)));
+      }
+      builder.append(SEPARATOR);
+    }
+    starts[count] = builder.length();
+    this.text = builder.toString();
+    this.offsets = starts;
+    this.count = count;
+  }
+
+  public static String fold(String query) {
+    StringBuilder folded = new StringBuilder(query.length());
+    for (int i = 0; i < query.length(); i++) {
+      folded.append(fold(query.charAt(i)));
+    }
+    return folded.toString();
+  }
+
+  private static char fold(char c) {
+    return c < 128 ? (c >= 'A' && c <= 'Z' ? (char) (c + 32) : c) : Character.toLowerCase(c);
+  }
+
+  public static boolean isGlob(String query) {
+    return query.indexOf('*') >= 0 || query.indexOf('?') >= 0;
+  }
+
+  /**
+   * Returns the rows, in ascending order, whose folded name matches the folded query. Only the
+   * given candidate rows are considered, or all rows when candidates is null.
+   */
+  public int[] find(String query, int[] candidates) {
+    if (!isGlob(query)) {
+      return findSubstring(query, candidates);
+    }
+
+    String literal = longestLiteral(query);
+    int[] rows = literal.isEmpty() ? candidates : findSubstring(literal, candidates);
+    int total = rows != null ? rows.length : count;
+    int[] matches = new int[total];
+    int found = 0;
+    for (int i = 0; i < total; i++) {
+      int row = rows != null ? rows[i] : i;
+      if (globMatches(query, text, offsets[row], offsets[row + 1] - 1)) {
+        matches[found++] = row;
+      }
+    }
+    return Arrays.copyOf(matches, found);
+  }
+
+  /**
+   * Checks rows one by one while they keep matching, and otherwise lets one vectorized indexOf
+   * skip every row up to the next match, so both dense and sparse results stay cheap.
+   */
+  private int[] findSubstring(String query, int[] candidates) {
+    int total = candidates != null ? candidates.length : count;
+    int[] matches = new int[total];
+    int found = 0;
+
+    boolean dense = true;
+    int i = 0;
+    while (i < total) {
+      int row = candidates != null ? candidates[i] : i;
+      if (dense) {
+        dense = rowContains(row, query);
+        if (!dense) {
+          i++;
+          continue;
+        }
+      } else {
+        int position = text.indexOf(query, offsets[row]);
+        if (position < 0) {
+          break;
+        }
+        int matchRow = rowAt(position, row);
+        if (candidates == null) {
+          i = matchRow;
+        } else {
+          while (i < total && candidates[i] < matchRow) {
+            i++;
+          }
+          if (i == total || candidates[i] != matchRow) {
+            continue;
+          }
+        }
+        row = matchRow;
+        dense = true;
+      }
+      matches[found++] = row;
+      i++;
+    }
+    return Arrays.copyOf(matches, found);
+  }
+
+  private boolean rowContains(int row, String query) {
+    char first = query.charAt(0);
+    int last = offsets[row + 1] - 1 - query.length();
+    for (int position = offsets[row]; position <= last; position++) {
+      if (text.charAt(position) == first && text.startsWith(query, position)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Matches are usually close to the row the search started from, so gallop forward from it.
+  private int rowAt(int position, int fromRow) {
+    int low = fromRow;
+    int step = 1;
+    while (low + step <= count && offsets[low + step] <= position) {
+      low += step;
+      step <<= 1;
+    }
+    int index = Arrays.binarySearch(offsets, low, Math.min(low + step, count + 1), position);
+    return index >= 0 ? index : -index - 2;
+  }
+
+  private static String longestLiteral(String pattern) {
+    String longest = "";
+    int start = 0;
+    for (int i = 0; i <= pattern.length(); i++) {
+      if (i == pattern.length() || pattern.charAt(i) == '*' || pattern.charAt(i) == '?') {
+        if (i - start > longest.length()) {
+          longest = pattern.substring(start, i);
+        }
+        start = i + 1;
+      }
+    }
+    return longest;
+  }
+
+  /**
+   * Matches a glob against text[start, end), anchored at the start with an implied trailing *,
+   * so that extending a pattern never matches more names.
+   */
+  static boolean globMatches(String pattern, String text, int start, int end) {
+    int p = 0;
+    int t = start;
+    int starP = -1;
+    int starT = start;
+    while (t < end) {
+      if (p == pattern.length()) {
+        return true;
+      }
+      char c = pattern.charAt(p);
+      if (c == '*') {
+        starP = p++;
+        starT = t;
+      } else if (c == '?' || c == text.charAt(t)) {
+        p++;
+        t++;
+      } else if (starP != -1) {
+        p = starP + 1;
+        t = ++starT;
+      } else {
+        return false;
+      }
+    }
+    while (p < pattern.length() && pattern.charAt(p) == '*') {
+      p++;
+    }
+    return p == pattern.length();
+  }
+}
@@ -0,0 +1,151 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+public class OperationProgress {
+
+  public interface Listener {
+
+    void bytesCopied(long bytesDone, double bytesPerSecond);
+  }
+
+  private final AtomicLong bytesDone = new AtomicLong();
+  private final AtomicLong filesDone = new AtomicLong();
+  private volatile long startNanos = System.nanoTime();
+  private volatile long totalBytes = -1;
+  private volatile long totalFiles = -1;
+  private volatile String currentFile = "";
+  private volatile boolean cancelled;
+  private volatile Listener listener;
+
+  private final Object pauseLock = new Object();
+  private boolean paused;
+  private long pausedSince;
+  private long pausedNanos;
+
+  public void setListener(Listener listener) {
+    this.listener = listener;
+  }
+
+  public void start() {
+    startNanos = System.nanoTime();
+  }
+
+  public void setTotals(long totalBytes, long totalFiles) {
+    this.totalBytes = totalBytes;
+    this.totalFiles = totalFiles;
+  }
+
+  public void addBytes(long bytes) {
+    long done = bytesDone.addAndGet(bytes);
+    Listener currentListener = listener;
+    if (currentListener != null) {
+      currentListener.bytesCopied(done, perSecond(done));
+    }
+  }
+
+  public void fileCompleted() {
+    filesDone.incrementAndGet();
+  }
+
+  public void setCurrentFile(String currentFile) {
+    this.currentFile = currentFile;
+  }
+
+  public void cancel() {
+    cancelled = true;
+    synchronized (pauseLock) {
+      pauseLock.notifyAll();
+    }
+  }
+
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  public void pause() {
+    synchronized (pauseLock) {
+      if (!paused) {
+        paused = true;
+        pausedSince = System.nanoTime();
+      }
+    }
+  }
+
+  public void resume() {
+    synchronized (pauseLock) {
+      if (paused) {
+        paused = false;
+        pausedNanos += System.nanoTime() - pausedSince;
+        pauseLock.notifyAll();
+      }
+    }
+  }
+
+  public boolean isPaused() {
+    synchronized (pauseLock) {
+      return paused;
+    }
+  }
+
+  public void awaitIfPaused() {
+    synchronized (pauseLock) {
+      while (paused && !cancelled) {
+        try {
+          pauseLock.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
+  public long getBytesDone() {
+    return bytesDone.get();
+  }
+
+  public long getFilesDone() {
+    return filesDone.get();
+  }
+
+  public long getTotalBytes() {
+    return totalBytes;
+  }
+
+  public long getTotalFiles() {
+    return totalFiles;
+  }
+
+  public String getCurrentFile() {
+    return currentFile;
+  }
+
+  public long getElapsedNanos() {
+    long now = System.nanoTime();
+    synchronized (pauseLock) {
+      long pausedTotal = pausedNanos + (paused ? now - pausedSince : 0);
+      return now - startNanos - pausedTotal;
+    }
+  }
+
+  public double getBytesPerSecond() {
+    return perSecond(bytesDone.get());
+  }
+
+  public double getFilesPerSecond() {
+    return perSecond(filesDone.get());
+  }
+
+  public long getEtaSeconds() {
+    double rate = getBytesPerSecond();
+    long remaining = totalBytes - bytesDone.get();
+    if (totalBytes < 0 || rate <= 0) {
+      return -1;
+    }
+    return (long) (Math.max(remaining, 0) / rate);
+  }
+
+  private double perSecond(long count) {
+    long elapsed = getElapsedNanos();
+    return elapsed > 0 ? count * 1e9 / elapsed : 0;
+  }
+}
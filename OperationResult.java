@@ -0,0 +1,111 @@
+import java.nio.file.Path;
+import java.util.List;
+
+public class OperationResult {
+
+  private static final int MAX_REPORTED_FAILURES = 10;
+
+  public static final class Failure {
+
+    private final Path path;
+    private final String reason;
+
+    public Failure(Path path, String reason) {
+      this.path = path;
+      this.reason = reason;
+    }
+
+    public Path getPath() {
+      return path;
+    }
+
+    public String getReason() {
+      return reason;
+    }
+
+    @Override
+    public String toString() {
+      return path + ": " + reason;
+    }
+  }
+
+  private final long files;
+  private final long bytes;
+  private final long elapsedNanos;
+  private final List<Failure> failures;
+
+  public OperationResult(long files, long bytes, long elapsedNanos, List<Failure> failures) {
+    this.files = files;
+    this.bytes = bytes;
+    this.elapsedNanos = elapsedNanos;
+    this.failures = List.copyOf(failures);
+  }
+
+  public static OperationResult of(OperationProgress progress, List<Failure> failures) {
+    return new OperationResult(progress.getFilesDone(), progress.getBytesDone(),
+        progress.getElapsedNanos(), failures);
+  }
+
+  public static OperationResult of(OperationProgress progress, boolean success, Path path) {
+    if (success) {
+      progress.fileCompleted();
+    }
+    return of(progress, success ? List.of() : List.of(new Failure(path, "Operation failed")));
+  }
+
+  public static OperationResult failure(Path path, Exception e) {
+    return new OperationResult(0, 0, 0, List.of(new Failure(path, reason(e))));
+  }
+
+  public static String reason(Exception e) {
+    String message = e.getMessage();
+    return message != null ? e.getClass().getSimpleName() + ": " + message
+        : e.getClass().getSimpleName();
+  }
+
+  public boolean isSuccess() {
+    return failures.isEmpty();
+  }
+
+  public long getFiles() {
+    return files;
+  }
+
+  public long getBytes() {
+    return bytes;
+  }
+
+  public long getElapsedNanos() {
+    return elapsedNanos;
+  }
+
+  public List<Failure> getFailures() {
+    return failures;
+  }
+
+  public double getBytesPerSecond() {
+    return elapsedNanos > 0 ? bytes * 1e9 / elapsedNanos : 0;
+  }
+
+  public double getFilesPerSecond() {
+    return elapsedNanos > 0 ? files * 1e9 / elapsedNanos : 0;
+  }
+
+  public String getSummary() {
+    return String.format("%d files, %s in %.1f s (%s/s, %.0f files/s)", files,
+        FileTableModel.formatFileSize(bytes), elapsedNanos / 1e9,
+        FileTableModel.formatFileSize((long) getBytesPerSecond()), getFilesPerSecond());
+  }
+
+  public String describeFailures() {
+    StringBuilder description = new StringBuilder();
+    for (int i = 0; i < failures.size() && i < MAX_REPORTED_FAILURES; i++) {
+      description.append(failures.get(i)).append('\n');
+    }
+    if (failures.size() > MAX_REPORTED_FAILURES) {
+      description.append("... and ").append(failures.size() - MAX_REPORTED_FAILURES)
+          .append(" more");
+    }
+    return description.toString().trim();
+  }
+}
@@ -0,0 +1,770 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Packs files into a zip or tar.gz archive on all workers at once. The data is cut into blocks
+ * that are deflated independently, each primed with the end of the block before it as pigz does,
+ * and written in order. Only a few blocks per worker are in flight, so memory stays bounded
+ * however large the input is.
+ */
+public class Packer {
+
+  public enum Format {
+    ZIP(".zip"), TAR_GZ(".tar.gz");
+
+    private final String suffix;
+
+    Format(String suffix) {
+      this.suffix = suffix;
+    }
+
+    public String getSuffix() {
+      return suffix;
+    }
+
+    @Override
+    public String toString() {
+      return suffix;
+    }
+  }
+
+  private static final int BLOCKS_PER_WORKER = 4;
+  private static final int MIN_BLOCK_SIZE = 64 * 1024;
+  private static final int DICTIONARY_BYTES = 32 * 1024;
+  private static final int CENTRAL_DIRECTORY_CHUNK_BYTES = 256 * 1024;
+  private static final int TAR_BLOCK_SIZE = 512;
+  private static final String PART_SUFFIX = ".dpfm-part";
+  private static final long ZIP64_LIMIT = 0xFFFFFFFFL;
+  private static final int ZIP64_ENTRY_LIMIT = 0xFFFF;
+  private static final int UNIX_DIRECTORY = 040000;
+  private static final int UNIX_FILE = 0100000;
+  private static final int UNIX_LINK = 0120000;
+  private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 255};
+
+  // Bytes to write at a position of the archive, once everything before them is written.
+  private interface Chunk {
+
+    ByteBuffer at(long position);
+  }
+
+  // Lays out the entries of one archive format.
+  private interface ArchiveWriter {
+
+    void directory(String name, BasicFileAttributes attributes) throws IOException;
+
+    // Returns the number of bytes packed, which differs from the size if the file changed.
+    long file(String name, BasicFileAttributes attributes, boolean executable,
+        ReadableByteChannel in, OperationProgress progress) throws IOException;
+
+    void link(String name, BasicFileAttributes attributes, String target) throws IOException;
+
+    void finish() throws IOException;
+  }
+
+  private final int workers;
+  private final int blockSize;
+  private final ExecutorService executor;
+  private final ThreadLocal<Deflater> deflaters;
+
+  public Packer(int workers, int blockSize, int level) {
+    this.workers = workers;
+    this.blockSize = Math.max(blockSize, MIN_BLOCK_SIZE);
+    this.executor = Executors.newFixedThreadPool(workers, Model.daemonThreadFactory("dpfm-pack"));
+    this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level, true));
+  }
+
+  /**
+   * Packs the sources, each under its own name, into the archive. It is written next to the
+   * archive first and moved into place once complete, so a cancelled or failed pack leaves no
+   * partial archive behind.
+   */
+  public OperationResult pack(List<Path> sources, Path archive, Format format,
+      OperationProgress progress) {
+    List<OperationResult.Failure> failures = new ArrayList<>();
+    Path part = archive.resolveSibling(archive.getFileName() + PART_SUFFIX);
+    boolean complete = false;
+    Output output = null;
+    try (WritableByteChannel channel = Files.newByteChannel(part, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      output = new Output(channel, workers * BLOCKS_PER_WORKER);
+      ArchiveWriter writer = format == Format.ZIP ? new ZipWriter(output)
+          : new TarGzWriter(output);
+      for (int i = 0; i < sources.size() && !progress.isCancelled(); i++) {
+        walk(sources.get(i), part, writer, progress, failures);
+      }
+      if (!progress.isCancelled()) {
+        writer.finish();
+        output.flush();
+        complete = true;
+      }
+    } catch (IOException e) {
+      failures.add(new OperationResult.Failure(archive, OperationResult.reason(e)));
+    } finally {
+      if (output != null) {
+        output.discard();
+      }
+    }
+
+    try {
+      if (complete) {
+        Files.move(part, archive, StandardCopyOption.REPLACE_EXISTING);
+      } else {
+        Files.deleteIfExists(part);
+      }
+    } catch (IOException e) {
+      failures.add(new OperationResult.Failure(archive, OperationResult.reason(e)));
+    }
+    return OperationResult.of(progress, failures);
+  }
+
+  private void walk(Path source, Path part, ArchiveWriter writer, OperationProgress progress,
+      List<OperationResult.Failure> failures) throws IOException {
+    Path base = source.toAbsolutePath().normalize().getParent();
+    Path root = source.toAbsolutePath().normalize();
+    Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes)
+          throws IOException {
+        if (progress.isCancelled()) {
+          return FileVisitResult.TERMINATE;
+        }
+        writer.directory(entryName(base, directory) + "/", attributes);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attributes)
+          throws IOException {
+        progress.awaitIfPaused();
+        if (progress.isCancelled()) {
+          return FileVisitResult.TERMINATE;
+        }
+        if (file.equals(part)) {
+          return FileVisitResult.CONTINUE;
+        }
+        progress.setCurrentFile(file.toString());
+        String name = entryName(base, file);
+        if (attributes.isSymbolicLink()) {
+          String target;
+          try {
+            target = Files.readSymbolicLink(file).toString();
+          } catch (IOException e) {
+            failures.add(new OperationResult.Failure(file, OperationResult.reason(e)));
+            return FileVisitResult.CONTINUE;
+          }
+          writer.link(name, attributes, target);
+        } else if (attributes.isRegularFile()) {
+          SeekableByteChannel in;
+          try {
+            in = Files.newByteChannel(file);
+          } catch (IOException e) {
+            failures.add(new OperationResult.Failure(file, OperationResult.reason(e)));
+            return FileVisitResult.CONTINUE;
+          }
+          try (in) {
+            long packed = writer.file(name, attributes, isExecutable(file), in, progress);
+            if (packed != attributes.size() && !progress.isCancelled()) {
+              failures.add(new OperationResult.Failure(file, "The file changed while packing"));
+            }
+          }
+        } else {
+          failures.add(new OperationResult.Failure(file,
+              "Only files, directories and links can be packed"));
+          return FileVisitResult.CONTINUE;
+        }
+        progress.fileCompleted();
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFileFailed(Path file, IOException e) {
+        failures.add(new OperationResult.Failure(file, OperationResult.reason(e)));
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  // Archive file systems report every entry as executable, or none.
+  private static boolean isExecutable(Path file) {
+    return file.getFileSystem() == FileSystems.getDefault() && Files.isExecutable(file);
+  }
+
+  // The name of an entry, relative to the directory the selection was made in.
+  private static String entryName(Path base, Path path) {
+    StringBuilder name = new StringBuilder();
+    for (Path element : base != null ? base.relativize(path) : path) {
+      if (name.length() > 0) {
+        name.append('/');
+      }
+      name.append(element);
+    }
+    return name.toString();
+  }
+
+  private static Chunk raw(byte[] bytes) {
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    return position -> buffer;
+  }
+
+  private static ByteBuffer littleEndian(int capacity) {
+    return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  // Deflates one block. Every block but the last of a stream ends on a byte boundary, so the
+  // blocks of a stream are concatenated into one valid deflate stream.
+  private ByteBuffer deflate(byte[] data, int length, byte[] dictionary, boolean last) {
+    Deflater deflater = deflaters.get();
+    deflater.reset();
+    if (dictionary != null) {
+      int dictionaryLength = Math.min(dictionary.length, DICTIONARY_BYTES);
+      deflater.setDictionary(dictionary, dictionary.length - dictionaryLength, dictionaryLength);
+    }
+    deflater.setInput(data, 0, length);
+    if (last) {
+      deflater.finish();
+    }
+    byte[] compressed = new byte[length + (length >> 12) + (length >> 14) + 64];
+    int written = 0;
+    while (true) {
+      if (written == compressed.length) {
+        compressed = Arrays.copyOf(compressed, compressed.length * 2);
+      }
+      int space = compressed.length - written;
+      int count = deflater.deflate(compressed, written, space,
+          last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+      written += count;
+      if (last ? deflater.finished() : count < space) {
+        return ByteBuffer.wrap(compressed, 0, written);
+      }
+    }
+  }
+
+  // Writes chunks in the order they were added, as soon as each one is ready.
+  private static final class Output {
+
+    private final WritableByteChannel channel;
+    private final int maxPending;
+    private final Deque<Future<Chunk>> pending = new ArrayDeque<>();
+    private long position;
+
+    Output(WritableByteChannel channel, int maxPending) {
+      this.channel = channel;
+      this.maxPending = maxPending;
+    }
+
+    void add(Chunk chunk) throws IOException {
+      add(CompletableFuture.completedFuture(chunk));
+    }
+
+    void add(Future<Chunk> chunk) throws IOException {
+      pending.add(chunk);
+      while (pending.size() > maxPending) {
+        writeNext();
+      }
+    }
+
+    long flush() throws IOException {
+      while (!pending.isEmpty()) {
+        writeNext();
+      }
+      return position;
+    }
+
+    void discard() {
+      for (Future<Chunk> chunk : pending) {
+        chunk.cancel(false);
+      }
+      pending.clear();
+    }
+
+    private void writeNext() throws IOException {
+      Chunk chunk;
+      try {
+        chunk = pending.remove().get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Packing was interrupted");
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) e.getCause();
+        }
+        if (e.getCause() instanceof Error) {
+          throw (Error) e.getCause();
+        }
+        throw new IOException(e.getCause());
+      }
+      ByteBuffer buffer = chunk.at(position);
+      while (buffer.hasRemaining()) {
+        position += channel.write(buffer);
+      }
+    }
+  }
+
+  // A deflate stream cut into blocks as it is written: the whole tar of a tar.gz, or one zip
+  // entry, in which case the entry learns its compressed size as its blocks are written.
+  private final class BlockStream {
+
+    private final Output output;
+    private final ZipEntryRecord record;
+    private final CRC32 crc = new CRC32();
+    private byte[] block;
+    private int length;
+    private byte[] previous;
+    private long size;
+
+    BlockStream(Output output, ZipEntryRecord record, long sizeHint) {
+      this.output = output;
+      this.record = record;
+      this.block = new byte[(int) Math.max(1, Math.min(blockSize, sizeHint))];
+    }
+
+    void write(byte[] bytes, int offset, int count) throws IOException {
+      while (count > 0) {
+        if (length == block.length) {
+          submit(false);
+        }
+        int copied = Math.min(count, block.length - length);
+        System.arraycopy(bytes, offset, block, length, copied);
+        length += copied;
+        offset += copied;
+        count -= copied;
+      }
+    }
+
+    void writeZeros(long count) throws IOException {
+      while (count > 0) {
+        if (length == block.length) {
+          submit(false);
+        }
+        int filled = (int) Math.min(count, block.length - length);
+        Arrays.fill(block, length, length + filled, (byte) 0);
+        length += filled;
+        count -= filled;
+      }
+    }
+
+    // Reads up to limit bytes, stopping early at the end of the input or on cancellation.
+    long transferFrom(ReadableByteChannel in, long limit, OperationProgress progress)
+        throws IOException {
+      long transferred = 0;
+      while (transferred < limit) {
+        if (length == block.length) {
+          progress.awaitIfPaused();
+          if (progress.isCancelled()) {
+            break;
+          }
+          submit(false);
+        }
+        int space = (int) Math.min(block.length - length, limit - transferred);
+        int read = in.read(ByteBuffer.wrap(block, length, space));
+        if (read < 0) {
+          break;
+        }
+        length += read;
+        transferred += read;
+        progress.addBytes(read);
+      }
+      return transferred;
+    }
+
+    void finish() throws IOException {
+      submit(true);
+    }
+
+    long getCrc() {
+      return crc.getValue();
+    }
+
+    long getSize() {
+      return size;
+    }
+
+    private void submit(boolean last) throws IOException {
+      byte[] data = block;
+      int count = length;
+      byte[] dictionary = previous;
+      crc.update(data, 0, count);
+      size += count;
+      output.add(executor.submit(() -> {
+        ByteBuffer compressed = deflate(data, count, dictionary, last);
+        return position -> {
+          if (record != null) {
+            record.compressedSize += compressed.remaining();
+          }
+          return compressed;
+        };
+      }));
+      previous = last ? null : data;
+      block = last ? block : new byte[blockSize];
+      length = 0;
+    }
+  }
+
+  private final class TarGzWriter implements ArchiveWriter {
+
+    private final Output output;
+    private final BlockStream tar;
+
+    TarGzWriter(Output output) throws IOException {
+      this.output = output;
+      this.tar = new BlockStream(output, null, blockSize);
+      output.add(raw(GZIP_HEADER));
+    }
+
+    @Override
+    public void directory(String name, BasicFileAttributes attributes) throws IOException {
+      header(name, '5', 0755, 0, attributes, "");
+    }
+
+    @Override
+    public long file(String name, BasicFileAttributes attributes, boolean executable,
+        ReadableByteChannel in, OperationProgress progress) throws IOException {
+      long size = attributes.size();
+      header(name, '0', executable ? 0755 : 0644, size, attributes, "");
+      long packed = tar.transferFrom(in, size, progress);
+      // A file that shrank is padded, so that the entries after it are still found.
+      tar.writeZeros(size - packed + padding(size));
+      return packed;
+    }
+
+    @Override
+    public void link(String name, BasicFileAttributes attributes, String target)
+        throws IOException {
+      header(name, '2', 0777, 0, attributes, target);
+    }
+
+    @Override
+    public void finish() throws IOException {
+      tar.writeZeros(2 * TAR_BLOCK_SIZE);
+      tar.finish();
+      ByteBuffer trailer = littleEndian(8);
+      trailer.putInt((int) tar.getCrc()).putInt((int) tar.getSize());
+      output.add(raw(trailer.array()));
+    }
+
+    private void header(String name, char type, int mode, long size,
+        BasicFileAttributes attributes, String linkTarget) throws IOException {
+      byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+      byte[] linkBytes = linkTarget.getBytes(StandardCharsets.UTF_8);
+      int split = prefixSplit(nameBytes);
+      if (split < 0) {
+        longName('L', nameBytes);
+      }
+      if (linkBytes.length > 100) {
+        longName('K', linkBytes);
+      }
+
+      byte[] header = new byte[TAR_BLOCK_SIZE];
+      if (split > 0) {
+        System.arraycopy(nameBytes, 0, header, 345, split);
+        System.arraycopy(nameBytes, split + 1, header, 0, nameBytes.length - split - 1);
+      } else {
+        System.arraycopy(nameBytes, 0, header, 0, Math.min(nameBytes.length, 100));
+      }
+      number(header, 100, 8, mode);
+      number(header, 108, 8, 0);
+      number(header, 116, 8, 0);
+      number(header, 124, 12, size);
+      number(header, 136, 12, attributes.lastModifiedTime().toMillis() / 1000);
+      header[156] = (byte) type;
+      System.arraycopy(linkBytes, 0, header, 157, Math.min(linkBytes.length, 100));
+      System.arraycopy("ustar\00000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+      checksum(header);
+      tar.write(header, 0, header.length);
+    }
+
+    // A GNU header carrying a name too long for the ustar fields.
+    private void longName(char type, byte[] name) throws IOException {
+      byte[] header = new byte[TAR_BLOCK_SIZE];
+      byte[] placeholder = "././@LongLink".getBytes(StandardCharsets.US_ASCII);
+      System.arraycopy(placeholder, 0, header, 0, placeholder.length);
+      number(header, 100, 8, 0644);
+      number(header, 108, 8, 0);
+      number(header, 116, 8, 0);
+      number(header, 124, 12, name.length + 1);
+      number(header, 136, 12, 0);
+      header[156] = (byte) type;
+      System.arraycopy("ustar\00000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+      checksum(header);
+      tar.write(header, 0, header.length);
+      tar.write(name, 0, name.length);
+      tar.writeZeros(1 + padding(name.length + 1));
+    }
+
+    // Where a name is split between the ustar prefix and name fields: 0 if it fits the name
+    // field alone, -1 if it does not fit at all.
+    private int prefixSplit(byte[] name) {
+      if (name.length <= 100) {
+        return 0;
+      }
+      for (int i = Math.min(name.length - 1, 155); i > 0; i--) {
+        int rest = name.length - i - 1;
+        if (rest > 100) {
+          break;
+        }
+        if (name[i] == '/' && rest > 0) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    private long padding(long size) {
+      return (TAR_BLOCK_SIZE - size % TAR_BLOCK_SIZE) % TAR_BLOCK_SIZE;
+    }
+
+    // Octal with a terminating NUL, or base-256 for values too large for the field.
+    private void number(byte[] header, int offset, int length, long value) {
+      String octal = Long.toOctalString(value);
+      if (octal.length() < length) {
+        for (int i = 0; i < length - 1; i++) {
+          int digit = i - (length - 1 - octal.length());
+          header[offset + i] = (byte) (digit < 0 ? '0' : octal.charAt(digit));
+        }
+        header[offset + length - 1] = 0;
+        return;
+      }
+      for (int i = length - 1; i > 0; i--) {
+        header[offset + i] = (byte) value;
+        value >>>= 8;
+      }
+      header[offset] = (byte) 0x80;
+    }
+
+    private void checksum(byte[] header) {
+      Arrays.fill(header, 148, 156, (byte) ' ');
+      int sum = 0;
+      for (byte b : header) {
+        sum += b & 0xff;
+      }
+      String octal = String.format("%06o", sum);
+      for (int i = 0; i < 6; i++) {
+        header[148 + i] = (byte) octal.charAt(i);
+      }
+      header[154] = 0;
+    }
+  }
+
+  // What the central directory needs to know about an entry once it is written.
+  private static final class ZipEntryRecord {
+
+    final byte[] name;
+    final int method;
+    final int flags;
+    final int dosTime;
+    final int unixMode;
+    long crc;
+    long size;
+    long compressedSize;
+    long offset;
+
+    ZipEntryRecord(byte[] name, int method, int flags, int dosTime, int unixMode) {
+      this.name = name;
+      this.method = method;
+      this.flags = flags;
+      this.dosTime = dosTime;
+      this.unixMode = unixMode;
+    }
+  }
+
+  // Entries are written with their sizes in a data descriptor after the data, since they are
+  // only known once the blocks have been compressed. Sizes and offsets past 4 GB use zip64.
+  private final class ZipWriter implements ArchiveWriter {
+
+    private static final int UTF8_NAMES = 0x0800;
+    private static final int DATA_DESCRIPTOR = 0x0008;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private final Output output;
+    private final List<ZipEntryRecord> records = new ArrayList<>();
+
+    ZipWriter(Output output) {
+      this.output = output;
+    }
+
+    @Override
+    public void directory(String name, BasicFileAttributes attributes) throws IOException {
+      stored(name, attributes, UNIX_DIRECTORY | 0755, new byte[0]);
+    }
+
+    @Override
+    public long file(String name, BasicFileAttributes attributes, boolean executable,
+        ReadableByteChannel in, OperationProgress progress) throws IOException {
+      ZipEntryRecord record = new ZipEntryRecord(name.getBytes(StandardCharsets.UTF_8),
+          DEFLATED, UTF8_NAMES | DATA_DESCRIPTOR, dosTime(attributes),
+          UNIX_FILE | (executable ? 0755 : 0644));
+      records.add(record);
+      output.add(position -> {
+        record.offset = position;
+        return ByteBuffer.wrap(localHeader(record));
+      });
+
+      BlockStream data = new BlockStream(output, record, attributes.size());
+      long packed = data.transferFrom(in, Long.MAX_VALUE, progress);
+      data.finish();
+      record.crc = data.getCrc();
+      record.size = data.getSize();
+      output.add(position -> {
+        boolean zip64 = record.size >= ZIP64_LIMIT || record.compressedSize >= ZIP64_LIMIT;
+        ByteBuffer descriptor = littleEndian(zip64 ? 24 : 16);
+        descriptor.putInt(0x08074b50).putInt((int) record.crc);
+        if (zip64) {
+          descriptor.putLong(record.compressedSize).putLong(record.size);
+        } else {
+          descriptor.putInt((int) record.compressedSize).putInt((int) record.size);
+        }
+        return descriptor.flip();
+      });
+      return packed;
+    }
+
+    // Links are stored with their target as the data, as Info-ZIP does.
+    @Override
+    public void link(String name, BasicFileAttributes attributes, String target)
+        throws IOException {
+      stored(name, attributes, UNIX_LINK | 0777, target.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void finish() throws IOException {
+      long start = output.flush();
+      ByteBuffer directory = littleEndian(CENTRAL_DIRECTORY_CHUNK_BYTES);
+      for (ZipEntryRecord record : records) {
+        byte[] entry = centralHeader(record);
+        if (directory.remaining() < entry.length) {
+          output.add(raw(Arrays.copyOf(directory.array(), directory.position())));
+          directory.clear();
+        }
+        directory.put(entry);
+      }
+      output.add(raw(Arrays.copyOf(directory.array(), directory.position())));
+      long end = output.flush();
+      output.add(raw(endOfCentralDirectory(start, end - start, end)));
+    }
+
+    private void stored(String name, BasicFileAttributes attributes, int unixMode,
+        byte[] data) throws IOException {
+      ZipEntryRecord record = new ZipEntryRecord(name.getBytes(StandardCharsets.UTF_8), STORED,
+          UTF8_NAMES, dosTime(attributes), unixMode);
+      CRC32 crc = new CRC32();
+      crc.update(data);
+      record.crc = crc.getValue();
+      record.size = data.length;
+      record.compressedSize = data.length;
+      records.add(record);
+      output.add(position -> {
+        record.offset = position;
+        byte[] header = localHeader(record);
+        byte[] entry = Arrays.copyOf(header, header.length + data.length);
+        System.arraycopy(data, 0, entry, header.length, data.length);
+        return ByteBuffer.wrap(entry);
+      });
+    }
+
+    private byte[] localHeader(ZipEntryRecord record) {
+      boolean described = (record.flags & DATA_DESCRIPTOR) != 0;
+      ByteBuffer header = littleEndian(30 + record.name.length);
+      header.putInt(0x04034b50).putShort((short) 20).putShort((short) record.flags)
+          .putShort((short) record.method).putInt(record.dosTime)
+          .putInt(described ? 0 : (int) record.crc)
+          .putInt(described ? 0 : (int) record.compressedSize)
+          .putInt(described ? 0 : (int) record.size)
+          .putShort((short) record.name.length).putShort((short) 0).put(record.name);
+      return header.array();
+    }
+
+    private byte[] centralHeader(ZipEntryRecord record) {
+      boolean largeSize = record.size >= ZIP64_LIMIT;
+      boolean largeCompressedSize = record.compressedSize >= ZIP64_LIMIT;
+      boolean largeOffset = record.offset >= ZIP64_LIMIT;
+      int extraLength = (largeSize ? 8 : 0) + (largeCompressedSize ? 8 : 0)
+          + (largeOffset ? 8 : 0);
+      int extraFieldLength = extraLength > 0 ? 4 + extraLength : 0;
+      int externalAttributes = record.unixMode << 16
+          | ((record.unixMode & UNIX_DIRECTORY) != 0 ? 0x10 : 0);
+      ByteBuffer header = littleEndian(46 + record.name.length + extraFieldLength);
+      header.putInt(0x02014b50).putShort((short) (3 << 8 | 45))
+          .putShort((short) (extraLength > 0 ? 45 : 20)).putShort((short) record.flags)
+          .putShort((short) record.method).putInt(record.dosTime).putInt((int) record.crc)
+          .putInt(largeCompressedSize ? -1 : (int) record.compressedSize)
+          .putInt(largeSize ? -1 : (int) record.size)
+          .putShort((short) record.name.length).putShort((short) extraFieldLength)
+          .putShort((short) 0).putShort((short) 0).putShort((short) 0)
+          .putInt(externalAttributes).putInt(largeOffset ? -1 : (int) record.offset)
+          .put(record.name);
+      if (extraLength > 0) {
+        header.putShort((short) 1).putShort((short) extraLength);
+        if (largeSize) {
+          header.putLong(record.size);
+        }
+        if (largeCompressedSize) {
+          header.putLong(record.compressedSize);
+        }
+        if (largeOffset) {
+          header.putLong(record.offset);
+        }
+      }
+      return header.array();
+    }
+
+    private byte[] endOfCentralDirectory(long start, long size, long end) {
+      int entries = records.size();
+      boolean zip64 = entries >= ZIP64_ENTRY_LIMIT || start >= ZIP64_LIMIT
+          || size >= ZIP64_LIMIT;
+      ByteBuffer trailer = littleEndian((zip64 ? 56 + 20 : 0) + 22);
+      if (zip64) {
+        trailer.putInt(0x06064b50).putLong(44).putShort((short) (3 << 8 | 45))
+            .putShort((short) 45).putInt(0).putInt(0).putLong(entries).putLong(entries)
+            .putLong(size).putLong(start);
+        trailer.putInt(0x07064b50).putInt(0).putLong(end).putInt(1);
+      }
+      trailer.putInt(0x06054b50).putShort((short) 0).putShort((short) 0)
+          .putShort((short) Math.min(entries, ZIP64_ENTRY_LIMIT))
+          .putShort((short) Math.min(entries, ZIP64_ENTRY_LIMIT))
+          .putInt(zip64 ? -1 : (int) size).putInt(zip64 ? -1 : (int) start)
+          .putShort((short) 0);
+      return trailer.array();
+    }
+
+    private int dosTime(BasicFileAttributes attributes) {
+      LocalDateTime time = LocalDateTime.ofInstant(
+          Instant.ofEpochMilli(attributes.lastModifiedTime().toMillis()), ZoneId.systemDefault());
+      if (time.getYear() < 1980) {
+        time = LocalDateTime.of(1980, 1, 1, 0, 0);
+      }
+      return (time.getYear() - 1980) << 25 | time.getMonthValue() << 21
+          | time.getDayOfMonth() << 16 | time.getHour() << 11 | time.getMinute() << 5
+          | time.getSecond() >> 1;
+    }
+  }
+}
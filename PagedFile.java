@@ -0,0 +1,398 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A file of any size read through memory-mapped windows for viewing. Lines are navigated by
+ * scanning around the current position, so the first page never waits for the whole file; a
+ * background index of newline counts, one per fixed-size chunk, answers line-number queries
+ * once it has reached them. The index keeps a bounded number of chunks by doubling the chunk
+ * size when it fills up, so memory use does not grow with the file. An entry inside an archive
+ * is extracted to a temporary file first.
+ */
+public class PagedFile implements Closeable {
+
+  private static final int PAGE_WINDOW_BYTES = 64 * 1024 * 1024;
+  private static final int INDEX_WINDOW_BYTES = 64 * 1024 * 1024;
+  private static final int INITIAL_CHUNK_BYTES = 256 * 1024;
+  private static final int MAX_CHECKPOINTS = 1 << 18;
+  // How far back the start of a wrapped line is searched for before it is guessed.
+  private static final int MAX_BACK_SCAN_BYTES = 1024 * 1024;
+  private static final int SCAN_BUFFER_BYTES = 64 * 1024;
+  private static final ExecutorService INDEXERS =
+      Executors.newCachedThreadPool(Model.daemonThreadFactory("dpfm-view-index",
+          Thread.MIN_PRIORITY));
+
+  private final Path path;
+  // A copy of an entry inside an archive, which cannot be mapped where it is.
+  private final Path extracted;
+  private final FileChannel channel;
+  private volatile long size;
+  private volatile boolean closed;
+
+  // Read and mapped on the EDT only.
+  private MappedByteBuffer window;
+  private long windowStart;
+  private final byte[] scanBuffer = new byte[SCAN_BUFFER_BYTES];
+
+  // checkpoints[k] is the number of newlines before byte k * chunkBytes.
+  private long[] checkpoints = new long[1024];
+  private int checkpointCount = 1;
+  private int chunkBytes = INITIAL_CHUNK_BYTES;
+  private long indexedBytes;
+  private long indexedLines;
+  private int indexGeneration;
+  private boolean indexing;
+
+  public PagedFile(Path path) throws IOException {
+    this.path = path;
+    this.extracted = path.getFileSystem() == FileSystems.getDefault() ? null : extract(path);
+    this.channel = FileChannel.open(extracted != null ? extracted : path, StandardOpenOption.READ);
+    this.size = channel.size();
+    startIndexing();
+  }
+
+  private static Path extract(Path path) throws IOException {
+    Path copy = Files.createTempFile("dpfm-view-", "-" + path.getFileName());
+    copy.toFile().deleteOnExit();
+    try {
+      Files.copy(path, copy, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      Files.deleteIfExists(copy);
+      throw e;
+    }
+    return copy;
+  }
+
+  public Path getPath() {
+    return path;
+  }
+
+  public long size() {
+    return size;
+  }
+
+  /**
+   * Picks up a file that grew or shrank since it was opened. A file that shrank is indexed again
+   * from the start, as it was most likely truncated and rewritten. Returns true if the size
+   * changed.
+   */
+  public boolean refresh() throws IOException {
+    long current = channel.size();
+    if (current == size) {
+      return false;
+    }
+    synchronized (this) {
+      if (current < size) {
+        window = null;
+        checkpointCount = 1;
+        chunkBytes = INITIAL_CHUNK_BYTES;
+        indexedBytes = 0;
+        indexedLines = 0;
+        indexGeneration++;
+      }
+      size = current;
+    }
+    startIndexing();
+    return true;
+  }
+
+  public synchronized long getIndexedBytes() {
+    return indexedBytes;
+  }
+
+  // Newlines found so far; the total once the whole file is indexed.
+  public synchronized long getIndexedLines() {
+    return indexedLines;
+  }
+
+  public synchronized boolean isIndexed() {
+    return indexedBytes == size;
+  }
+
+  /**
+   * Returns the offset at which the zero-based line starts, or -1 if the index has not reached
+   * it yet.
+   */
+  public long offsetOfLine(long line) throws IOException {
+    long chunkStart;
+    long linesBefore;
+    synchronized (this) {
+      if (line > indexedLines) {
+        return -1;
+      }
+      if (line == 0) {
+        return 0;
+      }
+      // The last chunk that starts before the line's newline.
+      int chunk = Arrays.binarySearch(checkpoints, 0, checkpointCount, line);
+      if (chunk < 0) {
+        chunk = -chunk - 2;
+      } else {
+        while (chunk > 0 && checkpoints[chunk - 1] == line) {
+          chunk--;
+        }
+        chunk--;
+      }
+      chunkStart = (long) chunk * chunkBytes;
+      linesBefore = checkpoints[chunk];
+    }
+
+    long remaining = line - linesBefore;
+    long position = chunkStart;
+    while (position < size) {
+      int length = read(position, scanBuffer, scanBuffer.length);
+      for (int i = 0; i < length; i++) {
+        if (scanBuffer[i] == '\n' && --remaining == 0) {
+          return position + i + 1;
+        }
+      }
+      position += length;
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the zero-based line that contains offset, or -1 if the index has not reached it yet.
+   */
+  public long lineAt(long offset) throws IOException {
+    long chunkStart;
+    long linesBefore;
+    synchronized (this) {
+      if (offset > indexedBytes) {
+        return -1;
+      }
+      int chunk = (int) Math.min(offset / chunkBytes, checkpointCount - 1);
+      chunkStart = (long) chunk * chunkBytes;
+      linesBefore = checkpoints[chunk];
+    }
+
+    long lines = linesBefore;
+    long position = chunkStart;
+    while (position < offset) {
+      int length = read(position, scanBuffer, (int) Math.min(scanBuffer.length, offset - position));
+      for (int i = 0; i < length; i++) {
+        if (scanBuffer[i] == '\n') {
+          lines++;
+        }
+      }
+      position += length;
+    }
+    return lines;
+  }
+
+  /**
+   * Returns the end of the line that starts at from in bytes[from, to), where lines longer than
+   * wrap bytes are cut into wrap-sized pieces. The end excludes the newline.
+   */
+  public static int lineEnd(byte[] bytes, int from, int to, int wrap) {
+    int limit = (int) Math.min(to, (long) from + wrap + 1);
+    for (int i = from; i < limit; i++) {
+      if (bytes[i] == '\n') {
+        return i;
+      }
+    }
+    return Math.min(to, from + wrap);
+  }
+
+  // The start of the line after the one starting at offset, or size if it is the last line.
+  public long nextLine(long offset, int wrap) throws IOException {
+    byte[] bytes = new byte[wrap + 1];
+    int length = read(offset, bytes, bytes.length);
+    int end = lineEnd(bytes, 0, length, wrap);
+    return offset + (end < length && bytes[end] == '\n' ? end + 1 : end);
+  }
+
+  // The start of the line before the one starting at offset.
+  public long previousLine(long offset, int wrap) throws IOException {
+    if (offset <= 0) {
+      return 0;
+    }
+    long end;
+    if (byteAt(offset - 1) == '\n') {
+      end = offset - 1;
+    } else if (offset >= size) {
+      end = size;
+    } else {
+      // Offset is a wrapped piece of a longer line.
+      return Math.max(0, offset - wrap);
+    }
+    long start = findLineStart(end);
+    if (start < 0) {
+      return Math.max(0, end - wrap);
+    }
+    long length = end - start;
+    return start + (length > 0 ? (length - 1) / wrap * wrap : 0);
+  }
+
+  // The start of the line, or wrapped piece of a line, that contains offset.
+  public long lineStart(long offset, int wrap) throws IOException {
+    offset = Math.min(offset, size);
+    long start = findLineStart(offset);
+    return start < 0 ? offset : start + (offset - start) / wrap * wrap;
+  }
+
+  // The offset after the last newline before offset, or -1 if there is none within reach.
+  private long findLineStart(long offset) throws IOException {
+    long limit = Math.max(0, offset - MAX_BACK_SCAN_BYTES);
+    long position = offset;
+    while (position > limit) {
+      int length = (int) Math.min(scanBuffer.length, position - limit);
+      position -= length;
+      read(position, scanBuffer, length);
+      for (int i = length - 1; i >= 0; i--) {
+        if (scanBuffer[i] == '\n') {
+          return position + i + 1;
+        }
+      }
+    }
+    return limit == 0 ? 0 : -1;
+  }
+
+  private byte byteAt(long offset) throws IOException {
+    byte[] bytes = new byte[1];
+    return read(offset, bytes, 1) == 1 ? bytes[0] : 0;
+  }
+
+  /**
+   * Copies up to length bytes at offset into bytes, through a mapped window that is moved as
+   * reading goes past it. Returns the number of bytes copied, which is short only at the end of
+   * the file.
+   */
+  public int read(long offset, byte[] bytes, int length) throws IOException {
+    int copied = 0;
+    while (copied < length && offset + copied < size) {
+      long position = offset + copied;
+      if (window == null || position < windowStart
+          || position >= windowStart + window.capacity()) {
+        // Half-window alignment lets reads of up to half a window avoid crossing into the next.
+        long start = position / (PAGE_WINDOW_BYTES / 2) * (PAGE_WINDOW_BYTES / 2);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start,
+            Math.min(PAGE_WINDOW_BYTES, size - start));
+        windowStart = start;
+      }
+      int index = (int) (position - windowStart);
+      int count = Math.min(length - copied, window.capacity() - index);
+      try {
+        window.get(index, bytes, copied, count);
+      } catch (InternalError e) {
+        // The mapped pages were truncated away underneath us.
+        window = null;
+        throw new IOException(path + " was truncated", e);
+      }
+      copied += count;
+    }
+    return copied;
+  }
+
+  private void startIndexing() {
+    synchronized (this) {
+      if (indexing || closed || indexedBytes == size) {
+        return;
+      }
+      indexing = true;
+    }
+    INDEXERS.execute(this::index);
+  }
+
+  /**
+   * Counts newlines chunk by chunk up to the current size. The last, partial chunk is counted
+   * but not checkpointed, so it is counted again from its start once the file grows.
+   */
+  private void index() {
+    while (true) {
+      long chunkStart;
+      int chunk;
+      int chunkLength;
+      int generation;
+      synchronized (this) {
+        chunk = checkpointCount - 1;
+        chunkStart = (long) chunk * chunkBytes;
+        chunkLength = chunkBytes;
+        generation = indexGeneration;
+        if (closed || indexedBytes == size) {
+          indexing = false;
+          return;
+        }
+      }
+
+      long end = size;
+      long mapLength = Math.min(end - chunkStart,
+          Math.max(chunkLength, INDEX_WINDOW_BYTES / chunkLength * chunkLength));
+      ByteBuffer buffer;
+      try {
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, chunkStart, mapLength);
+      } catch (IOException e) {
+        synchronized (this) {
+          indexing = false;
+        }
+        return;
+      }
+
+      for (int from = 0; from < mapLength; from += chunkLength) {
+        int to = (int) Math.min(mapLength, (long) from + chunkLength);
+        long newlines;
+        try {
+          newlines = ContentSearcher.countNewlines(buffer, from, to);
+        } catch (InternalError e) {
+          // Truncated while indexing; refresh starts over.
+          synchronized (this) {
+            indexing = false;
+          }
+          return;
+        }
+        synchronized (this) {
+          // A truncated file, or doubled chunks, are indexed again from the last checkpoint.
+          if (closed || generation != indexGeneration || chunkLength != chunkBytes) {
+            break;
+          }
+          long linesBefore = checkpoints[checkpointCount - 1];
+          indexedBytes = chunkStart + to;
+          indexedLines = linesBefore + newlines;
+          if (to - from == chunkLength) {
+            addCheckpoint(indexedLines);
+          }
+        }
+        if (to - from < chunkLength) {
+          break;
+        }
+      }
+    }
+  }
+
+  private void addCheckpoint(long lines) {
+    if (checkpointCount == MAX_CHECKPOINTS) {
+      // Keep every other checkpoint and double the chunk size.
+      for (int k = 0; k < checkpointCount / 2; k++) {
+        checkpoints[k] = checkpoints[2 * k];
+      }
+      checkpointCount /= 2;
+      chunkBytes *= 2;
+    } else if (checkpointCount == checkpoints.length) {
+      checkpoints = Arrays.copyOf(checkpoints, checkpoints.length * 2);
+    }
+    checkpoints[checkpointCount++] = lines;
+  }
+
+  @Override
+  public void close() throws IOException {
+    synchronized (this) {
+      closed = true;
+      window = null;
+    }
+    channel.close();
+    if (extracted != null) {
+      Files.deleteIfExists(extracted);
+    }
+  }
+}
@@ -0,0 +1,416 @@
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Builds quick-view previews on a single background thread. Each request supersedes the one
+ * before it: a superseded request that has not started is skipped, and one that is decoding an
+ * image aborts at its next progress report, so holding down an arrow key only ever decodes the
+ * file it stops on.
+ * Thumbnails are kept in an LRU cache bounded by their pixel memory, and optionally on disk.
+ */
+public class PreviewLoader {
+
+  public static final int THUMBNAIL_SIZE = 512;
+  private static final int TEXT_PREVIEW_BYTES = 4096;
+  private static final Set<String> IMAGE_SUFFIXES =
+      new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+  static {
+    IMAGE_SUFFIXES.addAll(Arrays.asList(ImageIO.getReaderFileSuffixes()));
+  }
+
+  public static final class Preview {
+
+    private final String name;
+    private final BufferedImage image;
+    private final String text;
+    private final String summary;
+
+    Preview(String name, BufferedImage image, String text, String summary) {
+      this.name = name;
+      this.image = image;
+      this.text = text;
+      this.summary = summary;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    // A thumbnail at most THUMBNAIL_SIZE on its longer side, or null.
+    public BufferedImage getImage() {
+      return image;
+    }
+
+    // The start of a text file, or null.
+    public String getText() {
+      return text;
+    }
+
+    public String getSummary() {
+      return summary;
+    }
+  }
+
+  private final ExecutorService decoder =
+      Executors.newSingleThreadExecutor(Model.daemonThreadFactory("dpfm-preview"));
+  private final AtomicReference<Request> current = new AtomicReference<>();
+  private final long maxCacheBytes;
+  private final Path diskCache;
+  private final Map<String, Preview> thumbnails = new LinkedHashMap<>(64, 0.75f, true);
+  private long cachedBytes;
+
+  /**
+   * Keeps up to maxCacheBytes of thumbnail pixels in memory. Thumbnails are also written to
+   * diskCache, when it is not null, as PNG files named by a hash of path, size and mtime.
+   */
+  public PreviewLoader(long maxCacheBytes, Path diskCache) {
+    this.maxCacheBytes = maxCacheBytes;
+    this.diskCache = diskCache;
+  }
+
+  /**
+   * Builds a preview of path, which has the given kind, size and mtime as listed, and passes it
+   * to callback on the loader thread; a cached thumbnail is passed at once on the calling thread.
+   * Cancels the previous request. The callback is not called if the request is cancelled.
+   */
+  public Future<?> load(Path path, FileEntry.Kind kind, long size, long lastModified,
+      Consumer<Preview> callback) {
+    // The URI tells apart entries with the same path in different archives.
+    String key = path.toUri() + "\n" + size + "\n" + lastModified;
+    Request request = new Request(path, kind, size, lastModified, key, callback);
+    Request previous = current.getAndSet(request);
+    if (previous != null) {
+      previous.cancel();
+    }
+
+    Preview cached = getCached(key);
+    if (cached != null) {
+      request.future.complete(null);
+      callback.accept(cached);
+      return request.future;
+    }
+    decoder.execute(request);
+    return request.future;
+  }
+
+  private synchronized Preview getCached(String key) {
+    return thumbnails.get(key);
+  }
+
+  private synchronized void cache(String key, Preview preview) {
+    if (thumbnails.put(key, preview) == null) {
+      cachedBytes += pixelBytes(preview.image);
+    }
+    Iterator<Preview> eldest = thumbnails.values().iterator();
+    while (cachedBytes > maxCacheBytes && eldest.hasNext()) {
+      cachedBytes -= pixelBytes(eldest.next().image);
+      eldest.remove();
+    }
+  }
+
+  private static long pixelBytes(BufferedImage image) {
+    return (long) image.getWidth() * image.getHeight() * 4;
+  }
+
+  private final class Request implements Runnable {
+
+    final Path path;
+    final FileEntry.Kind kind;
+    final long size;
+    final long lastModified;
+    final String key;
+    final Consumer<Preview> callback;
+    final CompletableFuture<Void> future = new CompletableFuture<>();
+
+    Request(Path path, FileEntry.Kind kind, long size, long lastModified, String key,
+        Consumer<Preview> callback) {
+      this.path = path;
+      this.kind = kind;
+      this.size = size;
+      this.lastModified = lastModified;
+      this.key = key;
+      this.callback = callback;
+    }
+
+    void cancel() {
+      future.cancel(false);
+    }
+
+    @Override
+    public void run() {
+      if (future.isCancelled()) {
+        return;
+      }
+      Preview preview;
+      try {
+        preview = build();
+      } catch (IOException | RuntimeException e) {
+        preview = new Preview(name(), null, null, "Cannot preview: " + e.getMessage());
+      }
+      if (!future.isCancelled()) {
+        callback.accept(preview);
+      }
+      future.complete(null);
+    }
+
+    private String name() {
+      Path fileName = path.getFileName();
+      return fileName != null ? fileName.toString() : path.toString();
+    }
+
+    private Preview build() throws IOException {
+      if (kind == FileEntry.Kind.DIRECTORY) {
+        return summarizeDirectory();
+      }
+      String details = FileTableModel.formatFileSize(size);
+      if (kind == FileEntry.Kind.FILE && IMAGE_SUFFIXES.contains(
+          FileTableModel.getExtension(name()))) {
+        BufferedImage thumbnail = readDiskCache();
+        if (thumbnail == null) {
+          thumbnail = decodeThumbnail();
+          if (future.isCancelled()) {
+            return null;
+          }
+          if (thumbnail != null) {
+            writeDiskCache(thumbnail);
+          }
+        }
+        if (thumbnail != null) {
+          Preview preview = new Preview(name(), thumbnail, null, details);
+          cache(key, preview);
+          return preview;
+        }
+      }
+      if (kind == FileEntry.Kind.FILE) {
+        String text = readText();
+        if (text != null) {
+          return new Preview(name(), null, text, details);
+        }
+        return new Preview(name(), null, null, "Binary file, " + details);
+      }
+      return new Preview(name(), null, null, "Special file");
+    }
+
+    /**
+     * Decodes only as many source pixels as the thumbnail needs, by subsampling rows and columns
+     * while reading, then scales the result down smoothly.
+     */
+    private BufferedImage decodeThumbnail() throws IOException {
+      // Entries inside archives are not files, so they are read through a stream instead.
+      boolean file = path.getFileSystem() == FileSystems.getDefault();
+      try (InputStream stream = file ? null : Files.newInputStream(path);
+          ImageInputStream input = ImageIO.createImageInputStream(
+              file ? path.toFile() : stream)) {
+        if (input == null) {
+          return null;
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) {
+          return null;
+        }
+        ImageReader imageReader = readers.next();
+        try {
+          // Readers may only be aborted from the thread that is reading.
+          imageReader.addIIOReadProgressListener(new AbortWhenCancelled(future));
+          imageReader.setInput(input, true, true);
+          int width = imageReader.getWidth(0);
+          int height = imageReader.getHeight(0);
+          double scale = Math.min(1, (double) THUMBNAIL_SIZE / Math.max(width, height));
+          int step = Math.max(1, (int) (1 / scale));
+          ImageReadParam param = imageReader.getDefaultReadParam();
+          param.setSourceSubsampling(step, step, 0, 0);
+          BufferedImage image = imageReader.read(0, param);
+          if (future.isCancelled()) {
+            return null;
+          }
+          return scale(image, Math.max(1, (int) Math.round(width * scale)),
+              Math.max(1, (int) Math.round(height * scale)));
+        } finally {
+          imageReader.dispose();
+        }
+      }
+    }
+
+    private String readText() throws IOException {
+      ByteBuffer head = ByteBuffer.allocate((int) Math.min(TEXT_PREVIEW_BYTES, size));
+      try (SeekableByteChannel channel = Files.newByteChannel(path, StandardOpenOption.READ)) {
+        while (head.hasRemaining() && channel.read(head) > 0) {
+          // Keep reading until the head is full.
+        }
+      }
+      byte[] bytes = Arrays.copyOf(head.array(), head.position());
+      for (byte b : bytes) {
+        if (b == 0) {
+          return null;
+        }
+      }
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private Preview summarizeDirectory() throws IOException {
+      int directories = 0;
+      int files = 0;
+      long bytes = 0;
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+        for (Path child : stream) {
+          if (future.isCancelled()) {
+            break;
+          }
+          try {
+            BasicFileAttributes attributes = Files.readAttributes(child,
+                BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (attributes.isDirectory()) {
+              directories++;
+            } else {
+              files++;
+              bytes += attributes.size();
+            }
+          } catch (IOException e) {
+            // Vanished while listing.
+          }
+        }
+      }
+      return new Preview(name(), null, null, directories + " directories, " + files
+          + " files, " + FileTableModel.formatFileSize(bytes) + " in files");
+    }
+
+    private BufferedImage readDiskCache() {
+      Path cached = diskCachePath();
+      if (cached == null || !Files.isRegularFile(cached)) {
+        return null;
+      }
+      try {
+        return ImageIO.read(cached.toFile());
+      } catch (IOException e) {
+        return null;
+      }
+    }
+
+    private void writeDiskCache(BufferedImage thumbnail) {
+      Path cached = diskCachePath();
+      if (cached == null) {
+        return;
+      }
+      try {
+        Files.createDirectories(diskCache);
+        // Written aside and moved into place so that readers never see half a file.
+        Path temporary = Files.createTempFile(diskCache, "thumbnail", ".tmp");
+        ImageIO.write(thumbnail, "png", temporary.toFile());
+        Files.move(temporary, cached, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+        // The disk cache is only an optimization.
+      }
+    }
+
+    private Path diskCachePath() {
+      if (diskCache == null) {
+        return null;
+      }
+      try {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        byte[] hash = digest.digest(key.getBytes(StandardCharsets.UTF_8));
+        return diskCache.resolve(HexFormat.of().formatHex(hash, 0, 16) + ".png");
+      } catch (NoSuchAlgorithmException e) {
+        return null;
+      }
+    }
+  }
+
+  private static final class AbortWhenCancelled implements IIOReadProgressListener {
+
+    private final Future<?> future;
+
+    AbortWhenCancelled(Future<?> future) {
+      this.future = future;
+    }
+
+    @Override
+    public void imageProgress(ImageReader source, float percentageDone) {
+      if (future.isCancelled()) {
+        source.abort();
+      }
+    }
+
+    @Override
+    public void imageStarted(ImageReader source, int imageIndex) {
+      imageProgress(source, 0);
+    }
+
+    @Override
+    public void sequenceStarted(ImageReader source, int minIndex) {
+    }
+
+    @Override
+    public void sequenceComplete(ImageReader source) {
+    }
+
+    @Override
+    public void imageComplete(ImageReader source) {
+    }
+
+    @Override
+    public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {
+    }
+
+    @Override
+    public void thumbnailProgress(ImageReader source, float percentageDone) {
+    }
+
+    @Override
+    public void thumbnailComplete(ImageReader source) {
+    }
+
+    @Override
+    public void readAborted(ImageReader source) {
+    }
+  }
+
+  private static BufferedImage scale(BufferedImage image, int width, int height) {
+    if (image.getWidth() == width && image.getHeight() == height) {
+      return image;
+    }
+    BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D g = scaled.createGraphics();
+    g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+        RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+    g.drawImage(image, 0, 0, width, height, null);
+    g.dispose();
+    return scaled;
+  }
+}
@@ -0,0 +1,48 @@
+import java.lang.management.ManagementFactory;
+
+public class RenderStats {
+
+  private static final long REPORT_INTERVAL_NANOS = 1_000_000_000L;
+
+  private final String name;
+  private final com.sun.management.ThreadMXBean threadBean;
+
+  private long frames;
+  private long paintNanos;
+  private long allocatedBytes;
+  private long intervalStart = System.nanoTime();
+
+  private long frameStartNanos;
+  private long frameStartBytes;
+
+  public RenderStats(String name) {
+    this.name = name;
+    this.threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+  }
+
+  public static boolean isEnabled() {
+    return Boolean.getBoolean("dpfm.renderStats");
+  }
+
+  public void beginFrame() {
+    frameStartBytes = threadBean.getCurrentThreadAllocatedBytes();
+    frameStartNanos = System.nanoTime();
+  }
+
+  public void endFrame() {
+    long now = System.nanoTime();
+    paintNanos += now - frameStartNanos;
+    allocatedBytes += threadBean.getCurrentThreadAllocatedBytes() - frameStartBytes;
+    frames++;
+
+    if (now - intervalStart >= REPORT_INTERVAL_NANOS) {
+      double seconds = (now - intervalStart) / 1e9;
+      System.err.printf("%s: %.1f frames/s, %.2f ms/frame, %d bytes/frame%n",
+          name, frames / seconds, paintNanos / 1e6 / frames, allocatedBytes / frames);
+      frames = 0;
+      paintNanos = 0;
+      allocatedBytes = 0;
+      intervalStart = now;
+    }
+  }
+}
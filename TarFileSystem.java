@@ -0,0 +1,706 @@
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedFileSystemException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.FileStoreAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A tar archive, optionally gzip-compressed, opened as a read-only file system. The headers are
+ * read once, when it is opened, into an index of every entry; data is read only for the entries
+ * that are opened. In an uncompressed archive an entry is read in place, while a compressed
+ * archive has to be decompressed from the start up to the entry.
+ */
+public class TarFileSystem extends FileSystem {
+
+  private static final int BLOCK_SIZE = 512;
+  private static final int STREAM_BUFFER_BYTES = 64 * 1024;
+  private static final int MAX_HEADER_DATA_BYTES = 1024 * 1024;
+  private static final int MAX_PARKED_STREAMS = 8;
+
+  // The attributes of an entry, and the children of a directory.
+  static final class Entry implements BasicFileAttributes {
+
+    final long offset;
+    final long size;
+    final boolean directory;
+    final boolean regularFile;
+    final Map<String, Entry> children;
+    FileTime lastModified;
+
+    Entry(long offset, long size, boolean directory, boolean regularFile,
+        FileTime lastModified) {
+      this.offset = offset;
+      this.size = size;
+      this.directory = directory;
+      this.regularFile = regularFile;
+      this.children = directory ? new LinkedHashMap<>() : null;
+      this.lastModified = lastModified;
+    }
+
+    @Override
+    public FileTime lastModifiedTime() {
+      return lastModified;
+    }
+
+    @Override
+    public FileTime lastAccessTime() {
+      return lastModified;
+    }
+
+    @Override
+    public FileTime creationTime() {
+      return lastModified;
+    }
+
+    @Override
+    public boolean isRegularFile() {
+      return regularFile;
+    }
+
+    @Override
+    public boolean isDirectory() {
+      return directory;
+    }
+
+    // Links are listed, but not followed or extracted.
+    @Override
+    public boolean isSymbolicLink() {
+      return false;
+    }
+
+    @Override
+    public boolean isOther() {
+      return !directory && !regularFile;
+    }
+
+    @Override
+    public long size() {
+      return size;
+    }
+
+    @Override
+    public Object fileKey() {
+      return null;
+    }
+  }
+
+  private final TarFileSystemProvider provider;
+  private final Path archive;
+  private final boolean compressed;
+  // Shared by all entry channels of an uncompressed archive, which read at their own positions.
+  private final FileChannel channel;
+  private final Map<String, Entry> entries = new HashMap<>();
+  private final FileStore fileStore = new TarFileStore();
+  // Streams of a compressed archive left where the last entry read from them ended, so that
+  // entries read in archive order are decompressed once, not from the start each time.
+  private final List<ArchiveStream> parked = new ArrayList<>();
+  private volatile boolean open = true;
+
+  TarFileSystem(TarFileSystemProvider provider, Path archive) throws IOException {
+    this.provider = provider;
+    this.archive = archive;
+    String name = archive.getFileName().toString().toLowerCase(Locale.ROOT);
+    this.compressed = name.endsWith(".gz") || name.endsWith(".tgz");
+    FileTime archiveModified = Files.getLastModifiedTime(archive);
+    entries.put("/", new Entry(0, 0, true, false, archiveModified));
+    try (InputStream in = openArchive()) {
+      index(in, archiveModified);
+    } catch (NumberFormatException e) {
+      throw new IOException(archive + " has a damaged header", e);
+    }
+    this.channel = compressed ? null : FileChannel.open(archive, StandardOpenOption.READ);
+  }
+
+  public Path getArchive() {
+    return archive;
+  }
+
+  private InputStream openArchive() throws IOException {
+    InputStream in = Files.newInputStream(archive);
+    try {
+      return compressed ? new GZIPInputStream(in, STREAM_BUFFER_BYTES)
+          : new BufferedInputStream(in, STREAM_BUFFER_BYTES);
+    } catch (IOException e) {
+      in.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Reads the archive header by header, skipping over the data. Long names come from GNU long
+   * name entries or pax extended headers, which apply to the entry that follows them.
+   */
+  private void index(InputStream in, FileTime archiveModified) throws IOException {
+    byte[] header = new byte[BLOCK_SIZE];
+    String longName = null;
+    Map<String, String> extended = Map.of();
+    long position = 0;
+    while (in.readNBytes(header, 0, BLOCK_SIZE) == BLOCK_SIZE && !isZeroBlock(header)) {
+      if (!hasValidChecksum(header)) {
+        throw new IOException(archive + " is not a tar archive or is damaged at offset "
+            + position);
+      }
+      char type = (char) header[156];
+      boolean named = type != 'L' && type != 'x' && type != 'g' && type != 'K';
+      long size = named && extended.containsKey("size") ? Long.parseLong(extended.get("size"))
+          : parseNumber(header, 124, 12);
+      long padded = (size + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+      long data = position + BLOCK_SIZE;
+      position = data + padded;
+
+      if (type == 'L' || type == 'x') {
+        if (size > MAX_HEADER_DATA_BYTES) {
+          throw new IOException(archive + " has an oversized header at offset " + data);
+        }
+        byte[] content = in.readNBytes((int) size);
+        in.skipNBytes(padded - size);
+        if (type == 'L') {
+          longName = parseString(content, 0, content.length);
+        } else {
+          extended = parseExtendedHeader(content);
+        }
+        continue;
+      }
+      in.skipNBytes(padded);
+      if (!named) {
+        // Global headers and long link names do not name an entry.
+        continue;
+      }
+
+      String name = extended.getOrDefault("path",
+          longName != null ? longName : headerName(header));
+      FileTime lastModified = extended.containsKey("mtime")
+          ? FileTime.fromMillis((long) (Double.parseDouble(extended.get("mtime")) * 1000))
+          : FileTime.fromMillis(parseNumber(header, 136, 12) * 1000);
+      boolean directory = type == '5' || (type == '0' || type == 0) && name.endsWith("/");
+      boolean regularFile = !directory && (type == '0' || type == 0 || type == '7');
+      add(name, new Entry(data, regularFile ? size : 0, directory, regularFile, lastModified),
+          archiveModified);
+      longName = null;
+      extended = Map.of();
+    }
+  }
+
+  private void add(String name, Entry entry, FileTime archiveModified) {
+    String path = normalize(name);
+    if (path == null) {
+      // Names that climb out of the archive are not listed.
+      return;
+    }
+    if (path.equals("/")) {
+      entries.get("/").lastModified = entry.lastModified;
+      return;
+    }
+    int slash = path.lastIndexOf('/');
+    Entry parent = directory(slash == 0 ? "/" : path.substring(0, slash), archiveModified);
+    Entry existing = entries.get(path);
+    if (existing != null && existing.directory && entry.directory) {
+      // Listed after one of its children, which created it.
+      existing.lastModified = entry.lastModified;
+      return;
+    }
+    // A later entry of the same name replaces the earlier one, as it would when extracted.
+    entries.put(path, entry);
+    parent.children.put(path.substring(slash + 1), entry);
+  }
+
+  // Returns the directory, creating it and its parents when the archive does not list them.
+  private Entry directory(String path, FileTime archiveModified) {
+    Entry entry = entries.get(path);
+    if (entry != null && entry.directory) {
+      return entry;
+    }
+    int slash = path.lastIndexOf('/');
+    Entry parent = directory(slash == 0 ? "/" : path.substring(0, slash), archiveModified);
+    entry = new Entry(0, 0, true, false, archiveModified);
+    entries.put(path, entry);
+    parent.children.put(path.substring(slash + 1), entry);
+    return entry;
+  }
+
+  // The absolute form of an entry name, or null if it points outside the archive.
+  private static String normalize(String name) {
+    List<String> kept = new ArrayList<>();
+    for (String element : name.split("/")) {
+      if (element.isEmpty() || element.equals(".")) {
+        continue;
+      }
+      if (element.equals("..")) {
+        if (kept.isEmpty()) {
+          return null;
+        }
+        kept.remove(kept.size() - 1);
+      } else {
+        kept.add(element);
+      }
+    }
+    return "/" + String.join("/", kept);
+  }
+
+  private static boolean isZeroBlock(byte[] header) {
+    for (byte b : header) {
+      if (b != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // The checksum is the sum of the header bytes with the checksum field read as spaces.
+  private static boolean hasValidChecksum(byte[] header) {
+    long sum = 0;
+    for (int i = 0; i < BLOCK_SIZE; i++) {
+      sum += i >= 148 && i < 156 ? ' ' : header[i] & 0xff;
+    }
+    try {
+      return sum == parseNumber(header, 148, 8);
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  private static String headerName(byte[] header) {
+    String name = parseString(header, 0, 100);
+    // Only POSIX ustar headers have a prefix; GNU headers keep other fields there.
+    boolean ustar = parseString(header, 257, 6).equals("ustar") && header[262] == 0;
+    String prefix = ustar ? parseString(header, 345, 155) : "";
+    return prefix.isEmpty() ? name : prefix + "/" + name;
+  }
+
+  private static String parseString(byte[] bytes, int offset, int length) {
+    int end = offset;
+    while (end < offset + length && bytes[end] != 0) {
+      end++;
+    }
+    return new String(bytes, offset, end - offset, StandardCharsets.UTF_8);
+  }
+
+  // Octal digits padded with spaces or NULs, or big-endian binary when the top bit is set.
+  private static long parseNumber(byte[] header, int offset, int length) {
+    if ((header[offset] & 0x80) != 0) {
+      long value = header[offset] & 0x7f;
+      for (int i = offset + 1; i < offset + length; i++) {
+        value = value << 8 | header[i] & 0xff;
+      }
+      return value;
+    }
+    long value = 0;
+    boolean digits = false;
+    for (int i = offset; i < offset + length; i++) {
+      byte b = header[i];
+      if (b >= '0' && b <= '7') {
+        value = value * 8 + b - '0';
+        digits = true;
+      } else if (b == 0 || b == ' ') {
+        if (digits) {
+          break;
+        }
+      } else {
+        throw new NumberFormatException("Invalid octal field at " + offset);
+      }
+    }
+    return value;
+  }
+
+  // Records of the form "<length> <key>=<value>\n", where the length counts the whole record.
+  private static Map<String, String> parseExtendedHeader(byte[] content) throws IOException {
+    Map<String, String> records = new HashMap<>();
+    int position = 0;
+    while (position < content.length && content[position] != 0) {
+      int space = position;
+      while (space < content.length && content[space] != ' ') {
+        space++;
+      }
+      int length;
+      try {
+        length = Integer.parseInt(
+            new String(content, position, space - position, StandardCharsets.US_ASCII));
+      } catch (NumberFormatException e) {
+        throw new IOException("Damaged extended header");
+      }
+      if (length <= space - position || position + length > content.length) {
+        throw new IOException("Damaged extended header");
+      }
+      String record = new String(content, space + 1, position + length - space - 2,
+          StandardCharsets.UTF_8);
+      int equals = record.indexOf('=');
+      if (equals > 0) {
+        records.put(record.substring(0, equals), record.substring(equals + 1));
+      }
+      position += length;
+    }
+    return records;
+  }
+
+  Entry entry(TarPath path) throws IOException {
+    if (!open) {
+      throw new ClosedFileSystemException();
+    }
+    Entry entry = entries.get(path.toAbsolutePath().normalize().toString());
+    if (entry == null) {
+      throw new NoSuchFileException(path.toString());
+    }
+    return entry;
+  }
+
+  SeekableByteChannel newByteChannel(TarPath path) throws IOException {
+    Entry entry = entry(path);
+    if (entry.directory) {
+      throw new IOException(path + " is a directory");
+    }
+    if (!entry.regularFile) {
+      throw new IOException(path + " is a link or special file, which cannot be extracted");
+    }
+    if (!compressed) {
+      return new EntryChannel(null, entry.offset, entry.size);
+    }
+    ArchiveStream stream = unpark(entry.offset);
+    if (stream == null) {
+      stream = new ArchiveStream(openArchive());
+    }
+    try {
+      stream.in.skipNBytes(entry.offset - stream.position);
+      stream.position = entry.offset;
+    } catch (IOException e) {
+      stream.in.close();
+      throw e;
+    }
+    return new EntryChannel(stream, entry.offset, entry.size);
+  }
+
+  // The parked stream that has read the furthest without passing offset.
+  private ArchiveStream unpark(long offset) {
+    synchronized (parked) {
+      ArchiveStream best = null;
+      for (ArchiveStream stream : parked) {
+        if (stream.position <= offset && (best == null || stream.position > best.position)) {
+          best = stream;
+        }
+      }
+      parked.remove(best);
+      return best;
+    }
+  }
+
+  private void park(ArchiveStream stream) throws IOException {
+    ArchiveStream evicted = stream;
+    synchronized (parked) {
+      if (open) {
+        parked.add(stream);
+        evicted = parked.size() > MAX_PARKED_STREAMS ? parked.remove(0) : null;
+      }
+    }
+    if (evicted != null) {
+      evicted.in.close();
+    }
+  }
+
+  DirectoryStream<Path> newDirectoryStream(TarPath directory,
+      DirectoryStream.Filter<? super Path> filter) throws IOException {
+    Entry entry = entry(directory);
+    if (!entry.directory) {
+      throw new NotDirectoryException(directory.toString());
+    }
+    List<Path> children = new ArrayList<>(entry.children.size());
+    for (String name : entry.children.keySet()) {
+      Path child = directory.resolve(name);
+      if (filter.accept(child)) {
+        children.add(child);
+      }
+    }
+    return new DirectoryStream<>() {
+      @Override
+      public Iterator<Path> iterator() {
+        if (!open) {
+          throw new DirectoryIteratorException(new ClosedChannelException());
+        }
+        return children.iterator();
+      }
+
+      @Override
+      public void close() {
+        // The listing was taken from the index when the stream was opened.
+      }
+    };
+  }
+
+  @Override
+  public TarFileSystemProvider provider() {
+    return provider;
+  }
+
+  @Override
+  public void close() throws IOException {
+    List<ArchiveStream> streams;
+    synchronized (parked) {
+      open = false;
+      streams = new ArrayList<>(parked);
+      parked.clear();
+    }
+    for (ArchiveStream stream : streams) {
+      stream.in.close();
+    }
+    if (channel != null) {
+      channel.close();
+    }
+  }
+
+  @Override
+  public boolean isOpen() {
+    return open;
+  }
+
+  @Override
+  public boolean isReadOnly() {
+    return true;
+  }
+
+  @Override
+  public String getSeparator() {
+    return "/";
+  }
+
+  @Override
+  public Iterable<Path> getRootDirectories() {
+    return List.of(new TarPath(this, "/"));
+  }
+
+  @Override
+  public Iterable<FileStore> getFileStores() {
+    return List.of(fileStore);
+  }
+
+  @Override
+  public Set<String> supportedFileAttributeViews() {
+    return Set.of("basic");
+  }
+
+  @Override
+  public TarPath getPath(String first, String... more) {
+    StringBuilder path = new StringBuilder(first);
+    for (String element : more) {
+      if (!element.isEmpty()) {
+        path.append(path.length() > 0 ? "/" : "").append(element);
+      }
+    }
+    return new TarPath(this, path.toString());
+  }
+
+  // Matches the way the default file system would match the same path.
+  @Override
+  public PathMatcher getPathMatcher(String syntaxAndPattern) {
+    PathMatcher matcher = FileSystems.getDefault().getPathMatcher(syntaxAndPattern);
+    return path -> matcher.matches(Paths.get(path.toString()));
+  }
+
+  @Override
+  public UserPrincipalLookupService getUserPrincipalLookupService() {
+    throw new UnsupportedOperationException("Tar archives have no user lookup");
+  }
+
+  @Override
+  public WatchService newWatchService() {
+    throw new UnsupportedOperationException("Tar archives cannot be watched");
+  }
+
+  // A decompressing stream, and how far into the uncompressed archive it has read.
+  private static final class ArchiveStream {
+
+    final InputStream in;
+    long position;
+
+    ArchiveStream(InputStream in) {
+      this.in = in;
+    }
+  }
+
+  // Reads one entry, in place in an uncompressed archive or from a decompressing stream.
+  private final class EntryChannel implements SeekableByteChannel {
+
+    private final ArchiveStream stream;
+    private final long offset;
+    private final long size;
+    private long position;
+    private boolean channelOpen = true;
+
+    EntryChannel(ArchiveStream stream, long offset, long size) {
+      this.stream = stream;
+      this.offset = offset;
+      this.size = size;
+    }
+
+    @Override
+    public int read(ByteBuffer destination) throws IOException {
+      if (!channelOpen) {
+        throw new ClosedChannelException();
+      }
+      if (position >= size) {
+        return -1;
+      }
+      int length = (int) Math.min(destination.remaining(), size - position);
+      int read;
+      if (stream == null) {
+        read = channel.read(destination.slice().limit(length), offset + position);
+      } else if (destination.hasArray()) {
+        read = stream.in.read(destination.array(),
+            destination.arrayOffset() + destination.position(), length);
+      } else {
+        byte[] bytes = new byte[Math.min(length, STREAM_BUFFER_BYTES)];
+        read = stream.in.read(bytes, 0, bytes.length);
+        if (read > 0) {
+          destination.duplicate().put(bytes, 0, read);
+        }
+      }
+      if (read < 0) {
+        throw new EOFException("The archive ends inside an entry");
+      }
+      destination.position(destination.position() + read);
+      position += read;
+      if (stream != null) {
+        stream.position += read;
+      }
+      return read;
+    }
+
+    @Override
+    public int write(ByteBuffer source) {
+      throw new NonWritableChannelException();
+    }
+
+    @Override
+    public long position() {
+      return position;
+    }
+
+    // A compressed archive is decompressed as it is read, so it is read forwards only.
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException {
+      if (stream != null) {
+        if (newPosition < position) {
+          throw new IOException("Entries of compressed archives can only be read forwards");
+        }
+        long skip = Math.min(newPosition, size) - Math.min(position, size);
+        stream.in.skipNBytes(skip);
+        stream.position += skip;
+      }
+      position = newPosition;
+      return this;
+    }
+
+    @Override
+    public long size() {
+      return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+      throw new NonWritableChannelException();
+    }
+
+    @Override
+    public boolean isOpen() {
+      return channelOpen;
+    }
+
+    // The stream is kept for reading a later entry, as tools extract in archive order.
+    @Override
+    public void close() throws IOException {
+      if (channelOpen && stream != null) {
+        park(stream);
+      }
+      channelOpen = false;
+    }
+  }
+
+  private final class TarFileStore extends FileStore {
+
+    @Override
+    public String name() {
+      return archive.toString();
+    }
+
+    @Override
+    public String type() {
+      return "tar";
+    }
+
+    @Override
+    public boolean isReadOnly() {
+      return true;
+    }
+
+    @Override
+    public long getTotalSpace() throws IOException {
+      return Files.size(archive);
+    }
+
+    @Override
+    public long getUsableSpace() {
+      return 0;
+    }
+
+    @Override
+    public long getUnallocatedSpace() {
+      return 0;
+    }
+
+    @Override
+    public boolean supportsFileAttributeView(Class<? extends FileAttributeView> type) {
+      return type == BasicFileAttributeView.class;
+    }
+
+    @Override
+    public boolean supportsFileAttributeView(String name) {
+      return name.equals("basic");
+    }
+
+    @Override
+    public <V extends FileStoreAttributeView> V getFileStoreAttributeView(Class<V> type) {
+      return null;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) {
+      throw new UnsupportedOperationException("'" + attribute + "' is not supported");
+    }
+
+    @Override
+    public String toString() {
+      return name();
+    }
+  }
+}
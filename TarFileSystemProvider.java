@@ -0,0 +1,217 @@
+import java.io.IOException;
+import java.net.URI;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.AccessMode;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.LinkOption;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The provider of {@link TarFileSystem}. It is not installed, so archives are opened through
+ * {@link #newFileSystem(Path, Map)} rather than by URI. Everything that would change an archive
+ * fails with an AccessDeniedException, which callers already handle as an I/O error.
+ */
+public class TarFileSystemProvider extends FileSystemProvider {
+
+  static final TarFileSystemProvider INSTANCE = new TarFileSystemProvider();
+
+  private static TarPath toTarPath(Path path) {
+    if (!(path instanceof TarPath)) {
+      throw new ProviderMismatchException();
+    }
+    return (TarPath) path;
+  }
+
+  static AccessDeniedException readOnly(Path path) {
+    return new AccessDeniedException(path.toString(), null, "Tar archives are read-only");
+  }
+
+  @Override
+  public String getScheme() {
+    return "tar";
+  }
+
+  @Override
+  public FileSystem newFileSystem(URI uri, Map<String, ?> env) {
+    throw new UnsupportedOperationException("Open tar archives by path");
+  }
+
+  @Override
+  public TarFileSystem newFileSystem(Path archive, Map<String, ?> env) throws IOException {
+    return new TarFileSystem(this, archive);
+  }
+
+  @Override
+  public FileSystem getFileSystem(URI uri) {
+    throw new UnsupportedOperationException("Open tar archives by path");
+  }
+
+  @Override
+  public Path getPath(URI uri) {
+    throw new UnsupportedOperationException("Open tar archives by path");
+  }
+
+  @Override
+  public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options,
+      FileAttribute<?>... attributes) throws IOException {
+    for (OpenOption option : options) {
+      if (option != StandardOpenOption.READ && option != LinkOption.NOFOLLOW_LINKS) {
+        throw readOnly(path);
+      }
+    }
+    TarPath tarPath = toTarPath(path);
+    return tarPath.getFileSystem().newByteChannel(tarPath);
+  }
+
+  @Override
+  public DirectoryStream<Path> newDirectoryStream(Path directory,
+      DirectoryStream.Filter<? super Path> filter) throws IOException {
+    TarPath tarPath = toTarPath(directory);
+    return tarPath.getFileSystem().newDirectoryStream(tarPath, filter);
+  }
+
+  @Override
+  public void createDirectory(Path directory, FileAttribute<?>... attributes)
+      throws IOException {
+    throw readOnly(directory);
+  }
+
+  @Override
+  public void delete(Path path) throws IOException {
+    throw readOnly(path);
+  }
+
+  @Override
+  public void copy(Path source, Path target, CopyOption... options) throws IOException {
+    throw readOnly(target);
+  }
+
+  @Override
+  public void move(Path source, Path target, CopyOption... options) throws IOException {
+    throw readOnly(source);
+  }
+
+  @Override
+  public boolean isSameFile(Path path, Path other) throws IOException {
+    return toTarPath(path).toRealPath().equals(toTarPath(other).toRealPath());
+  }
+
+  @Override
+  public boolean isHidden(Path path) {
+    Path name = path.getFileName();
+    return name != null && name.toString().startsWith(".");
+  }
+
+  @Override
+  public FileStore getFileStore(Path path) throws IOException {
+    TarPath tarPath = toTarPath(path);
+    tarPath.getFileSystem().entry(tarPath);
+    return tarPath.getFileSystem().getFileStores().iterator().next();
+  }
+
+  @Override
+  public void checkAccess(Path path, AccessMode... modes) throws IOException {
+    TarPath tarPath = toTarPath(path);
+    tarPath.getFileSystem().entry(tarPath);
+    for (AccessMode mode : modes) {
+      if (mode == AccessMode.WRITE) {
+        throw readOnly(path);
+      }
+    }
+  }
+
+  @Override
+  public <V extends FileAttributeView> V getFileAttributeView(Path path, Class<V> type,
+      LinkOption... options) {
+    TarPath tarPath = toTarPath(path);
+    if (type != BasicFileAttributeView.class) {
+      return null;
+    }
+    return type.cast(new BasicFileAttributeView() {
+      @Override
+      public String name() {
+        return "basic";
+      }
+
+      @Override
+      public BasicFileAttributes readAttributes() throws IOException {
+        return tarPath.getFileSystem().entry(tarPath);
+      }
+
+      @Override
+      public void setTimes(FileTime lastModifiedTime, FileTime lastAccessTime,
+          FileTime createTime) throws IOException {
+        throw readOnly(tarPath);
+      }
+    });
+  }
+
+  @Override
+  public <A extends BasicFileAttributes> A readAttributes(Path path, Class<A> type,
+      LinkOption... options) throws IOException {
+    if (type != BasicFileAttributes.class) {
+      throw new UnsupportedOperationException(type.getSimpleName() + " are not supported");
+    }
+    TarPath tarPath = toTarPath(path);
+    return type.cast(tarPath.getFileSystem().entry(tarPath));
+  }
+
+  @Override
+  public Map<String, Object> readAttributes(Path path, String attributes,
+      LinkOption... options) throws IOException {
+    String names = attributes;
+    int colon = attributes.indexOf(':');
+    if (colon >= 0) {
+      if (!attributes.substring(0, colon).equals("basic")) {
+        throw new UnsupportedOperationException("View '" + attributes.substring(0, colon)
+            + "' is not supported");
+      }
+      names = attributes.substring(colon + 1);
+    }
+    TarPath tarPath = toTarPath(path);
+    BasicFileAttributes entry = tarPath.getFileSystem().entry(tarPath);
+    Map<String, Object> all = new LinkedHashMap<>();
+    all.put("lastModifiedTime", entry.lastModifiedTime());
+    all.put("lastAccessTime", entry.lastAccessTime());
+    all.put("creationTime", entry.creationTime());
+    all.put("size", entry.size());
+    all.put("isRegularFile", entry.isRegularFile());
+    all.put("isDirectory", entry.isDirectory());
+    all.put("isSymbolicLink", entry.isSymbolicLink());
+    all.put("isOther", entry.isOther());
+    all.put("fileKey", entry.fileKey());
+    if (names.equals("*")) {
+      return all;
+    }
+    Map<String, Object> selected = new LinkedHashMap<>();
+    for (String name : names.split(",")) {
+      if (!all.containsKey(name)) {
+        throw new IllegalArgumentException("Unknown attribute '" + name + "'");
+      }
+      selected.put(name, all.get(name));
+    }
+    return selected;
+  }
+
+  @Override
+  public void setAttribute(Path path, String attribute, Object value, LinkOption... options)
+      throws IOException {
+    throw readOnly(path);
+  }
+}
@@ -0,0 +1,247 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+// A path inside a tar archive, with Unix path syntax.
+public final class TarPath implements Path {
+
+  private static final String[] NO_NAMES = new String[0];
+
+  private final TarFileSystem fileSystem;
+  private final String path;
+  private String[] names;
+
+  TarPath(TarFileSystem fileSystem, String path) {
+    this.fileSystem = fileSystem;
+    this.path = clean(path);
+  }
+
+  // Collapses repeated slashes and drops a trailing one.
+  private static String clean(String path) {
+    StringBuilder cleaned = new StringBuilder(path.length());
+    for (int i = 0; i < path.length(); i++) {
+      char c = path.charAt(i);
+      if (c != '/' || cleaned.length() == 0 || cleaned.charAt(cleaned.length() - 1) != '/') {
+        cleaned.append(c);
+      }
+    }
+    if (cleaned.length() > 1 && cleaned.charAt(cleaned.length() - 1) == '/') {
+      cleaned.setLength(cleaned.length() - 1);
+    }
+    return cleaned.toString();
+  }
+
+  // The name elements; the root and the empty path have none.
+  private String[] names() {
+    if (names == null) {
+      String relative = isAbsolute() ? path.substring(1) : path;
+      names = relative.isEmpty() ? NO_NAMES : relative.split("/");
+    }
+    return names;
+  }
+
+  private TarPath check(Path other) {
+    if (!(other instanceof TarPath)) {
+      throw new ProviderMismatchException();
+    }
+    return (TarPath) other;
+  }
+
+  @Override
+  public TarFileSystem getFileSystem() {
+    return fileSystem;
+  }
+
+  @Override
+  public boolean isAbsolute() {
+    return path.startsWith("/");
+  }
+
+  @Override
+  public TarPath getRoot() {
+    return isAbsolute() ? new TarPath(fileSystem, "/") : null;
+  }
+
+  @Override
+  public TarPath getFileName() {
+    if (path.isEmpty()) {
+      return this;
+    }
+    String[] elements = names();
+    return elements.length == 0 ? null : new TarPath(fileSystem, elements[elements.length - 1]);
+  }
+
+  @Override
+  public TarPath getParent() {
+    int slash = path.lastIndexOf('/');
+    if (slash < 0 || path.equals("/")) {
+      return null;
+    }
+    return new TarPath(fileSystem, slash == 0 ? "/" : path.substring(0, slash));
+  }
+
+  @Override
+  public int getNameCount() {
+    return path.isEmpty() ? 1 : names().length;
+  }
+
+  @Override
+  public TarPath getName(int index) {
+    return subpath(index, index + 1);
+  }
+
+  @Override
+  public TarPath subpath(int beginIndex, int endIndex) {
+    if (path.isEmpty() && beginIndex == 0 && endIndex == 1) {
+      return this;
+    }
+    String[] elements = names();
+    if (beginIndex < 0 || endIndex > elements.length || beginIndex >= endIndex) {
+      throw new IllegalArgumentException(beginIndex + ", " + endIndex);
+    }
+    return new TarPath(fileSystem,
+        String.join("/", Arrays.copyOfRange(elements, beginIndex, endIndex)));
+  }
+
+  @Override
+  public boolean startsWith(Path other) {
+    if (!(other instanceof TarPath) || other.getFileSystem() != fileSystem) {
+      return false;
+    }
+    TarPath prefix = (TarPath) other;
+    if (prefix.isAbsolute() != isAbsolute() || prefix.path.isEmpty() && !path.isEmpty()) {
+      return false;
+    }
+    String[] elements = names();
+    String[] prefixElements = prefix.names();
+    return prefixElements.length <= elements.length
+        && Arrays.equals(elements, 0, prefixElements.length, prefixElements, 0,
+            prefixElements.length);
+  }
+
+  @Override
+  public boolean endsWith(Path other) {
+    if (!(other instanceof TarPath) || other.getFileSystem() != fileSystem) {
+      return false;
+    }
+    TarPath suffix = (TarPath) other;
+    if (suffix.isAbsolute()) {
+      return equals(suffix);
+    }
+    if (suffix.path.isEmpty()) {
+      return path.isEmpty();
+    }
+    String[] elements = names();
+    String[] suffixElements = suffix.names();
+    int offset = elements.length - suffixElements.length;
+    return offset >= 0 && Arrays.equals(elements, offset, elements.length, suffixElements, 0,
+        suffixElements.length);
+  }
+
+  @Override
+  public TarPath normalize() {
+    Deque<String> kept = new ArrayDeque<>();
+    for (String name : names()) {
+      if (name.equals(".")) {
+        continue;
+      }
+      if (name.equals("..") && !kept.isEmpty() && !kept.peekLast().equals("..")) {
+        kept.removeLast();
+      } else if (!name.equals("..") || !isAbsolute()) {
+        kept.addLast(name);
+      }
+    }
+    return new TarPath(fileSystem, (isAbsolute() ? "/" : "") + String.join("/", kept));
+  }
+
+  @Override
+  public TarPath resolve(Path other) {
+    TarPath child = check(other);
+    if (child.isAbsolute() || path.isEmpty()) {
+      return child;
+    }
+    if (child.path.isEmpty()) {
+      return this;
+    }
+    return new TarPath(fileSystem, path + "/" + child.path);
+  }
+
+  @Override
+  public TarPath relativize(Path other) {
+    TarPath target = check(other);
+    if (target.isAbsolute() != isAbsolute()) {
+      throw new IllegalArgumentException("'" + other + "' is not relative to '" + this + "'");
+    }
+    String[] from = names();
+    String[] to = target.names();
+    int common = 0;
+    while (common < from.length && common < to.length && from[common].equals(to[common])) {
+      common++;
+    }
+    StringBuilder relative = new StringBuilder();
+    for (int i = common; i < from.length; i++) {
+      relative.append(relative.length() > 0 ? "/.." : "..");
+    }
+    for (int i = common; i < to.length; i++) {
+      relative.append(relative.length() > 0 ? "/" : "").append(to[i]);
+    }
+    return new TarPath(fileSystem, relative.toString());
+  }
+
+  @Override
+  public URI toUri() {
+    try {
+      return new URI("tar", fileSystem.getArchive().toUri() + "!" + toAbsolutePath(), null);
+    } catch (URISyntaxException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public TarPath toAbsolutePath() {
+    return isAbsolute() ? this : new TarPath(fileSystem, "/" + path);
+  }
+
+  @Override
+  public TarPath toRealPath(LinkOption... options) throws IOException {
+    TarPath real = toAbsolutePath().normalize();
+    fileSystem.entry(real);
+    return real;
+  }
+
+  @Override
+  public WatchKey register(WatchService watcher, WatchEvent.Kind<?>[] events,
+      WatchEvent.Modifier... modifiers) {
+    throw new UnsupportedOperationException("Tar archives cannot be watched");
+  }
+
+  @Override
+  public int compareTo(Path other) {
+    return path.compareTo(check(other).path);
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    return other instanceof TarPath && ((TarPath) other).fileSystem == fileSystem
+        && ((TarPath) other).path.equals(path);
+  }
+
+  @Override
+  public int hashCode() {
+    return path.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return path;
+  }
+}
@@ -0,0 +1,353 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class Trash {
+
+  private static final String TRASH_DIRECTORY_NAME =
+      ".dpfm-trash-" + System.getProperty("user.name");
+  private static final String FILES = "files";
+  private static final String INFO = "info";
+  private static final String INFO_SUFFIX = ".properties";
+  private static final long PURGE_INTERVAL_SECONDS = 30;
+
+  public static final class Entry {
+
+    private final String id;
+    private final Path trashDirectory;
+    private final Path originalPath;
+    private final long deletedAt;
+    private long size = -1;
+    private boolean purging;
+
+    Entry(String id, Path trashDirectory, Path originalPath, long deletedAt) {
+      this.id = id;
+      this.trashDirectory = trashDirectory;
+      this.originalPath = originalPath;
+      this.deletedAt = deletedAt;
+    }
+
+    public Path getOriginalPath() {
+      return originalPath;
+    }
+
+    public long getDeletedAt() {
+      return deletedAt;
+    }
+
+    Path getTrashedPath() {
+      return trashDirectory.resolve(FILES).resolve(id);
+    }
+
+    Path getInfoPath() {
+      return trashDirectory.resolve(INFO).resolve(id + INFO_SUFFIX);
+    }
+  }
+
+  private final long maxAgeMillis;
+  private final long maxSizeBytes;
+  private final Path registryFile;
+  private final DeleteEngine purgeEngine;
+  private final Map<FileStore, Path> trashDirectories = new ConcurrentHashMap<>();
+  private final List<Entry> pending = new ArrayList<>();
+  private final AtomicInteger sequence = new AtomicInteger();
+  private final ScheduledExecutorService purger = Executors.newSingleThreadScheduledExecutor(
+      Model.daemonThreadFactory("dpfm-trash-purger", Thread.MIN_PRIORITY));
+
+  public Trash(long maxAgeMillis, long maxSizeBytes) {
+    this.maxAgeMillis = maxAgeMillis;
+    this.maxSizeBytes = maxSizeBytes;
+    this.registryFile = Paths.get(System.getProperty("user.home"), ".dpfm", "trash-locations");
+    this.purgeEngine = new DeleteEngine(1, Thread.MIN_PRIORITY);
+
+    purger.execute(this::recoverLeftovers);
+    purger.scheduleWithFixedDelay(this::purge, PURGE_INTERVAL_SECONDS, PURGE_INTERVAL_SECONDS,
+        TimeUnit.SECONDS);
+  }
+
+  public OperationResult moveToTrash(List<Path> paths, OperationProgress progress) {
+    List<OperationResult.Failure> failures = new ArrayList<>();
+    long deletedAt = System.currentTimeMillis();
+    for (Path path : paths) {
+      if (progress.isCancelled()) {
+        break;
+      }
+      try {
+        moveToTrash(path, deletedAt);
+        progress.fileCompleted();
+      } catch (IOException e) {
+        failures.add(new OperationResult.Failure(path, OperationResult.reason(e)));
+      }
+    }
+    return OperationResult.of(progress, failures);
+  }
+
+  private void moveToTrash(Path path, long deletedAt) throws IOException {
+    Path absolute = path.toAbsolutePath().normalize();
+    Path trashDirectory = trashDirectoryFor(absolute);
+    if (trashDirectory == null || absolute.startsWith(trashDirectory)) {
+      throw new IOException("No trash available on this filesystem");
+    }
+
+    String id = deletedAt + "-" + sequence.incrementAndGet();
+    Entry entry = new Entry(id, trashDirectory, absolute, deletedAt);
+    writeInfo(entry);
+    try {
+      Files.move(absolute, entry.getTrashedPath(), StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      Files.deleteIfExists(entry.getInfoPath());
+      throw e;
+    }
+
+    synchronized (pending) {
+      pending.add(entry);
+    }
+  }
+
+  // Items trashed by one operation share a deletion time and are restored together.
+  public List<Entry> getLatestEntries() {
+    List<Entry> latest = new ArrayList<>();
+    synchronized (pending) {
+      for (int i = pending.size() - 1; i >= 0; i--) {
+        Entry entry = pending.get(i);
+        if (entry.purging) {
+          continue;
+        }
+        if (!latest.isEmpty() && entry.deletedAt != latest.get(0).deletedAt) {
+          break;
+        }
+        latest.add(entry);
+      }
+    }
+    return latest;
+  }
+
+  public OperationResult restore(List<Entry> entries, OperationProgress progress) {
+    List<OperationResult.Failure> failures = new ArrayList<>();
+    for (Entry entry : entries) {
+      try {
+        restore(entry);
+        progress.fileCompleted();
+      } catch (IOException e) {
+        failures.add(new OperationResult.Failure(entry.originalPath, OperationResult.reason(e)));
+      }
+    }
+    return OperationResult.of(progress, failures);
+  }
+
+  private void restore(Entry entry) throws IOException {
+    synchronized (pending) {
+      if (entry.purging || !pending.remove(entry)) {
+        throw new IOException("Already purged from trash");
+      }
+    }
+
+    try {
+      if (Files.exists(entry.originalPath, LinkOption.NOFOLLOW_LINKS)) {
+        throw new IOException("A file with the original name already exists");
+      }
+      Files.createDirectories(entry.originalPath.getParent());
+      Files.move(entry.getTrashedPath(), entry.originalPath, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      synchronized (pending) {
+        pending.add(entry);
+        pending.sort(Comparator.comparingLong(Entry::getDeletedAt));
+      }
+      throw e;
+    }
+    Files.deleteIfExists(entry.getInfoPath());
+  }
+
+  // The store is that of the parent directory, since Files.getFileStore follows a link and the
+  // link itself is what gets moved, even when it dangles or points to another filesystem.
+  private Path trashDirectoryFor(Path path) throws IOException {
+    Path directory = path.getParent() != null ? path.getParent() : path;
+    FileStore store = Files.getFileStore(directory);
+    Path cached = trashDirectories.get(store);
+    if (cached != null) {
+      return cached;
+    }
+
+    Path mountRoot = directory;
+    while (mountRoot.getParent() != null
+        && store.equals(Files.getFileStore(mountRoot.getParent()))) {
+      mountRoot = mountRoot.getParent();
+    }
+
+    List<Path> candidates = new ArrayList<>();
+    candidates.add(mountRoot.resolve(TRASH_DIRECTORY_NAME));
+    Path home = Paths.get(System.getProperty("user.home"));
+    if (Files.isDirectory(home) && store.equals(Files.getFileStore(home))) {
+      candidates.add(home.resolve(".dpfm").resolve("trash"));
+    }
+
+    for (Path candidate : candidates) {
+      try {
+        Files.createDirectories(candidate.resolve(FILES));
+        Files.createDirectories(candidate.resolve(INFO));
+        if (store.equals(Files.getFileStore(candidate))) {
+          register(candidate);
+          trashDirectories.put(store, candidate);
+          return candidate;
+        }
+      } catch (IOException e) {
+        // Not writable; try the next candidate.
+      }
+    }
+    return null;
+  }
+
+  private void writeInfo(Entry entry) throws IOException {
+    Properties info = new Properties();
+    info.setProperty("path", entry.originalPath.toString());
+    info.setProperty("deleted", Long.toString(entry.deletedAt));
+    try (Writer writer = Files.newBufferedWriter(entry.getInfoPath())) {
+      info.store(writer, null);
+    }
+  }
+
+  private synchronized void register(Path trashDirectory) throws IOException {
+    List<String> locations = readRegistry();
+    if (!locations.contains(trashDirectory.toString())) {
+      Files.createDirectories(registryFile.getParent());
+      Files.writeString(registryFile, trashDirectory + System.lineSeparator(),
+          StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+  }
+
+  private List<String> readRegistry() throws IOException {
+    return Files.exists(registryFile) ? Files.readAllLines(registryFile) : List.of();
+  }
+
+  private void recoverLeftovers() {
+    List<Entry> recovered = new ArrayList<>();
+    try {
+      for (String location : readRegistry()) {
+        Path trashDirectory = Paths.get(location);
+        if (!Files.isDirectory(trashDirectory.resolve(INFO))) {
+          continue;
+        }
+        try (DirectoryStream<Path> infos =
+            Files.newDirectoryStream(trashDirectory.resolve(INFO), "*" + INFO_SUFFIX)) {
+          for (Path infoPath : infos) {
+            Entry entry = readInfo(trashDirectory, infoPath);
+            if (entry != null && Files.exists(entry.getTrashedPath(), LinkOption.NOFOLLOW_LINKS)) {
+              recovered.add(entry);
+            } else {
+              Files.deleteIfExists(infoPath);
+            }
+          }
+        }
+      }
+    } catch (IOException e) {
+      // Leftovers that cannot be read now are picked up on the next start.
+    }
+
+    synchronized (pending) {
+      pending.addAll(recovered);
+      pending.sort(Comparator.comparingLong(Entry::getDeletedAt));
+    }
+  }
+
+  private static Entry readInfo(Path trashDirectory, Path infoPath) {
+    String fileName = infoPath.getFileName().toString();
+    String id = fileName.substring(0, fileName.length() - INFO_SUFFIX.length());
+    Properties info = new Properties();
+    try (Reader reader = Files.newBufferedReader(infoPath)) {
+      info.load(reader);
+      return new Entry(id, trashDirectory, Paths.get(info.getProperty("path")),
+          Long.parseLong(info.getProperty("deleted")));
+    } catch (IOException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  private void purge() {
+    List<Entry> entries;
+    synchronized (pending) {
+      entries = new ArrayList<>(pending);
+    }
+
+    long totalSize = 0;
+    for (Entry entry : entries) {
+      if (entry.size < 0) {
+        entry.size = sizeOf(entry.getTrashedPath());
+      }
+      totalSize += entry.size;
+    }
+
+    long now = System.currentTimeMillis();
+    for (Entry entry : entries) {
+      boolean expired = now - entry.deletedAt >= maxAgeMillis;
+      if (!expired && totalSize <= maxSizeBytes) {
+        continue;
+      }
+
+      synchronized (pending) {
+        if (!pending.contains(entry)) {
+          continue;
+        }
+        entry.purging = true;
+      }
+
+      OperationResult result = purgeEngine.delete(entry.getTrashedPath(), new OperationProgress());
+      if (result.isSuccess()) {
+        try {
+          Files.deleteIfExists(entry.getInfoPath());
+        } catch (IOException e) {
+          // The info file is cleaned up on the next start.
+        }
+        synchronized (pending) {
+          pending.remove(entry);
+        }
+        totalSize -= entry.size;
+      } else {
+        synchronized (pending) {
+          entry.purging = false;
+        }
+      }
+    }
+  }
+
+  private static long sizeOf(Path root) {
+    long[] size = new long[1];
+    try {
+      Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+          size[0] += attributes.size();
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException e) {
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    } catch (IOException e) {
+      return 0;
+    }
+    return size[0];
+  }
+}
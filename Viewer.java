@@ -1,27 +1,46 @@
 import java.awt.BorderLayout;
+import java.awt.CardLayout;
 import java.awt.Color;
 import java.awt.Component;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.GridLayout;
 import java.awt.KeyboardFocusManager;
+import java.awt.RenderingHints;
 import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
 import java.awt.event.FocusAdapter;
 import java.awt.event.FocusEvent;
 import java.awt.event.InputEvent;
+import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
 import java.io.File;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
 import javax.swing.AbstractAction;
 import javax.swing.ActionMap;
 import javax.swing.BorderFactory;
 import javax.swing.DefaultListCellRenderer;
+import javax.swing.DefaultListModel;
 import javax.swing.InputMap;
 import javax.swing.JButton;
 import javax.swing.JComponent;
+import javax.swing.JDialog;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JList;
@@ -34,31 +53,58 @@ import javax.swing.JTable;
 import javax.swing.JTextField;
 import javax.swing.KeyStroke;
 import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.UIManager;
+import javax.swing.border.Border;
 import javax.swing.border.EmptyBorder;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.table.DefaultTableCellRenderer;
+import javax.swing.table.JTableHeader;
 import javax.swing.table.TableCellRenderer;
 
 
 public class Viewer extends JFrame {
 
+  private static final Color SELECTION_BACKGROUND = new Color(0, 0, 128);
+  private static final Color SELECTED_FILE_BACKGROUND = new Color(0, 128, 128);
+  private static final Color SELECTED_FILE_CURSOR_BACKGROUND = new Color(0, 80, 96);
+  private static final Color UNIQUE_FOREGROUND = Color.YELLOW;
+  private static final Color NEWER_FOREGROUND = new Color(96, 255, 96);
+  private static final Color DIFFERENT_FOREGROUND = new Color(255, 128, 128);
+  private static final int WATCH_REFRESH_DELAY_MS = 200;
+  private static final String FILES_CARD = "files";
+  private static final String QUICK_VIEW_CARD = "quickView";
+
   private final Model model;
+  private final IconCache iconCache = new IconCache();
   private Controller controller;
 
   private JPanel leftPanel, rightPanel;
   private JTable leftTable, rightTable;
-  private DefaultTableModel leftTableModel, rightTableModel;
+  private FileTableModel leftTableModel, rightTableModel;
   private JLabel leftStatusBar, rightStatusBar;
+  private String leftStatusText = " ", rightStatusText = " ";
   private JTextField leftPathField, rightPathField;
+  private JPanel leftContent, rightContent;
+  private QuickViewPanel leftQuickView, rightQuickView;
 
   private String leftCurrentPath;
   private String rightCurrentPath;
 
-  private final String[] columnNames = {"Name", "Size", "Date Modified", "Type"};
-  private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-
   private boolean leftPanelActive = true;
 
+  private Future<?> leftLoad, rightLoad;
+  private Future<?> leftSizeCalculation, rightSizeCalculation;
+  private Future<?> leftSearch, rightSearch;
+  private boolean leftSearchResults, rightSearchResults;
+  private int leftLoadGeneration, rightLoadGeneration;
+  // Quick view shows the file under the active panel's cursor in the inactive panel.
+  private boolean quickView;
+  private String previewedPath;
+  private int previewGeneration;
+  private final Timer leftRefreshTimer = createRefreshTimer(true);
+  private final Timer rightRefreshTimer = createRefreshTimer(false);
+
   public Viewer() {
     this(new Model());
   }
@@ -70,6 +116,15 @@ public class Viewer extends JFrame {
     String userHome = System.getProperty("user.home");
     updateLeftPanel(userHome);
     updateRightPanel(userHome);
+
+    model.setDirectoryChangeListener(
+        directory -> SwingUtilities.invokeLater(() -> directoryChanged(directory)));
+  }
+
+  private Timer createRefreshTimer(boolean isLeft) {
+    Timer timer = new Timer(WATCH_REFRESH_DELAY_MS, e -> refreshPanel(isLeft));
+    timer.setRepeats(false);
+    return timer;
   }
 
   public void setController(Controller controller) {
@@ -99,7 +154,12 @@ public class Viewer extends JFrame {
 
     JPanel functionKeyPanel = createFunctionKeyPanel();
     functionKeyPanel.setBackground(Color.BLUE);
-    mainPanel.add(functionKeyPanel, BorderLayout.SOUTH);
+
+    JPanel southPanel = new JPanel(new BorderLayout());
+    southPanel.setBackground(Color.BLUE);
+    southPanel.add(new JobsPanel(model.getJobManager()), BorderLayout.NORTH);
+    southPanel.add(functionKeyPanel, BorderLayout.SOUTH);
+    mainPanel.add(southPanel, BorderLayout.SOUTH);
 
     setupKeyboardShortcuts();
 
@@ -118,33 +178,104 @@ public class Viewer extends JFrame {
     pathField.setForeground(Color.WHITE);
     panel.add(pathField, BorderLayout.NORTH);
 
-    DefaultTableModel tableModel = new DefaultTableModel(columnNames, 0) {
+    FileTableModel tableModel = new FileTableModel();
+
+    RenderStats renderStats =
+        RenderStats.isEnabled() ? new RenderStats(isLeft ? "Left panel" : "Right panel") : null;
+    JTable table = new JTable(tableModel) {
       @Override
-      public boolean isCellEditable(int row, int column) {
-        return false;
+      protected void paintComponent(Graphics g) {
+        if (renderStats == null) {
+          super.paintComponent(g);
+          return;
+        }
+        renderStats.beginFrame();
+        super.paintComponent(g);
+        renderStats.endFrame();
       }
-    };
 
-    JTable table = new JTable(tableModel);
+      // The table's selection is only the cursor; Ctrl+click selects files in the model.
+      @Override
+      public void changeSelection(int row, int column, boolean toggle, boolean extend) {
+        if (toggle && row >= 0 && row < getRowCount()) {
+          tableModel.toggleSelected(row);
+          updateStatusBar(isLeft);
+        }
+        super.changeSelection(row, column, false, extend);
+      }
+    };
     table.setShowGrid(false);
     table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
     table.setRowHeight(20);
     table.setBackground(Color.BLUE);
     table.setForeground(Color.WHITE);
-    table.setSelectionBackground(new Color(0, 0, 128));
+    table.setSelectionBackground(SELECTION_BACKGROUND);
     table.setSelectionForeground(Color.WHITE);
 
-    table.getColumnModel().getColumn(0).setCellRenderer(new FileTableCellRenderer());
+    table.setDefaultRenderer(String.class, new FileTableCellRenderer(isLeft));
+    table.getSelectionModel().addListSelectionListener(e -> {
+      if (!e.getValueIsAdjusting()) {
+        updateStatusBar(isLeft);
+        if (isLeft == leftPanelActive) {
+          updateQuickView();
+        }
+      }
+    });
+    table.addKeyListener(new KeyAdapter() {
+      @Override
+      public void keyTyped(KeyEvent e) {
+        char c = e.getKeyChar();
+        int modifiers = InputEvent.CTRL_DOWN_MASK | InputEvent.ALT_DOWN_MASK
+            | InputEvent.META_DOWN_MASK;
+        if ((e.getModifiersEx() & modifiers) != 0 || Character.isISOControl(c) || c == ' '
+            || c == KeyEvent.CHAR_UNDEFINED) {
+          return;
+        }
+        // + and - select groups unless a filter is being typed.
+        if (!tableModel.isFiltered() && (c == '+' || c == '-')) {
+          return;
+        }
+        applyFilter(isLeft, tableModel.getFilter() + c);
+        e.consume();
+      }
+    });
 
     table.getColumnModel().getColumn(0).setPreferredWidth(200);
     table.getColumnModel().getColumn(1).setPreferredWidth(80);
     table.getColumnModel().getColumn(2).setPreferredWidth(150);
     table.getColumnModel().getColumn(3).setPreferredWidth(80);
 
+    JTableHeader header = table.getTableHeader();
+    TableCellRenderer headerRenderer = header.getDefaultRenderer();
+    header.setDefaultRenderer((headerTable, value, isSelected, hasFocus, row, column) -> {
+      Object title = value;
+      if (headerTable.convertColumnIndexToModel(column) == tableModel.getSortColumn()) {
+        title = value + (tableModel.isSortDescending() ? " \u25bc" : " \u25b2");
+      }
+      return headerRenderer.getTableCellRendererComponent(headerTable, title, isSelected,
+          hasFocus, row, column);
+    });
+    header.addMouseListener(new MouseAdapter() {
+      @Override
+      public void mouseClicked(MouseEvent e) {
+        int column = table.convertColumnIndexToModel(header.columnAtPoint(e.getPoint()));
+        if (column >= 0) {
+          leftPanelActive = isLeft;
+          highlightActivePanel();
+          sortPanel(isLeft, column);
+          table.requestFocusInWindow();
+        }
+      }
+    });
+
     JScrollPane scrollPane = new JScrollPane(table);
     scrollPane.getViewport().setBackground(Color.BLUE);
     scrollPane.setBackground(Color.BLUE);
-    panel.add(scrollPane, BorderLayout.CENTER);
+    QuickViewPanel quickViewPanel = new QuickViewPanel();
+    JPanel content = new JPanel(new CardLayout());
+    content.add(scrollPane, FILES_CARD);
+    content.add(quickViewPanel, QUICK_VIEW_CARD);
+    panel.add(content, BorderLayout.CENTER);
 
     JLabel statusBar = new JLabel(" ");
     statusBar.setBorder(new EmptyBorder(3, 5, 3, 5));
@@ -167,6 +298,8 @@ public class Viewer extends JFrame {
       leftTableModel = tableModel;
       leftPathField = pathField;
       leftStatusBar = statusBar;
+      leftContent = content;
+      leftQuickView = quickViewPanel;
 
       table.addMouseListener(new MouseAdapter() {
         @Override
@@ -196,6 +329,8 @@ public class Viewer extends JFrame {
       rightTableModel = tableModel;
       rightPathField = pathField;
       rightStatusBar = statusBar;
+      rightContent = content;
+      rightQuickView = quickViewPanel;
 
       table.addMouseListener(new MouseAdapter() {
         @Override
@@ -226,17 +361,18 @@ public class Viewer extends JFrame {
   }
 
   private JPanel createFunctionKeyPanel() {
-    JPanel panel = new JPanel(new GridLayout(1, 10, 5, 0));
+    JPanel panel = new JPanel(new GridLayout(1, 11, 5, 0));
     panel.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
     panel.setBackground(Color.BLUE);
 
     JButton f5Button = new JButton("F5 Copy");
     JButton f6Button = new JButton("F6 Move");
+    JButton altF5Button = new JButton("Alt+F5 Pack");
     JButton shiftF6Button = new JButton("Sh+F6 Rename");
     JButton f7Button = new JButton("F7 Mkdir");
     JButton f8Button = new JButton("F8 Delete");
 
-    JButton[] buttons = {f5Button, f6Button, shiftF6Button, f7Button, f8Button};
+    JButton[] buttons = {f5Button, altF5Button, f6Button, shiftF6Button, f7Button, f8Button};
     for (JButton btn : buttons) {
       btn.setBackground(Color.BLUE);
       btn.setForeground(Color.WHITE);
@@ -251,6 +387,12 @@ public class Viewer extends JFrame {
       }
     });
 
+    altF5Button.addActionListener(e -> {
+      if (controller != null) {
+        controller.handlePack();
+      }
+    });
+
     f6Button.addActionListener(e -> {
       if (controller != null) {
         controller.handleMove();
@@ -287,6 +429,7 @@ public class Viewer extends JFrame {
     }
 
     panel.add(f5Button);
+    panel.add(altF5Button);
     panel.add(f6Button);
     panel.add(shiftF6Button);
     panel.add(f7Button);
@@ -331,6 +474,25 @@ public class Viewer extends JFrame {
     leftTable.setFocusTraversalKeys(KeyboardFocusManager.BACKWARD_TRAVERSAL_KEYS, null);
     rightTable.setFocusTraversalKeys(KeyboardFocusManager.BACKWARD_TRAVERSAL_KEYS, null);
 
+    rootInputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_F3, 0), "view");
+    rootActionMap.put("view", new AbstractAction() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        if (controller != null) {
+          controller.handleView();
+        }
+      }
+    });
+
+    rootInputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_F3, InputEvent.ALT_DOWN_MASK),
+        "quickView");
+    rootActionMap.put("quickView", new AbstractAction() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        toggleQuickView();
+      }
+    });
+
     rootInputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_F5, 0), "copy");
     rootActionMap.put("copy", new AbstractAction() {
       @Override
@@ -341,6 +503,16 @@ public class Viewer extends JFrame {
       }
     });
 
+    rootInputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_F5, InputEvent.ALT_DOWN_MASK), "pack");
+    rootActionMap.put("pack", new AbstractAction() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        if (controller != null) {
+          controller.handlePack();
+        }
+      }
+    });
+
     rootInputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_F6, 0), "move");
     rootActionMap.put("move", new AbstractAction() {
       @Override
@@ -371,6 +543,27 @@ public class Viewer extends JFrame {
       }
     });
 
+    rootInputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_F7, InputEvent.ALT_DOWN_MASK), "find");
+    rootActionMap.put("find", new AbstractAction() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        if (controller != null) {
+          controller.handleFind();
+        }
+      }
+    });
+
+    rootInputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_F2, InputEvent.SHIFT_DOWN_MASK),
+        "compare");
+    rootActionMap.put("compare", new AbstractAction() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        if (controller != null) {
+          controller.handleCompare();
+        }
+      }
+    });
+
     rootInputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_F8, 0), "delete");
     rootActionMap.put("delete", new AbstractAction() {
       @Override
@@ -381,6 +574,64 @@ public class Viewer extends JFrame {
       }
     });
 
+    rootInputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_Z,
+        Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx()), "restore");
+    rootActionMap.put("restore", new AbstractAction() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        if (controller != null) {
+          controller.handleRestore();
+        }
+      }
+    });
+
+    leftTableInputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_INSERT, 0), "toggleSelection");
+    rightTableInputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_INSERT, 0), "toggleSelection");
+    AbstractAction toggleSelectionAction = new AbstractAction() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        toggleSelection(leftPanelActive);
+      }
+    };
+    leftTable.getActionMap().put("toggleSelection", toggleSelectionAction);
+    rightTable.getActionMap().put("toggleSelection", toggleSelectionAction);
+
+    leftTableInputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_SPACE, 0), "calculateSize");
+    rightTableInputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_SPACE, 0), "calculateSize");
+    AbstractAction calculateSizeAction = new AbstractAction() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        calculateSizes(leftPanelActive, false);
+      }
+    };
+    leftTable.getActionMap().put("calculateSize", calculateSizeAction);
+    rightTable.getActionMap().put("calculateSize", calculateSizeAction);
+
+    rootInputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_ENTER,
+        InputEvent.ALT_DOWN_MASK | InputEvent.SHIFT_DOWN_MASK), "calculateAllSizes");
+    rootActionMap.put("calculateAllSizes", new AbstractAction() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        calculateSizes(leftPanelActive, true);
+      }
+    });
+
+    rootInputMap.put(KeyStroke.getKeyStroke('+'), "selectGroup");
+    rootActionMap.put("selectGroup", new AbstractAction() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        selectGroup(leftPanelActive, true);
+      }
+    });
+
+    rootInputMap.put(KeyStroke.getKeyStroke('-'), "deselectGroup");
+    rootActionMap.put("deselectGroup", new AbstractAction() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        selectGroup(leftPanelActive, false);
+      }
+    });
+
     rootInputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, 0), "enter");
     rootActionMap.put("enter", new AbstractAction() {
       @Override
@@ -403,7 +654,18 @@ public class Viewer extends JFrame {
     rootActionMap.put("backspace", new AbstractAction() {
       @Override
       public void actionPerformed(ActionEvent e) {
-        if (leftPanelActive) {
+        FileTableModel tableModel = leftPanelActive ? leftTableModel : rightTableModel;
+        if (tableModel.isFiltered()) {
+          String filter = tableModel.getFilter();
+          applyFilter(leftPanelActive, filter.substring(0, filter.length() - 1));
+        } else if (isSearchResults(leftPanelActive)) {
+          String rootPath = getActiveDirectoryPath();
+          if (leftPanelActive) {
+            updateLeftPanel(rootPath);
+          } else {
+            updateRightPanel(rootPath);
+          }
+        } else if (leftPanelActive) {
           String parentPath = model.getParentDirectory(leftCurrentPath);
           updateLeftPanel(parentPath);
         } else {
@@ -426,7 +688,17 @@ public class Viewer extends JFrame {
     rootActionMap.put("escape", new AbstractAction() {
       @Override
       public void actionPerformed(ActionEvent e) {
-        System.exit(0);
+        Future<?> search = leftPanelActive ? leftSearch : rightSearch;
+        if (search != null && !search.isDone()) {
+          search.cancel(true);
+          FileTableModel tableModel = leftPanelActive ? leftTableModel : rightTableModel;
+          setStatusText(leftPanelActive,
+              "Search cancelled, " + tableModel.getUnfilteredRowCount() + " found");
+        } else if ((leftPanelActive ? leftTableModel : rightTableModel).isFiltered()) {
+          applyFilter(leftPanelActive, "");
+        } else {
+          System.exit(0);
+        }
       }
     });
 
@@ -491,80 +763,485 @@ public class Viewer extends JFrame {
   }
 
   private void handleDoubleClick(boolean isLeft, int row) {
-    JTable table = isLeft ? leftTable : rightTable;
+    FileTableModel tableModel = isLeft ? leftTableModel : rightTableModel;
     String currentPath = isLeft ? leftCurrentPath : rightCurrentPath;
 
-    String fileName = (String) table.getValueAt(row, 0);
-    String fileType = (String) table.getValueAt(row, 3);
+    String fileName = tableModel.getName(row);
+    String newPath = currentPath + File.separator + fileName;
 
-    if (fileType.equals("Directory")) {
-      String newPath = currentPath + File.separator + fileName;
-      if (isLeft) {
-        updateLeftPanel(newPath);
-      } else {
-        updateRightPanel(newPath);
+    if (!tableModel.isDirectory(row)) {
+      // Archives open as directories, though not from inside another archive.
+      if (!Archives.isArchive(fileName) || Archives.isInArchive(currentPath)) {
+        showFile(model.toPath(newPath), 0);
+        return;
       }
+      newPath = Archives.root(newPath);
+    }
+    if (isLeft) {
+      updateLeftPanel(newPath);
     } else {
-      JOptionPane.showMessageDialog(this,
-          "Opening file: " + fileName,
-          "File Action",
-          JOptionPane.INFORMATION_MESSAGE);
+      updateRightPanel(newPath);
     }
   }
 
+  public void showFile(Path path, long offset) {
+    FileViewer.open(this, path, offset);
+  }
+
   public void updateLeftPanel(String path) {
     leftCurrentPath = path;
     leftPathField.setText(path);
-    updateTableContents(leftTableModel, path);
-    leftTable.getSelectionModel().setSelectionInterval(0, 0);
-    updateStatusBar(leftStatusBar, path);
+    loadPanel(true, path);
   }
 
   public void updateRightPanel(String path) {
     rightCurrentPath = path;
     rightPathField.setText(path);
-    updateTableContents(rightTableModel, path);
-    rightTable.getSelectionModel().setSelectionInterval(0, 0);
-    updateStatusBar(rightStatusBar, path);
+    loadPanel(false, path);
   }
 
-  private void updateTableContents(DefaultTableModel tableModel, String path) {
-    tableModel.setRowCount(0);
-    List<File> files = model.getDirectoryContents(path);
+  private void loadPanel(boolean isLeft, String path) {
+    cancelPanelTasks(isLeft);
+    setSearchResults(isLeft, false);
+
+    int generation = isLeft ? ++leftLoadGeneration : ++rightLoadGeneration;
 
-    for (File file : files) {
-      String name = file.getName();
-      String size = file.isDirectory() ? "<DIR>" : formatFileSize(file.length());
-      String date = dateFormat.format(new Date(file.lastModified()));
-      String type = file.isDirectory() ? "Directory" : getFileExtension(name);
+    FileTableModel tableModel = isLeft ? leftTableModel : rightTableModel;
 
-      tableModel.addRow(new Object[]{name, size, date, type});
+    List<FileEntry> cached = model.getCachedDirectoryContents(path);
+    if (cached != null) {
+      tableModel.clear();
+      showListing(isLeft, cached, createStatusText(path, cached));
+      Future<?> load = model.revalidateDirectoryContents(path, entries -> {
+        String status = createStatusText(path, entries);
+        SwingUtilities.invokeLater(() -> {
+          if (isCurrentLoad(isLeft, generation)) {
+            showListing(isLeft, entries, status);
+          }
+        });
+      });
+      setLoad(isLeft, load);
+      return;
     }
+
+    tableModel.clear();
+    setStatusText(isLeft, "Loading...");
+
+    Future<?> load = model.streamDirectoryContents(path, new Model.ListingListener() {
+      @Override
+      public void entriesLoaded(List<FileEntry> batch) {
+        SwingUtilities.invokeLater(() -> {
+          if (isCurrentLoad(isLeft, generation)) {
+            showBatch(isLeft, batch);
+          }
+        });
+      }
+
+      @Override
+      public void listingFinished(List<FileEntry> entries) {
+        String status = createStatusText(path, entries);
+        SwingUtilities.invokeLater(() -> {
+          if (isCurrentLoad(isLeft, generation)) {
+            setStatusText(isLeft, status);
+          }
+        });
+      }
+    });
+    setLoad(isLeft, load);
   }
 
-  private void updateStatusBar(JLabel statusBar, String path) {
-    File directory = new File(path);
-    if (directory.exists() && directory.isDirectory()) {
-      File[] files = directory.listFiles();
-      int fileCount = 0;
-      int dirCount = 0;
+  private void cancelPanelTasks(boolean isLeft) {
+    Future<?> previousLoad = isLeft ? leftLoad : rightLoad;
+    if (previousLoad != null) {
+      previousLoad.cancel(true);
+    }
+    Future<?> previousSizeCalculation = isLeft ? leftSizeCalculation : rightSizeCalculation;
+    if (previousSizeCalculation != null) {
+      previousSizeCalculation.cancel(true);
+    }
+    Future<?> previousSearch = isLeft ? leftSearch : rightSearch;
+    if (previousSearch != null) {
+      previousSearch.cancel(true);
+    }
+    (isLeft ? leftTableModel : rightTableModel).setFilter("");
+    (isLeft ? leftTableModel : rightTableModel).clearMarks();
+    (isLeft ? leftTableModel : rightTableModel).clearSelection();
+  }
 
-      if (files != null) {
-        for (File file : files) {
-          if (file.isDirectory()) {
-            dirCount++;
-          } else {
-            fileCount++;
+  /**
+   * Replaces the active panel with the files found under its directory. Results are named by
+   * their path relative to that directory, so copy, move and delete work on them as usual.
+   */
+  public void showSearchResults(FileFinder.Criteria criteria, String description) {
+    boolean isLeft = leftPanelActive;
+    String rootPath = getActiveDirectoryPath();
+    int generation = beginSearch(isLeft, rootPath, description);
+    FileTableModel tableModel = isLeft ? leftTableModel : rightTableModel;
+
+    Future<?> search = model.findFiles(rootPath, criteria, new FileFinder.Listener() {
+      @Override
+      public void matchesFound(List<FileEntry> batch, long scanned, double scannedPerSecond) {
+        SwingUtilities.invokeLater(() -> {
+          if (isCurrentLoad(isLeft, generation)) {
+            showBatch(isLeft, batch);
+            setStatusText(isLeft, "Searching... " + tableModel.getUnfilteredRowCount()
+                + " found, " + scanned + " scanned (" + Math.round(scannedPerSecond)
+                + " files/s)");
           }
+        });
+      }
+
+      @Override
+      public void searchFinished(long found, long scanned, long elapsedNanos) {
+        SwingUtilities.invokeLater(() -> {
+          if (isCurrentLoad(isLeft, generation)) {
+            setStatusText(isLeft, found + " found, " + scanned + " scanned in "
+                + String.format("%.1f", elapsedNanos / 1e9) + " s");
+          }
+        });
+      }
+    });
+    setSearch(isLeft, search);
+  }
+
+  /**
+   * Lists the files whose contents match the query in the active panel, and every hit with its
+   * line in a separate window; choosing a hit moves the cursor to its file, and F3 views it.
+   */
+  public void showContentSearchResults(FileFinder.Criteria criteria, ContentSearcher.Query query,
+      String description) {
+    boolean isLeft = leftPanelActive;
+    String rootPath = getActiveDirectoryPath();
+    int generation = beginSearch(isLeft, rootPath, description);
+    FileTableModel tableModel = isLeft ? leftTableModel : rightTableModel;
+    DefaultListModel<ContentSearcher.Hit> hits = new DefaultListModel<>();
+    Set<String> fileNames = new HashSet<>();
+    showHitsWindow(isLeft, rootPath, description, hits);
+
+    Future<?> search = model.searchContents(rootPath, criteria, query,
+        new ContentSearcher.Listener() {
+          @Override
+          public void hitsFound(List<ContentSearcher.Hit> batch, long filesScanned,
+              long bytesScanned, double bytesPerSecond) {
+            SwingUtilities.invokeLater(() -> {
+              if (!isCurrentLoad(isLeft, generation)) {
+                return;
+              }
+              List<FileEntry> files = new ArrayList<>();
+              for (ContentSearcher.Hit hit : batch) {
+                if (fileNames.add(hit.getFile().getName())) {
+                  files.add(hit.getFile());
+                }
+              }
+              hits.addAll(batch);
+              if (!files.isEmpty()) {
+                files.sort(FileEntry.DIRECTORIES_FIRST);
+                showBatch(isLeft, files);
+              }
+              setStatusText(isLeft, "Searching... " + hits.size() + " hits in "
+                  + fileNames.size() + " files, " + filesScanned + " files scanned ("
+                  + FileTableModel.formatFileSize((long) bytesPerSecond) + "/s)");
+            });
+          }
+
+          @Override
+          public void searchFinished(long hitCount, long filesScanned, long bytesScanned,
+              long elapsedNanos, boolean limitReached) {
+            SwingUtilities.invokeLater(() -> {
+              if (isCurrentLoad(isLeft, generation)) {
+                double seconds = elapsedNanos / 1e9;
+                setStatusText(isLeft, hitCount + " hits in " + fileNames.size() + " files"
+                    + (limitReached ? " (stopped at the hit limit)" : "") + ", "
+                    + filesScanned + " files, "
+                    + FileTableModel.formatFileSize(bytesScanned) + " scanned in "
+                    + String.format("%.1f", seconds) + " s ("
+                    + FileTableModel.formatFileSize((long) (bytesScanned / seconds)) + "/s)");
+              }
+            });
+          }
+        });
+    setSearch(isLeft, search);
+  }
+
+  private int beginSearch(boolean isLeft, String rootPath, String description) {
+    cancelPanelTasks(isLeft);
+    setSearchResults(isLeft, true);
+
+    int generation = isLeft ? ++leftLoadGeneration : ++rightLoadGeneration;
+    (isLeft ? leftTableModel : rightTableModel).clear();
+    (isLeft ? leftPathField : rightPathField).setText(
+        "Search results for " + description + " in " + rootPath);
+    setStatusText(isLeft, "Searching...");
+    return generation;
+  }
+
+  private void setSearch(boolean isLeft, Future<?> search) {
+    if (isLeft) {
+      leftSearch = search;
+    } else {
+      rightSearch = search;
+    }
+  }
+
+  private void showHitsWindow(boolean isLeft, String rootPath, String description,
+      DefaultListModel<ContentSearcher.Hit> hits) {
+    JDialog dialog = new JDialog(this, "Hits for " + description, false);
+    JList<ContentSearcher.Hit> list = new JList<>(hits);
+    list.setFixedCellHeight(18);
+    list.setCellRenderer(new DefaultListCellRenderer() {
+      @Override
+      public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+          boolean isSelected, boolean cellHasFocus) {
+        ContentSearcher.Hit hit = (ContentSearcher.Hit) value;
+        super.getListCellRendererComponent(list, hit.getFile().getName() + ":" + hit.getLine()
+            + ": " + hit.getText(), index, isSelected, cellHasFocus);
+        setToolTipText("Byte offset " + hit.getOffset());
+        return this;
+      }
+    });
+
+    Runnable showSelectedHit = () -> {
+      ContentSearcher.Hit hit = list.getSelectedValue();
+      JTable table = isLeft ? leftTable : rightTable;
+      int row = hit != null && isSearchResults(isLeft)
+          ? (isLeft ? leftTableModel : rightTableModel).indexOf(hit.getFile().getName()) : -1;
+      if (row != -1) {
+        table.getSelectionModel().setSelectionInterval(row, row);
+        table.scrollRectToVisible(table.getCellRect(row, 0, true));
+      }
+    };
+    list.addMouseListener(new MouseAdapter() {
+      @Override
+      public void mouseClicked(MouseEvent e) {
+        if (e.getClickCount() == 2) {
+          showSelectedHit.run();
         }
       }
+    });
+    list.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, 0), "showHit");
+    list.getActionMap().put("showHit", new AbstractAction() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        showSelectedHit.run();
+      }
+    });
+    list.getInputMap().put(KeyStroke.getKeyStroke(KeyEvent.VK_F3, 0), "viewHit");
+    list.getActionMap().put("viewHit", new AbstractAction() {
+      @Override
+      public void actionPerformed(ActionEvent e) {
+        ContentSearcher.Hit hit = list.getSelectedValue();
+        if (hit != null) {
+          showFile(model.toPath(rootPath).resolve(hit.getFile().getName()), hit.getOffset());
+        }
+      }
+    });
+    dialog.getRootPane().registerKeyboardAction(e -> dialog.dispose(),
+        KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0), JComponent.WHEN_IN_FOCUSED_WINDOW);
+
+    dialog.add(new JScrollPane(list));
+    dialog.setSize(700, 300);
+    dialog.setLocationRelativeTo(this);
+    dialog.setVisible(true);
+  }
+
+  public void showComparing() {
+    setStatusText(true, "Comparing...");
+    setStatusText(false, "Comparing...");
+  }
+
+  /**
+   * Colours the entries of both panels that differ, with the active panel as the left side of
+   * the comparison, and marks the ones that a synchronization would copy to the other panel.
+   * A directory holding differences deeper down is shown as different.
+   */
+  public void showComparison(DirectoryComparator.Result result) {
+    Map<String, FileTableModel.Mark> activeMarks = new HashMap<>();
+    Map<String, FileTableModel.Mark> inactiveMarks = new HashMap<>();
+    for (DirectoryComparator.Difference difference : result.getDifferences()) {
+      String name = difference.getTopLevelName();
+      if (!name.equals(difference.getPath())) {
+        addMark(activeMarks, name, FileTableModel.Mark.DIFFERENT);
+        addMark(inactiveMarks, name, FileTableModel.Mark.DIFFERENT);
+        continue;
+      }
+      switch (difference.getStatus()) {
+        case LEFT_ONLY:
+          addMark(activeMarks, name, FileTableModel.Mark.UNIQUE);
+          break;
+        case RIGHT_ONLY:
+          addMark(inactiveMarks, name, FileTableModel.Mark.UNIQUE);
+          break;
+        case LEFT_NEWER:
+          addMark(activeMarks, name, FileTableModel.Mark.NEWER);
+          addMark(inactiveMarks, name, FileTableModel.Mark.DIFFERENT);
+          break;
+        case RIGHT_NEWER:
+          addMark(activeMarks, name, FileTableModel.Mark.DIFFERENT);
+          addMark(inactiveMarks, name, FileTableModel.Mark.NEWER);
+          break;
+        default:
+          addMark(activeMarks, name, FileTableModel.Mark.DIFFERENT);
+          addMark(inactiveMarks, name, FileTableModel.Mark.DIFFERENT);
+      }
+    }
+
+    applyMarks(leftPanelActive, activeMarks);
+    applyMarks(!leftPanelActive, inactiveMarks);
+  }
+
+  private static void addMark(Map<String, FileTableModel.Mark> marks, String name,
+      FileTableModel.Mark mark) {
+    marks.merge(name, mark, (previous, next) -> previous == next ? previous
+        : FileTableModel.Mark.DIFFERENT);
+  }
+
+  // Clicking the sorted column again reverses it; the cursor follows its file to its new
+  // position.
+  private void sortPanel(boolean isLeft, int column) {
+    JTable table = isLeft ? leftTable : rightTable;
+    FileTableModel tableModel = isLeft ? leftTableModel : rightTableModel;
+
+    int lead = table.getSelectionModel().getLeadSelectionIndex();
+    String current = lead >= 0 && lead < tableModel.getRowCount() ? tableModel.getName(lead) : null;
 
-      statusBar.setText(dirCount + " directories, " + fileCount + " files");
+    boolean descending = column == tableModel.getSortColumn() && !tableModel.isSortDescending();
+    tableModel.setSort(column, descending);
+    table.getTableHeader().repaint();
+
+    int currentRow = current != null ? tableModel.indexOf(current) : -1;
+    if (currentRow != -1) {
+      table.getSelectionModel().setSelectionInterval(currentRow, currentRow);
+      table.scrollRectToVisible(table.getCellRect(currentRow, 0, true));
+    }
+  }
+
+  // The result is only drawn through the marks, so the user's selection is left as it was.
+  private void applyMarks(boolean isLeft, Map<String, FileTableModel.Mark> marks) {
+    FileTableModel tableModel = isLeft ? leftTableModel : rightTableModel;
+    tableModel.setMarks(marks);
+
+    int newer = 0;
+    int unique = 0;
+    for (FileTableModel.Mark mark : marks.values()) {
+      if (mark == FileTableModel.Mark.NEWER) {
+        newer++;
+      } else if (mark == FileTableModel.Mark.UNIQUE) {
+        unique++;
+      }
+    }
+    setStatusText(isLeft, marks.isEmpty() ? "No differences"
+        : marks.size() + " differ: " + unique + " only here, " + newer + " newer here");
+  }
+
+  private boolean isSearchResults(boolean isLeft) {
+    return isLeft ? leftSearchResults : rightSearchResults;
+  }
+
+  private void setSearchResults(boolean isLeft, boolean searchResults) {
+    if (isLeft) {
+      leftSearchResults = searchResults;
+    } else {
+      rightSearchResults = searchResults;
+    }
+  }
+
+  private void setLoad(boolean isLeft, Future<?> load) {
+    if (isLeft) {
+      leftLoad = load;
     } else {
-      statusBar.setText("Invalid directory");
+      rightLoad = load;
     }
   }
 
+  private boolean isCurrentLoad(boolean isLeft, int generation) {
+    return generation == (isLeft ? leftLoadGeneration : rightLoadGeneration);
+  }
+
+  private void showListing(boolean isLeft, List<FileEntry> entries, String status) {
+    JTable table = isLeft ? leftTable : rightTable;
+    FileTableModel tableModel = isLeft ? leftTableModel : rightTableModel;
+
+    int selectedRow = table.getSelectedRow();
+    String selectedName = selectedRow != -1 ? tableModel.getName(selectedRow) : null;
+
+    // A full data change clears the cursor, so it is found again by name.
+    tableModel.applyListing(entries);
+    int rowCount = tableModel.getRowCount();
+    if (rowCount > 0 && table.getSelectedRow() == -1) {
+      int row = selectedName != null ? tableModel.indexOf(selectedName) : -1;
+      if (row == -1) {
+        row = Math.min(Math.max(selectedRow, 0), rowCount - 1);
+      }
+      table.getSelectionModel().setSelectionInterval(row, row);
+    }
+    setStatusText(isLeft, status);
+  }
+
+  private void showBatch(boolean isLeft, List<FileEntry> batch) {
+    JTable table = isLeft ? leftTable : rightTable;
+    FileTableModel tableModel = isLeft ? leftTableModel : rightTableModel;
+
+    int selectedRow = table.getSelectedRow();
+    tableModel.mergeEntries(batch);
+    if (selectedRow <= 0 && tableModel.getRowCount() > 0) {
+      table.getSelectionModel().setSelectionInterval(0, 0);
+    }
+    setStatusText(isLeft, "Loading... " + tableModel.getRowCount() + " entries");
+  }
+
+  private void setStatusText(boolean isLeft, String text) {
+    if (isLeft) {
+      leftStatusText = text;
+    } else {
+      rightStatusText = text;
+    }
+    updateStatusBar(isLeft);
+  }
+
+  private void updateStatusBar(boolean isLeft) {
+    JTable table = isLeft ? leftTable : rightTable;
+    FileTableModel tableModel = isLeft ? leftTableModel : rightTableModel;
+
+    int selectedCount = 0;
+    long selectedSize = 0;
+    if (tableModel.hasSelection()) {
+      for (int row = 0; row < tableModel.getRowCount(); row++) {
+        if (tableModel.isSelected(row)) {
+          selectedCount++;
+          selectedSize += Math.max(tableModel.getTotalSize(row), 0);
+        }
+      }
+    }
+
+    String text = isLeft ? leftStatusText : rightStatusText;
+    if (tableModel.isFiltered()) {
+      text += " | filter '" + tableModel.getFilter() + "': " + tableModel.getRowCount() + " of "
+          + tableModel.getUnfilteredRowCount() + " match";
+    }
+    if (selectedCount > 1) {
+      text += " | " + selectedCount + " selected, "
+          + FileTableModel.formatFileSize(selectedSize);
+    }
+    (isLeft ? leftStatusBar : rightStatusBar).setText(text);
+  }
+
+  private String createStatusText(String path, List<FileEntry> entries) {
+    if (entries.isEmpty() && !model.isDirectory(path)) {
+      return "Invalid directory";
+    }
+
+    int fileCount = 0;
+    int dirCount = 0;
+    for (FileEntry entry : entries) {
+      if (entry.isDirectory()) {
+        dirCount++;
+      } else {
+        fileCount++;
+      }
+    }
+    return dirCount + " directories, " + fileCount + " files";
+  }
+
   private void highlightActivePanel() {
     if (leftPanelActive) {
       leftPanel.setBorder(BorderFactory.createLineBorder(Color.BLUE, 2));
@@ -573,26 +1250,69 @@ public class Viewer extends JFrame {
       rightPanel.setBorder(BorderFactory.createLineBorder(Color.BLUE, 2));
       leftPanel.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
     }
+    if (quickView) {
+      showQuickViewCards();
+      updateQuickView();
+    }
   }
 
-  private String formatFileSize(long size) {
-    if (size < 1024) {
-      return size + " B";
-    } else if (size < 1024 * 1024) {
-      return String.format("%.1f KB", size / 1024.0);
-    } else if (size < 1024 * 1024 * 1024) {
-      return String.format("%.1f MB", size / (1024.0 * 1024));
-    } else {
-      return String.format("%.1f GB", size / (1024.0 * 1024 * 1024));
-    }
+  private void toggleQuickView() {
+    quickView = !quickView;
+    previewedPath = null;
+    previewGeneration++;
+    showQuickViewCards();
+    updateQuickView();
   }
 
-  private String getFileExtension(String fileName) {
-    int lastDot = fileName.lastIndexOf('.');
-    if (lastDot > 0 && lastDot < fileName.length() - 1) {
-      return fileName.substring(lastDot + 1).toUpperCase() + " File";
+  private void showQuickViewCards() {
+    ((CardLayout) leftContent.getLayout()).show(leftContent,
+        quickView && !leftPanelActive ? QUICK_VIEW_CARD : FILES_CARD);
+    ((CardLayout) rightContent.getLayout()).show(rightContent,
+        quickView && leftPanelActive ? QUICK_VIEW_CARD : FILES_CARD);
+  }
+
+  /**
+   * Previews the entry under the active panel's cursor in the inactive panel. Loading a preview
+   * supersedes the previous one, so only the entry the cursor stops on is decoded.
+   */
+  private void updateQuickView() {
+    if (!quickView) {
+      return;
+    }
+    boolean isLeft = leftPanelActive;
+    JTable table = isLeft ? leftTable : rightTable;
+    FileTableModel tableModel = isLeft ? leftTableModel : rightTableModel;
+    String path = isLeft ? leftCurrentPath : rightCurrentPath;
+    QuickViewPanel target = isLeft ? rightQuickView : leftQuickView;
+
+    int row = table.getSelectionModel().getLeadSelectionIndex();
+    if (row < 0 || row >= tableModel.getRowCount()) {
+      previewedPath = null;
+      target.showPreview("", null);
+      return;
     }
-    return "File";
+    String name = tableModel.getName(row);
+    String previewPath = path + File.separator + name;
+    if (previewPath.equals(previewedPath)) {
+      return;
+    }
+    previewedPath = previewPath;
+    int generation = ++previewGeneration;
+    target.showPreview(name, null);
+    model.loadPreview(path, name, tableModel.getKind(row), tableModel.getSize(row),
+        tableModel.getLastModified(row), preview -> {
+          Runnable show = () -> {
+            if (generation == previewGeneration) {
+              target.showPreview(name, preview);
+            }
+          };
+          // Cached thumbnails arrive at once, on this thread.
+          if (SwingUtilities.isEventDispatchThread()) {
+            show.run();
+          } else {
+            SwingUtilities.invokeLater(show);
+          }
+        });
   }
 
   public String getActiveDirectoryPath() {
@@ -605,44 +1325,331 @@ public class Viewer extends JFrame {
 
   public String getSelectedFileName() {
     JTable activeTable = leftPanelActive ? leftTable : rightTable;
-    int selectedRow = activeTable.getSelectedRow();
-    if (selectedRow != -1) {
-      return (String) activeTable.getValueAt(selectedRow, 0);
+    FileTableModel activeTableModel = leftPanelActive ? leftTableModel : rightTableModel;
+    int row = activeTable.getSelectionModel().getLeadSelectionIndex();
+    if (row == -1 || row >= activeTableModel.getRowCount()) {
+      row = activeTable.getSelectedRow();
+    }
+    if (row != -1) {
+      return activeTableModel.getName(row);
     }
     return null;
   }
 
+  // Falls back to the row under the cursor when nothing is selected.
+  public List<String> getSelectedFileNames() {
+    FileTableModel activeTableModel = leftPanelActive ? leftTableModel : rightTableModel;
+
+    List<String> names = activeTableModel.getSelectedNames();
+    if (names.isEmpty()) {
+      String name = getSelectedFileName();
+      if (name != null) {
+        names.add(name);
+      }
+    }
+    return names;
+  }
+
+  private void applyFilter(boolean isLeft, String filter) {
+    JTable table = isLeft ? leftTable : rightTable;
+    FileTableModel tableModel = isLeft ? leftTableModel : rightTableModel;
+
+    int lead = table.getSelectionModel().getLeadSelectionIndex();
+    String current = lead >= 0 && lead < tableModel.getRowCount() ? tableModel.getName(lead) : null;
+
+    tableModel.setFilter(filter);
+    int rowCount = tableModel.getRowCount();
+    if (rowCount > 0) {
+      int row = current != null ? tableModel.indexOf(current) : -1;
+      row = Math.max(row, 0);
+      table.getSelectionModel().setSelectionInterval(row, row);
+      table.scrollRectToVisible(table.getCellRect(row, 0, true));
+    }
+    updateStatusBar(isLeft);
+  }
+
+  private void calculateSizes(boolean isLeft, boolean allDirectories) {
+    JTable table = isLeft ? leftTable : rightTable;
+    FileTableModel tableModel = isLeft ? leftTableModel : rightTableModel;
+    String path = isLeft ? leftCurrentPath : rightCurrentPath;
+
+    List<String> names = new ArrayList<>();
+    if (allDirectories) {
+      for (int row = 0; row < tableModel.getRowCount() && tableModel.isDirectory(row); row++) {
+        names.add(tableModel.getName(row));
+      }
+    } else {
+      int row = table.getSelectionModel().getLeadSelectionIndex();
+      if (row >= 0 && row < tableModel.getRowCount() && tableModel.isDirectory(row)) {
+        names.add(tableModel.getName(row));
+      }
+    }
+    if (names.isEmpty()) {
+      return;
+    }
+
+    Future<?> previous = isLeft ? leftSizeCalculation : rightSizeCalculation;
+    if (previous != null) {
+      previous.cancel(true);
+    }
+    // Sizes that arrive before the event thread gets to them are applied together.
+    Map<String, Long> arrived = new HashMap<>();
+    Future<?> calculation = model.calculateDirectorySizes(path, names, (name, total) -> {
+      synchronized (arrived) {
+        boolean scheduled = !arrived.isEmpty();
+        arrived.put(name, total.getBytes());
+        if (scheduled) {
+          return;
+        }
+      }
+      SwingUtilities.invokeLater(() -> {
+        Map<String, Long> sizes;
+        synchronized (arrived) {
+          sizes = new HashMap<>(arrived);
+          arrived.clear();
+        }
+        if (path.equals(isLeft ? leftCurrentPath : rightCurrentPath)) {
+          applyDirectorySizes(isLeft, sizes);
+        }
+      });
+    });
+    if (isLeft) {
+      leftSizeCalculation = calculation;
+    } else {
+      rightSizeCalculation = calculation;
+    }
+  }
+
+  // When the panel is sorted by size the rows move, and the cursor follows its file.
+  private void applyDirectorySizes(boolean isLeft, Map<String, Long> sizes) {
+    JTable table = isLeft ? leftTable : rightTable;
+    FileTableModel tableModel = isLeft ? leftTableModel : rightTableModel;
+    int lead = table.getSelectionModel().getLeadSelectionIndex();
+    String current = lead >= 0 && lead < tableModel.getRowCount() ? tableModel.getName(lead) : null;
+
+    if (tableModel.setDirectorySizes(sizes) && current != null) {
+      int row = tableModel.indexOf(current);
+      if (row != -1) {
+        table.getSelectionModel().setSelectionInterval(row, row);
+      }
+    }
+    updateStatusBar(isLeft);
+  }
+
+  private void toggleSelection(boolean isLeft) {
+    JTable table = isLeft ? leftTable : rightTable;
+    FileTableModel tableModel = isLeft ? leftTableModel : rightTableModel;
+    int row = table.getSelectionModel().getLeadSelectionIndex();
+    int rowCount = tableModel.getRowCount();
+    if (row < 0 || row >= rowCount) {
+      return;
+    }
+
+    tableModel.toggleSelected(row);
+    int next = Math.min(row + 1, rowCount - 1);
+    table.getSelectionModel().setSelectionInterval(next, next);
+    table.scrollRectToVisible(table.getCellRect(next, 0, true));
+    updateStatusBar(isLeft);
+  }
+
+  private void selectGroup(boolean isLeft, boolean select) {
+    String pattern = JOptionPane.showInputDialog(this,
+        select ? "Select files matching:" : "Deselect files matching:", "*.*");
+    if (pattern == null || pattern.trim().isEmpty()) {
+      return;
+    }
+
+    PathMatcher matcher;
+    try {
+      matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern.trim());
+    } catch (IllegalArgumentException e) {
+      JOptionPane.showMessageDialog(this, "Invalid pattern: " + e.getMessage(), "Error",
+          JOptionPane.ERROR_MESSAGE);
+      return;
+    }
+
+    FileTableModel tableModel = isLeft ? leftTableModel : rightTableModel;
+    int rowCount = tableModel.getRowCount();
+    int[] rows = new int[rowCount];
+    int matched = 0;
+    for (int row = 0; row < rowCount; row++) {
+      if (!tableModel.isDirectory(row) && matcher.matches(Paths.get(tableModel.getName(row)))) {
+        rows[matched++] = row;
+      }
+    }
+    tableModel.setSelected(Arrays.copyOf(rows, matched), select);
+    updateStatusBar(isLeft);
+  }
+
   public void refreshPanels() {
-    updateLeftPanel(leftCurrentPath);
-    updateRightPanel(rightCurrentPath);
+    refreshPanel(true);
+    refreshPanel(false);
   }
 
-  private class FileTableCellRenderer extends DefaultListCellRenderer implements TableCellRenderer {
+  private void refreshPanel(boolean isLeft) {
+    if (isSearchResults(isLeft)) {
+      refreshSearchResults(isLeft);
+      return;
+    }
+
+    Future<?> previousLoad = isLeft ? leftLoad : rightLoad;
+    if (previousLoad != null) {
+      previousLoad.cancel(true);
+    }
+
+    int generation = isLeft ? ++leftLoadGeneration : ++rightLoadGeneration;
+    String path = isLeft ? leftCurrentPath : rightCurrentPath;
+
+    Future<?> load = model.loadDirectoryContents(path, entries -> {
+      String status = createStatusText(path, entries);
+      SwingUtilities.invokeLater(() -> {
+        if (isCurrentLoad(isLeft, generation)) {
+          showListing(isLeft, entries, status);
+        }
+      });
+    });
+    setLoad(isLeft, load);
+  }
+
+  // Results are re-read in place rather than searched again; a running search is left alone.
+  private void refreshSearchResults(boolean isLeft) {
+    Future<?> search = isLeft ? leftSearch : rightSearch;
+    if (search != null && !search.isDone()) {
+      return;
+    }
+    Future<?> previousLoad = isLeft ? leftLoad : rightLoad;
+    if (previousLoad != null) {
+      previousLoad.cancel(true);
+    }
+
+    int generation = isLeft ? ++leftLoadGeneration : ++rightLoadGeneration;
+    String rootPath = isLeft ? leftCurrentPath : rightCurrentPath;
+    List<String> names = (isLeft ? leftTableModel : rightTableModel).getUnfilteredNames();
+
+    Future<?> load = model.rereadEntries(rootPath, names,
+        entries -> SwingUtilities.invokeLater(() -> {
+          if (isCurrentLoad(isLeft, generation)) {
+            showListing(isLeft, entries, entries.size() + " found");
+          }
+        }));
+    setLoad(isLeft, load);
+  }
+
+  private void directoryChanged(Path directory) {
+    if (Model.isSameDirectory(leftCurrentPath, directory)) {
+      leftRefreshTimer.restart();
+    }
+    if (Model.isSameDirectory(rightCurrentPath, directory)) {
+      rightRefreshTimer.restart();
+    }
+  }
+
+  private static class QuickViewPanel extends JComponent {
+
+    private static final int MARGIN = 5;
+
+    private String name = "";
+    private PreviewLoader.Preview preview;
+
+    QuickViewPanel() {
+      setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+      setBackground(Color.BLUE);
+      setForeground(Color.WHITE);
+    }
+
+    // Shows the name alone, as loading, while preview is null.
+    void showPreview(String name, PreviewLoader.Preview preview) {
+      this.name = name;
+      this.preview = preview;
+      repaint();
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+      g.setColor(getBackground());
+      g.fillRect(0, 0, getWidth(), getHeight());
+      g.setFont(getFont());
+      FontMetrics metrics = g.getFontMetrics();
+      int lineHeight = metrics.getHeight();
+      int y = MARGIN + metrics.getAscent();
+
+      g.setColor(Color.YELLOW);
+      g.drawString(name, MARGIN, y);
+      y += lineHeight;
+      g.setColor(getForeground());
+      if (preview == null) {
+        if (!name.isEmpty()) {
+          g.drawString("Loading...", MARGIN, y);
+        }
+        return;
+      }
+      g.drawString(preview.getSummary(), MARGIN, y);
+      int top = y + metrics.getDescent() + MARGIN;
+
+      BufferedImage image = preview.getImage();
+      if (image != null) {
+        double scale = Math.min((getWidth() - 2.0 * MARGIN) / image.getWidth(),
+            (double) (getHeight() - top - MARGIN) / image.getHeight());
+        int width = Math.max(1, (int) (image.getWidth() * scale));
+        int height = Math.max(1, (int) (image.getHeight() * scale));
+        Graphics2D g2 = (Graphics2D) g;
+        g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+            RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g2.drawImage(image, (getWidth() - width) / 2, top, width, height, null);
+      } else if (preview.getText() != null) {
+        int baseline = top + metrics.getAscent();
+        for (String line : preview.getText().split("\\r?\\n", -1)) {
+          if (baseline - metrics.getAscent() > getHeight()) {
+            break;
+          }
+          g.drawString(line.replace("\t", "    "), MARGIN, baseline);
+          baseline += lineHeight;
+        }
+      }
+    }
+  }
+
+  private class FileTableCellRenderer extends DefaultTableCellRenderer {
+
+    private final boolean isLeft;
+    private final Border focusBorder = UIManager.getBorder("Table.focusCellHighlightBorder");
+
+    FileTableCellRenderer(boolean isLeft) {
+      this.isLeft = isLeft;
+      setOpaque(true);
+    }
 
     @Override
     public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected,
         boolean hasFocus, int row, int column) {
-      JLabel label = (JLabel) super.getListCellRendererComponent(
-          new JList<>(), value, row, isSelected, hasFocus);
+      FileTableModel tableModel = (FileTableModel) table.getModel();
 
-      if (column == 0) {
-        String type = (String) table.getValueAt(row, 3);
-        if ("Directory".equals(type)) {
-          label.setIcon(UIManager.getIcon("FileView.directoryIcon"));
+      setText((String) value);
+      if (table.convertColumnIndexToModel(column) == FileTableModel.NAME_COLUMN) {
+        if (tableModel.isDirectory(row)) {
+          setIcon(iconCache.getDirectoryIcon());
         } else {
-          label.setIcon(UIManager.getIcon("FileView.fileIcon"));
+          String directory = isLeft ? leftCurrentPath : rightCurrentPath;
+          setIcon(iconCache.getFileIcon(tableModel.getExtension(row), directory,
+              tableModel.getName(row)));
         }
+      } else {
+        setIcon(null);
       }
 
-      if (isSelected) {
-        label.setBackground(new Color(0, 0, 128));
-        label.setForeground(Color.WHITE);
+      // isSelected is the cursor; files selected for an operation are kept by the model.
+      if (tableModel.isSelected(row)) {
+        setBackground(isSelected ? SELECTED_FILE_CURSOR_BACKGROUND : SELECTED_FILE_BACKGROUND);
       } else {
-        label.setBackground(Color.BLUE);
-        label.setForeground(Color.WHITE);
+        setBackground(isSelected ? SELECTION_BACKGROUND : Color.BLUE);
       }
+      FileTableModel.Mark mark = tableModel.getMark(row);
+      setForeground(mark == FileTableModel.Mark.UNIQUE ? UNIQUE_FOREGROUND
+          : mark == FileTableModel.Mark.NEWER ? NEWER_FOREGROUND
+          : mark == FileTableModel.Mark.DIFFERENT ? DIFFERENT_FOREGROUND : Color.WHITE);
+      setBorder(hasFocus && focusBorder != null ? focusBorder : noFocusBorder);
 
-      return label;
+      return this;
     }
   }
-}
\ No newline at end of file
+}